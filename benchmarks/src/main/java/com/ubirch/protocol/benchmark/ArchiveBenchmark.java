@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.ProtocolVerifier;
+import com.ubirch.protocol.codec.MsgPackArchiveReader;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling benchmark of the {@link MsgPackArchiveReader}, scanning and "verifying" an archive with a no-op verifier
+ * in 1 to N segments in parallel. The score is per message.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveBenchmark {
+    private static final int MESSAGES = 200_000;
+    private static final ProtocolSigner NOOP_SIGNER = (uuid, data, offset, len) -> new byte[64];
+    private static final ProtocolVerifier NOOP_VERIFIER = new ProtocolVerifier() {
+        @Override
+        public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) {
+            return true;
+        }
+
+        // the mapped messages are verified as buffers, do not copy them like the default
+        @Override
+        public boolean verify(UUID uuid, ByteBuffer data, byte[] signature) {
+            return true;
+        }
+    };
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Path file;
+    private MsgPackArchiveReader reader;
+    private ForkJoinPool pool;
+    private List<MsgPackArchiveReader.Segment> segments;
+
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException {
+        file = Files.createTempFile("archive", ".mpack");
+        byte[] message = MsgPackProtocolEncoder.getEncoder().encode(Messages.create(ProtocolMessage.CHAINED, Payloads.HASH), NOOP_SIGNER);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < MESSAGES; i++) {
+                out.write(message);
+            }
+        }
+        reader = MsgPackArchiveReader.open(file);
+        pool = new ForkJoinPool(threads);
+        segments = reader.split(4 * threads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        reader.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long scanAll() throws IOException, GeneralSecurityException {
+        return reader.scanAll(segments, pool, (position, view) -> view.verify(NOOP_VERIFIER));
+    }
+}
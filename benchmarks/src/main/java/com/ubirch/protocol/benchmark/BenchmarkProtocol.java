@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.crypto.GeneratorKeyFactory;
+import com.ubirch.crypto.PrivKey;
+import com.ubirch.crypto.PubKey;
+import com.ubirch.crypto.utils.Curve;
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.SignRequest;
+import com.ubirch.protocol.VerifyRequest;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ed25519 protocol implementation used by the benchmarks, equivalent to the one used in the unit tests.
+ *
+ * @author Matthias L. Jugel
+ */
+public class BenchmarkProtocol extends Protocol {
+    public static final UUID BENCHMARK_UUID = UUID.fromString("6eac4d0b-16e6-4508-8c46-22e7451ea5a1");
+
+    private static final String PRIVATE_KEY = "a6abdc5466e0ab864285ba925452d02866638a8acb5ebdc065d2506661301417";
+    private static final String PUBLIC_KEY = "b12a906051f102881bbb487ee8264aa05d8d0fcc51218f2a47f562ceb9b0d068";
+
+    private final byte[] zeroSignature = new byte[64];
+    private final Map<UUID, byte[]> signatures = new ConcurrentHashMap<>();
+    private final PrivKey privateKey;
+    private final PubKey publicKey;
+    private final MessageDigest sha512;
+
+    public BenchmarkProtocol() throws NoSuchAlgorithmException, InvalidKeyException, DecoderException {
+        privateKey = GeneratorKeyFactory.getPrivKey(Hex.decodeHex(PRIVATE_KEY.toCharArray()), Curve.Ed25519);
+        publicKey = GeneratorKeyFactory.getPubKey(Hex.decodeHex(PUBLIC_KEY.toCharArray()), Curve.Ed25519);
+        sha512 = MessageDigest.getInstance("SHA-512");
+    }
+
+    @Override
+    public byte[] sign(UUID uuid, byte[] data, int offset, int len) throws SignatureException, InvalidKeyException {
+        byte[] signature = privateKey.sign(digest(data, offset, len));
+        signatures.put(uuid, signature);
+        return signature;
+    }
+
+    /**
+     * Signs the batch with a single digest instance, amortizing the digest setup.
+     */
+    @Override
+    public List<byte[]> signBatch(List<SignRequest> requests) throws SignatureException, InvalidKeyException {
+        MessageDigest md;
+        try {
+            md = (MessageDigest) sha512.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new SignatureException("unable to clone SHA512 instance", e);
+        }
+        List<byte[]> result = new ArrayList<>(requests.size());
+        for (SignRequest request : requests) {
+            md.update(request.getData(), request.getOffset(), request.getLength());
+            byte[] signature = privateKey.sign(md.digest());
+            signatures.put(request.getUUID(), signature);
+            result.add(signature);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) throws SignatureException, InvalidKeyException {
+        try {
+            return publicKey.verify(digest(data, offset, len), signature);
+        } catch (NoSuchAlgorithmException e) {
+            throw new InvalidKeyException(e);
+        } catch (IOException e) {
+            throw new SignatureException(e);
+        }
+    }
+
+    /**
+     * Verifies the batch with a single digest instance. The crypto library has no Ed25519 batch verification,
+     * so the signatures are still verified one by one.
+     */
+    @Override
+    public boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+        MessageDigest md;
+        try {
+            md = (MessageDigest) sha512.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new SignatureException("unable to clone SHA512 instance", e);
+        }
+        boolean[] valid = new boolean[requests.size()];
+        try {
+            for (int i = 0; i < valid.length; i++) {
+                VerifyRequest request = requests.get(i);
+                md.update(request.getData(), request.getOffset(), request.getLength());
+                valid[i] = publicKey.verify(md.digest(), request.getSignature());
+            }
+            return valid;
+        } catch (NoSuchAlgorithmException e) {
+            throw new InvalidKeyException(e);
+        } catch (IOException e) {
+            throw new SignatureException(e);
+        }
+    }
+
+    @Override
+    public boolean hasBatchVerification() {
+        return true;
+    }
+
+    @Override
+    protected byte[] getLastSignature(UUID uuid) {
+        return signatures.getOrDefault(uuid, zeroSignature);
+    }
+
+    private byte[] digest(byte[] data, int offset, int len) throws SignatureException {
+        try {
+            MessageDigest md = (MessageDigest) sha512.clone();
+            md.update(data, offset, len);
+            return md.digest();
+        } catch (CloneNotSupportedException e) {
+            throw new SignatureException("unable to clone SHA512 instance", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.chain.MappedChainStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the {@link MappedChainStore}, measuring updates and lookups of random uuids and the time to open
+ * a filled store. Run with {@code -p uuids=10000000} for a production sized store.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainStoreBenchmark {
+    private static final long UUID_MSB = 0x6eac4d0b16e64508L;
+
+    @Param({"1000000"})
+    public int uuids;
+
+    private final byte[] signature = new byte[64];
+    private Path file;
+    private MappedChainStore store;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("chain-state", ".db");
+        Files.delete(file);
+        store = MappedChainStore.open(file, uuids);
+        for (int i = 0; i < uuids; i++) {
+            store.put(uuid(i), signature);
+        }
+        store.force();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        Files.delete(file);
+    }
+
+    private static UUID uuid(int i) {
+        return new UUID(UUID_MSB, i * 0x9e3779b97f4a7c15L);
+    }
+
+    @Benchmark
+    public void update() {
+        store.put(uuid(ThreadLocalRandom.current().nextInt(uuids)), signature);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return store.get(uuid(ThreadLocalRandom.current().nextInt(uuids)));
+    }
+
+    /**
+     * Time from opening the store to the first lookup, i.e. when a restarted service can continue chaining.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public byte[] open() throws IOException {
+        try (MappedChainStore reopened = MappedChainStore.open(file, uuids)) {
+            return reopened.get(uuid(ThreadLocalRandom.current().nextInt(uuids)));
+        }
+    }
+}
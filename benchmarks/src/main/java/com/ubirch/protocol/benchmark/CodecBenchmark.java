@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.DigestSigner;
+import com.ubirch.protocol.DigestVerifier;
+import com.ubirch.protocol.MessageDigests;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.ProtocolVerifier;
+import com.ubirch.protocol.VerifyResult;
+import com.ubirch.protocol.codec.JSONProtocolDecoder;
+import com.ubirch.protocol.codec.JSONProtocolEncoder;
+import com.ubirch.protocol.codec.MsgPackProtocolDecoder;
+import com.ubirch.protocol.codec.MsgPackProtocolEmitter;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import com.ubirch.protocol.codec.MsgPackProtocolHeader;
+import com.ubirch.protocol.codec.MsgPackProtocolView;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the raw codecs with a no-op signer and verifier, separating the codec cost from the crypto cost.
+ * The digest benchmarks compare a SHA-512 hashing signer and verifier with their {@link DigestSigner} and
+ * {@link DigestVerifier} equivalents, which get the digest computed by the codec while packing or parsing.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private static final byte[] SIGNATURE = new byte[64];
+    private static final ProtocolSigner NOOP_SIGNER = (uuid, data, offset, len) -> SIGNATURE;
+    private static final ProtocolVerifier NOOP_VERIFIER = (uuid, data, offset, len, signature) -> true;
+    private static final ProtocolSigner SHA512_SIGNER = (uuid, data, offset, len) -> sha512(data, offset, len);
+    private static final ProtocolVerifier SHA512_VERIFIER = (uuid, data, offset, len, signature) ->
+            sha512(data, offset, len) != null;
+    private static final Sha512Digest DIGEST_SIGNER = new Sha512Digest();
+
+    private static byte[] sha512(byte[] data, int offset, int len) throws SignatureException {
+        MessageDigest digest = MessageDigests.get("SHA-512");
+        digest.update(data, offset, len);
+        return digest.digest();
+    }
+
+    private static class Sha512Digest implements DigestSigner, DigestVerifier {
+        @Override
+        public String getDigestAlgorithm() {
+            return "SHA-512";
+        }
+
+        @Override
+        public byte[] signDigest(UUID uuid, byte[] digest) {
+            return digest;
+        }
+
+        @Override
+        public boolean verifyDigest(UUID uuid, byte[] digest, byte[] signature) {
+            return digest != null;
+        }
+    }
+
+    @Param({"SIGNED", "CHAINED"})
+    public String type;
+
+    @Param({"HASH", "NESTED"})
+    public Payloads payload;
+
+    private final MsgPackProtocolView view = new MsgPackProtocolView();
+    private final MsgPackProtocolHeader header = new MsgPackProtocolHeader();
+    private MsgPackProtocolEmitter emitter;
+    private ProtocolMessage message;
+    private byte[] msgpack;
+    private ByteBuffer msgpackDirect;
+    private String json;
+    private byte[] target;
+
+    @Setup
+    public void setup() throws ProtocolException, SignatureException {
+        int version = "CHAINED".equals(type) ? ProtocolMessage.CHAINED : ProtocolMessage.SIGNED;
+        message = Messages.create(version, payload);
+        emitter = new MsgPackProtocolEmitter(message.getUUID(), version);
+        msgpack = MsgPackProtocolEncoder.getEncoder().encode(Messages.create(version, payload), NOOP_SIGNER);
+        target = new byte[msgpack.length];
+        msgpackDirect = ByteBuffer.allocateDirect(msgpack.length);
+        msgpackDirect.put(msgpack).flip();
+        json = JSONProtocolEncoder.getEncoder().encode(Messages.create(version, payload), NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public byte[] msgpackEncode() throws ProtocolException, SignatureException {
+        return MsgPackProtocolEncoder.getEncoder().encode(message, NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public int msgpackEncodeTarget() throws ProtocolException, SignatureException {
+        return MsgPackProtocolEncoder.getEncoder().encode(message, NOOP_SIGNER, target, 0);
+    }
+
+    @Benchmark
+    public byte[] msgpackEncodeSha512() throws ProtocolException, SignatureException {
+        return MsgPackProtocolEncoder.getEncoder().encode(message, SHA512_SIGNER);
+    }
+
+    @Benchmark
+    public byte[] msgpackEncodeDigest() throws ProtocolException, SignatureException {
+        return MsgPackProtocolEncoder.getEncoder().encode(message, DIGEST_SIGNER);
+    }
+
+    @Benchmark
+    public byte[] msgpackEmit() throws ProtocolException, SignatureException {
+        return emitter.emit(message, NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public int msgpackEmitTarget() throws ProtocolException, SignatureException {
+        return emitter.emit(message, NOOP_SIGNER, target, 0);
+    }
+
+    @Benchmark
+    public ProtocolMessage msgpackDecode() throws ProtocolException {
+        return MsgPackProtocolDecoder.getDecoder().decode(msgpack);
+    }
+
+    @Benchmark
+    public ProtocolMessage msgpackDecodeDirect() throws ProtocolException {
+        return MsgPackProtocolDecoder.getDecoder().decode(msgpackDirect);
+    }
+
+    @Benchmark
+    public ProtocolMessage msgpackDecodeLazy() throws ProtocolException {
+        return MsgPackProtocolDecoder.getDecoder().decodeLazy(msgpack);
+    }
+
+    @Benchmark
+    public int msgpackPeek() throws ProtocolException {
+        return header.peek(msgpack).getHint();
+    }
+
+    @Benchmark
+    public boolean msgpackPeekFilter() throws ProtocolException {
+        return header.matches(msgpackDirect, (version, msb, lsb, hint) -> hint == 0x00);
+    }
+
+    @Benchmark
+    public boolean msgpackViewVerify() throws ProtocolException, SignatureException, InvalidKeyException {
+        return view.wrap(msgpack).verify(NOOP_VERIFIER);
+    }
+
+    @Benchmark
+    public ProtocolMessage msgpackDecodeVerify() throws ProtocolException, SignatureException {
+        return MsgPackProtocolDecoder.getDecoder().decode(msgpack, NOOP_VERIFIER);
+    }
+
+    @Benchmark
+    public ProtocolMessage msgpackDecodeVerifySha512() throws ProtocolException, SignatureException {
+        return MsgPackProtocolDecoder.getDecoder().decodeLazy(msgpack, SHA512_VERIFIER);
+    }
+
+    @Benchmark
+    public ProtocolMessage msgpackDecodeVerifyDigest() throws ProtocolException, SignatureException {
+        return MsgPackProtocolDecoder.getDecoder().decodeLazy(msgpack, DIGEST_SIGNER);
+    }
+
+    @Benchmark
+    public VerifyResult msgpackVerifyOnly() throws ProtocolException, SignatureException {
+        return MsgPackProtocolDecoder.getDecoder().verifyOnly(msgpack, NOOP_VERIFIER);
+    }
+
+    @Benchmark
+    public String jsonEncode() throws ProtocolException, SignatureException {
+        return JSONProtocolEncoder.getEncoder().encode(message, NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public ProtocolMessage jsonDecode() throws ProtocolException {
+        return JSONProtocolDecoder.getDecoder().decode(json);
+    }
+
+    @Benchmark
+    public ProtocolMessage jsonDecodeVerify() throws ProtocolException, SignatureException {
+        return JSONProtocolDecoder.getDecoder().decode(json, NOOP_VERIFIER);
+    }
+}
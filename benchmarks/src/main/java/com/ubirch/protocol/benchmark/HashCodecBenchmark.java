@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.ProtocolVerifier;
+import com.ubirch.protocol.codec.MsgPackHashProtocolCodec;
+import com.ubirch.protocol.codec.MsgPackProtocolDecoder;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SignatureException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the {@link MsgPackHashProtocolCodec} against the generic msgpack codec for messages with a hash
+ * payload, with a no-op signer and verifier.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HashCodecBenchmark {
+    private static final byte[] SIGNATURE = new byte[64];
+    private static final ProtocolSigner NOOP_SIGNER = (uuid, data, offset, len) -> SIGNATURE;
+    private static final ProtocolVerifier NOOP_VERIFIER = (uuid, data, offset, len, signature) -> true;
+
+    @Param({"SIGNED", "CHAINED"})
+    public String type;
+
+    private ProtocolMessage message;
+    private byte[] msgpack;
+
+    @Setup
+    public void setup() throws ProtocolException, SignatureException {
+        int version = "CHAINED".equals(type) ? ProtocolMessage.CHAINED : ProtocolMessage.SIGNED;
+        message = Messages.create(version, Payloads.HASH);
+        msgpack = MsgPackProtocolEncoder.getEncoder().encode(Messages.create(version, Payloads.HASH), NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public byte[] genericEncode() throws ProtocolException, SignatureException {
+        return MsgPackProtocolEncoder.getEncoder().encode(message, NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public byte[] hashEncode() throws ProtocolException, SignatureException {
+        return MsgPackHashProtocolCodec.getCodec().encode(message, NOOP_SIGNER);
+    }
+
+    @Benchmark
+    public ProtocolMessage genericDecodeVerify() throws ProtocolException, SignatureException {
+        return MsgPackProtocolDecoder.getDecoder().decode(msgpack, NOOP_VERIFIER);
+    }
+
+    @Benchmark
+    public ProtocolMessage hashDecodeVerify() throws ProtocolException, SignatureException {
+        return MsgPackHashProtocolCodec.getCodec().decode(msgpack, NOOP_VERIFIER);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.benchmark;
+
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import com.ubirch.protocol.store.MessageIndex;
+import com.ubirch.protocol.store.MessageLogWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of lookups in a {@link MessageIndex} of a log with hash payload messages of 10000 uuids, spread
+ * over several segments. Run with {@code -p messages=10000000} for a larger log.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+    private static final long UUID_MSB = 0x6eac4d0b16e64508L;
+
+    @Param({"1000000"})
+    public int messages;
+
+    private Path dir;
+    private MessageIndex index;
+
+    private static UUID uuid(int n) {
+        return new UUID(UUID_MSB, (n % 10000) * 0x9e3779b97f4a7c15L);
+    }
+
+    private static byte[] hash(int n) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(ByteBuffer.allocate(4).putInt(n).array());
+    }
+
+    private static byte[] signature(int n) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-512").digest(ByteBuffer.allocate(4).putInt(n).array());
+    }
+
+    @Setup
+    public void setup() throws IOException, ProtocolException, SignatureException, NoSuchAlgorithmException {
+        dir = Files.createTempDirectory("message-index");
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 32 * 1024 * 1024, 0)) {
+            for (int i = 0; i < messages; i++) {
+                byte[] signature = signature(i);
+                ProtocolSigner signer = (uuid, data, offset, len) -> signature;
+                ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, uuid(i), 0x00, BinaryNode.valueOf(hash(i)));
+                writer.append(MsgPackProtocolEncoder.getEncoder().encode(pm, signer));
+            }
+        }
+        index = MessageIndex.open(dir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long[] findBySignature() throws IOException, NoSuchAlgorithmException {
+        return index.findBySignature(signature(ThreadLocalRandom.current().nextInt(messages)));
+    }
+
+    @Benchmark
+    public long[] findByPayload() throws IOException, NoSuchAlgorithmException {
+        return index.findByPayload(hash(ThreadLocalRandom.current().nextInt(messages)));
+    }
+
+    @Benchmark
+    public long[] findMissing() throws IOException, NoSuchAlgorithmException {
+        return index.findByPayload(hash(messages + ThreadLocalRandom.current().nextInt(messages)));
+    }
+
+    @Benchmark
+    public long[] findByUUID() {
+        return index.findByUUID(uuid(ThreadLocalRandom.current().nextInt(messages)));
+    }
+}
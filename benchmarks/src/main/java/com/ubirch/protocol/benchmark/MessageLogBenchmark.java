@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import com.ubirch.protocol.store.MessageLogReader;
+import com.ubirch.protocol.store.MessageLogWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SignatureException;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of the message log, appending chained messages with a sync every {@code syncInterval} messages and
+ * scanning the log with a cursor.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageLogBenchmark {
+    private static final byte[] SIGNATURE = new byte[64];
+    private static final ProtocolSigner NOOP_SIGNER = (uuid, data, offset, len) -> SIGNATURE;
+
+    @Param({"1", "100", "1000"})
+    public int syncInterval;
+
+    private byte[] message;
+    private Path dir;
+    private MessageLogWriter writer;
+    private MessageLogReader reader;
+    private MessageLogReader.Cursor cursor;
+
+    @Setup
+    public void setup() throws IOException, ProtocolException, SignatureException {
+        message = MsgPackProtocolEncoder.getEncoder().encode(Messages.create(ProtocolMessage.CHAINED, Payloads.HASH), NOOP_SIGNER);
+        dir = Files.createTempDirectory("message-log");
+        writer = MessageLogWriter.open(dir, MessageLogWriter.DEFAULT_SEGMENT_SIZE, syncInterval);
+        for (int i = 0; i < 100000; i++) {
+            writer.append(message);
+        }
+        writer.sync();
+        reader = MessageLogReader.open(dir);
+        cursor = reader.cursor(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        writer.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        return writer.append(message);
+    }
+
+    @Benchmark
+    public byte[] scan() throws IOException {
+        byte[] next = cursor.next();
+        if (next == null) {
+            cursor = reader.cursor(0);
+            next = cursor.next();
+        }
+        return next;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.codec.UUIDUtil;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Message fixtures for the benchmarks.
+ *
+ * @author Matthias L. Jugel
+ */
+public class Messages {
+    private static final int LEGACY_PROTOCOL_VERSION = 1;
+
+    private Messages() {
+    }
+
+    /**
+     * Create a new protocol message for the benchmark uuid.
+     *
+     * @param version the protocol message version ({@link ProtocolMessage#SIGNED} or {@link ProtocolMessage#CHAINED})
+     * @param payload the payload shape
+     * @return a new unsigned protocol message
+     */
+    public static ProtocolMessage create(int version, Payloads payload) {
+        ProtocolMessage pm = new ProtocolMessage(version, BenchmarkProtocol.BENCHMARK_UUID, 0xEE, null);
+        pm.setPayload(payload.create());
+        return pm;
+    }
+
+    /**
+     * Encode a message in the legacy (v1) envelope, where uuid, chain and signature are raw strings and
+     * the payload is decoded by the legacy payload decoder.
+     *
+     * @param pm     the message to encode
+     * @param signer the signer used to sign the message
+     * @return the legacy encoded message
+     * @throws IOException              if the packing fails
+     * @throws GeneralSecurityException if the signing fails
+     */
+    public static byte[] legacy(ProtocolMessage pm, ProtocolSigner signer) throws IOException, GeneralSecurityException {
+        boolean chained = pm.getVersion() == ProtocolMessage.CHAINED;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(255);
+        MessagePacker packer = MessagePack.newDefaultPacker(out);
+        packer.packArrayHeader(chained ? 6 : 5);
+        packer.packInt((LEGACY_PROTOCOL_VERSION << 4) | (pm.getVersion() & 0x0F));
+        packer.packRawStringHeader(16).addPayload(UUIDUtil.uuidToBytes(pm.getUUID()));
+        if (chained) {
+            packer.packRawStringHeader(64).addPayload(new byte[64]);
+        }
+        packer.packInt(pm.getHint());
+        packer.flush();
+        new ObjectMapper(new MessagePackFactory()).writeValue(out, pm.getPayload());
+
+        byte[] signed = out.toByteArray();
+        byte[] signature = signer.sign(pm.getUUID(), signed, 0, signed.length);
+        packer.packRawStringHeader(signature.length).addPayload(signature);
+        packer.close();
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.DecodeResult;
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolMessage;
+import org.apache.commons.codec.DecoderException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling benchmark of {@link Protocol#decodeVerifyAll(Iterable, Protocol.Format, java.util.concurrent.Executor)}
+ * with 1 to N worker threads. The score is per message.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelBenchmark {
+    private static final int MESSAGES = 1024;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"MSGPACK", "JSON"})
+    public Protocol.Format format;
+
+    @Param({"HASH", "NESTED"})
+    public Payloads payload;
+
+    private Protocol protocol;
+    private ForkJoinPool pool;
+    private List<byte[]> messages;
+
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException, DecoderException {
+        protocol = new BenchmarkProtocol();
+        pool = new ForkJoinPool(threads);
+        byte[] encoded = protocol.encodeSign(Messages.create(ProtocolMessage.SIGNED, payload), format);
+        messages = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(encoded);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public List<DecodeResult> decodeVerifyAll() {
+        return protocol.decodeVerifyAll(messages, format, pool);
+    }
+}
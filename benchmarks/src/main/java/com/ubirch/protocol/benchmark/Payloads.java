@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Random;
+
+/**
+ * Payload shapes used in the benchmarks.
+ *
+ * @author Matthias L. Jugel
+ */
+public enum Payloads {
+    /**
+     * A single SHA-512 sized binary value, the typical payload of an anchoring message.
+     */
+    HASH {
+        @Override
+        JsonNode create(Random random) {
+            byte[] hash = new byte[64];
+            random.nextBytes(hash);
+            return BinaryNode.valueOf(hash);
+        }
+    },
+    /**
+     * A sensor data style payload of roughly 8KB with nested maps, arrays, strings and numbers.
+     */
+    NESTED {
+        @Override
+        JsonNode create(Random random) {
+            ObjectMapper mapper = new ObjectMapper();
+            ObjectNode root = mapper.createObjectNode();
+            root.put("device", "benchmark-device-" + random.nextInt(1000));
+            root.put("firmware", "v2.1.6");
+            ArrayNode readings = root.putArray("readings");
+            for (int i = 0; i < 100; i++) {
+                ObjectNode reading = readings.addObject();
+                reading.put("ts", 1_500_000_000_000L + i * 1000L);
+                reading.put("temperature", 20 + random.nextDouble() * 5);
+                reading.put("humidity", random.nextInt(100));
+                reading.put("valid", random.nextBoolean());
+                ArrayNode samples = reading.putArray("samples");
+                for (int j = 0; j < 4; j++) {
+                    samples.add(random.nextInt(4096));
+                }
+            }
+            return root;
+        }
+    };
+
+    abstract JsonNode create(Random random);
+
+    /**
+     * Create the payload, using a fixed seed so every benchmark run sees the same data.
+     *
+     * @return the payload as a json tree
+     */
+    public JsonNode create() {
+        return create(new Random(0xC0FFEE));
+    }
+}
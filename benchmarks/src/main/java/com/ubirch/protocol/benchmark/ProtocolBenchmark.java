@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.DecodeResult;
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.VerifyResult;
+import org.apache.commons.codec.DecoderException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of {@link Protocol#encodeSign(ProtocolMessage, Protocol.Format)} and
+ * {@link Protocol#decodeVerify(byte[], Protocol.Format)} including the Ed25519 crypto.
+ * <p>
+ * For {@link Protocol.Format#MSGPACK_V1} the decoded messages use the legacy (v1) envelope.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"MSGPACK", "MSGPACK_V1", "JSON"})
+    public Protocol.Format format;
+
+    @Param({"SIGNED", "CHAINED"})
+    public String type;
+
+    @Param({"HASH", "NESTED"})
+    public Payloads payload;
+
+    private Protocol protocol;
+    private ProtocolMessage message;
+    private byte[] encoded;
+    private List<ProtocolMessage> batch;
+    private List<byte[]> encodedBatch;
+
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException, DecoderException {
+        protocol = new BenchmarkProtocol();
+        int version = "CHAINED".equals(type) ? ProtocolMessage.CHAINED : ProtocolMessage.SIGNED;
+        message = Messages.create(version, payload);
+        if (format == Protocol.Format.MSGPACK_V1) {
+            encoded = Messages.legacy(Messages.create(version, payload), protocol);
+        } else {
+            encoded = protocol.encodeSign(Messages.create(version, payload), format);
+        }
+        batch = new ArrayList<>(BATCH_SIZE);
+        encodedBatch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(Messages.create(version, payload));
+            encodedBatch.add(encoded);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeSign() throws IOException, GeneralSecurityException {
+        return protocol.encodeSign(message, format);
+    }
+
+    /**
+     * Signs a batch of messages, the score is per message. Chained messages of the same uuid are signed
+     * in consecutive rounds, signed messages in a single round.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<byte[]> encodeSignBatch() throws IOException, GeneralSecurityException {
+        return protocol.encodeSignBatch(batch, format);
+    }
+
+    @Benchmark
+    public ProtocolMessage decodeVerify() throws IOException, GeneralSecurityException {
+        return protocol.decodeVerify(encoded, format);
+    }
+
+    @Benchmark
+    public VerifyResult verifyOnly() throws IOException, GeneralSecurityException {
+        return protocol.verifyOnly(encoded, format);
+    }
+
+    /**
+     * Decodes and verifies a batch of messages, the score is per message.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<DecodeResult> decodeVerifyBatch() throws IOException {
+        return protocol.decodeVerifyBatch(encodedBatch, format);
+    }
+}
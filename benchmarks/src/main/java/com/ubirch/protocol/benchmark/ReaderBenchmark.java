@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.benchmark;
+
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import com.ubirch.protocol.codec.MsgPackProtocolReader;
+import com.ubirch.protocol.codec.MsgPackProtocolView;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SignatureException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the {@link MsgPackProtocolReader}, reading an archive file of concatenated messages as copies,
+ * views and decoded messages. The score is per message, multiply by the message size for the bytes per second.
+ *
+ * @author Matthias L. Jugel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReaderBenchmark {
+    private static final int MESSAGES = 100_000;
+    private static final ProtocolSigner NOOP_SIGNER = (uuid, data, offset, len) -> new byte[64];
+
+    @Param({"HASH", "NESTED"})
+    public Payloads payload;
+
+    private final MsgPackProtocolView view = new MsgPackProtocolView();
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException, SignatureException {
+        file = Files.createTempFile("archive", ".mpack");
+        byte[] message = MsgPackProtocolEncoder.getEncoder().encode(Messages.create(ProtocolMessage.CHAINED, payload), NOOP_SIGNER);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < MESSAGES; i++) {
+                out.write(message);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readRaw(Blackhole bh) throws IOException {
+        try (MsgPackProtocolReader reader = MsgPackProtocolReader.open(file)) {
+            byte[] message;
+            while ((message = reader.next()) != null) {
+                bh.consume(message);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readViews(Blackhole bh) throws IOException {
+        try (MsgPackProtocolReader reader = MsgPackProtocolReader.open(file)) {
+            while (reader.nextView(view) != null) {
+                bh.consume(view.getSignatureOffset());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readMessages(Blackhole bh) throws IOException {
+        try (MsgPackProtocolReader reader = MsgPackProtocolReader.open(file)) {
+            ProtocolMessage pm;
+            while ((pm = reader.nextMessage()) != null) {
+                bh.consume(pm);
+            }
+        }
+    }
+}
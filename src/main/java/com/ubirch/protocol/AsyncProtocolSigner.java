@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for implementing non-blocking crypto for protocol signing, i.e. with a remote signing service.
+ * If a {@link Protocol} implements this interface, it is used by
+ * {@link Protocol#encodeSignAsync(ProtocolMessage, Protocol.Format)}.
+ *
+ * @author Matthias L. Jugel
+ */
+public interface AsyncProtocolSigner {
+    /**
+     * Sign the data without blocking the calling thread. The data must not be modified until the
+     * returned future is completed.
+     * <p>
+     * Only the range {@code [offset, offset + len)} of the array is the data to sign. Unlike
+     * {@link ProtocolSigner#sign(UUID, byte[], int, int)} the range stays valid until the future is completed:
+     * {@link Protocol#encodeSignAsync(ProtocolMessage, Protocol.Format)} passes a private array packed for
+     * this message only, which is never re-used. Other callers must give the same guarantee.
+     *
+     * @param uuid   the uuid to identify the private key to sign the data
+     * @param data   the array containing the data to sign
+     * @param offset the offset into the data
+     * @param len    the length of the data to sign
+     * @return a future completed with the generated signature, or exceptionally if the signing fails
+     */
+    CompletableFuture<byte[]> signAsync(UUID uuid, byte[] data, int offset, int len);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for implementing non-blocking crypto for protocol verification, i.e. if the public key
+ * has to be looked up remotely. If a {@link Protocol} implements this interface, it is used by
+ * {@link Protocol#decodeVerifyAsync(byte[], Protocol.Format)}.
+ *
+ * @author Matthias L. Jugel
+ */
+public interface AsyncProtocolVerifier {
+    /**
+     * Verify the data without blocking the calling thread.
+     *
+     * @param uuid      the uuid to identify the public key to verify the data
+     * @param data      the data to verify
+     * @param offset    the offset into the data
+     * @param len       the length of the data to verify
+     * @param signature the signature to verify against
+     * @return a future completed with whether the signature can be verified, or exceptionally if the
+     * verification fails for other reasons
+     */
+    CompletableFuture<Boolean> verifyAsync(UUID uuid, byte[] data, int offset, int len, byte[] signature);
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link ProtocolVerifier} that keeps the public keys resolved by a {@link KeyResolver} in a bounded
+ * cache, evicting the least recently used key. Implementations only verify the signature with a key object.
+ * <p>
+ * A key is refreshed in the background on the executor after {@code refreshAfter}, while the cached key
+ * is still used. After {@code expireAfter} the key is not used anymore and resolved again on the calling
+ * thread. Concurrent lookups of a key that is not yet cached are coalesced, only the first caller resolves
+ * it, the others wait for the result. Unknown keys and failed lookups are not cached.
+ *
+ * @param <K> the type of the decoded key
+ * @author Matthias L. Jugel
+ */
+public abstract class CachingKeyVerifier<K> implements ProtocolVerifier {
+    private final KeyResolver<K> resolver;
+    private final long refreshAfterNanos;
+    private final long expireAfterNanos;
+    private final Executor executor;
+    private final LongSupplier clock;
+    private final Map<UUID, CachedKey<K>> entries;
+
+    /**
+     * Create a new caching verifier.
+     *
+     * @param resolver     the resolver to look up keys
+     * @param maxSize      the maximum number of cached keys
+     * @param refreshAfter the time after which a key is refreshed in the background
+     * @param expireAfter  the time after which a key is not used anymore
+     * @param unit         the time unit of refresh and expiry
+     * @param executor     the executor for background refreshes
+     */
+    public CachingKeyVerifier(KeyResolver<K> resolver, int maxSize, long refreshAfter, long expireAfter,
+                              TimeUnit unit, Executor executor) {
+        this(resolver, maxSize, refreshAfter, expireAfter, unit, executor, System::nanoTime);
+    }
+
+    CachingKeyVerifier(KeyResolver<K> resolver, int maxSize, long refreshAfter, long expireAfter,
+                       TimeUnit unit, Executor executor, LongSupplier clock) {
+        if (maxSize < 1 || refreshAfter < 1 || expireAfter < refreshAfter) {
+            throw new IllegalArgumentException("cache size and times must be positive, refresh before expiry");
+        }
+        this.resolver = resolver;
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+        this.expireAfterNanos = unit.toNanos(expireAfter);
+        this.executor = executor;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<UUID, CachedKey<K>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CachedKey<K>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Verify the signature with the resolved key.
+     *
+     * @param key       the public key
+     * @param data      the data to verify
+     * @param offset    the offset into the data
+     * @param len       the length of the data to verify
+     * @param signature the signature to verify against
+     * @return whether the signature can be verified
+     * @throws SignatureException  if the verification fails for initialization or other issues
+     * @throws InvalidKeyException if the verification fails because the key is invalid
+     */
+    protected abstract boolean verify(K key, byte[] data, int offset, int len, byte[] signature)
+            throws SignatureException, InvalidKeyException;
+
+    @Override
+    public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) throws SignatureException, InvalidKeyException {
+        K key = getKey(uuid);
+        if (key == null) {
+            throw new InvalidKeyException(String.format("unknown key: %s", uuid));
+        }
+        return verify(key, data, offset, len, signature);
+    }
+
+    /**
+     * Get the key of the uuid, from the cache if possible.
+     *
+     * @param uuid the uuid to get the key for
+     * @return the key or null if no key is known for the uuid
+     * @throws InvalidKeyException if the key cannot be resolved
+     */
+    public K getKey(UUID uuid) throws InvalidKeyException {
+        long now = clock.getAsLong();
+        CachedKey<K> entry;
+        boolean load = false;
+        boolean refresh = false;
+        synchronized (entries) {
+            entry = entries.get(uuid);
+            if (entry == null || (entry.key.isDone() && now - entry.loaded >= expireAfterNanos)) {
+                entry = new CachedKey<>(now);
+                entries.put(uuid, entry);
+                load = true;
+            } else if (entry.key.isDone() && !entry.refreshing && now - entry.loaded >= refreshAfterNanos) {
+                entry.refreshing = true;
+                refresh = true;
+            }
+        }
+
+        if (load) {
+            load(uuid, entry);
+        } else if (refresh) {
+            CachedKey<K> stale = entry;
+            try {
+                executor.execute(() -> refresh(uuid, stale));
+            } catch (RejectedExecutionException e) {
+                // keep using the stale key, the next lookup tries to refresh it again
+                synchronized (entries) {
+                    stale.refreshing = false;
+                }
+            }
+        }
+
+        try {
+            return entry.key.join();
+        } catch (CompletionException e) {
+            throw new InvalidKeyException(String.format("key resolution failed: %s", uuid), e.getCause());
+        }
+    }
+
+    /**
+     * Remove the key of the uuid from the cache, i.e. if it has been revoked.
+     *
+     * @param uuid the uuid to remove the key for
+     */
+    public void invalidate(UUID uuid) {
+        synchronized (entries) {
+            entries.remove(uuid);
+        }
+    }
+
+    /**
+     * @return the number of cached keys, including those currently resolved
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void load(UUID uuid, CachedKey<K> entry) {
+        try {
+            K key = resolver.resolve(uuid);
+            if (key == null) {
+                remove(uuid, entry);
+            }
+            entry.key.complete(key);
+        } catch (InvalidKeyException | RuntimeException e) {
+            remove(uuid, entry);
+            entry.key.completeExceptionally(e);
+        } catch (Error e) {
+            // release the waiters, they would block forever otherwise
+            remove(uuid, entry);
+            entry.key.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void refresh(UUID uuid, CachedKey<K> stale) {
+        CachedKey<K> fresh = new CachedKey<>(clock.getAsLong());
+        try {
+            load(uuid, fresh);
+        } finally {
+            replace(uuid, stale, fresh);
+        }
+    }
+
+    /**
+     * Replace the stale entry with the refreshed one, unless the refresh failed.
+     */
+    private void replace(UUID uuid, CachedKey<K> stale, CachedKey<K> fresh) {
+        synchronized (entries) {
+            if (entries.get(uuid) == stale) {
+                if (!fresh.key.isDone() || fresh.key.isCompletedExceptionally()) {
+                    // keep the stale key until it expires
+                    stale.refreshing = false;
+                } else if (fresh.key.join() != null) {
+                    entries.put(uuid, fresh);
+                } else {
+                    entries.remove(uuid);
+                }
+            }
+        }
+    }
+
+    private void remove(UUID uuid, CachedKey<K> entry) {
+        synchronized (entries) {
+            if (entries.get(uuid) == entry) {
+                entries.remove(uuid);
+            }
+        }
+    }
+
+    private static final class CachedKey<K> {
+        final CompletableFuture<K> key = new CompletableFuture<>();
+        final long loaded;
+        boolean refreshing;
+
+        CachedKey(long loaded) {
+            this.loaded = loaded;
+        }
+    }
+}
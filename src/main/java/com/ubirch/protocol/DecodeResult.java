@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+/**
+ * The result of decoding and verifying a single message of a batch. A result is either valid and contains
+ * the decoded message, or it contains the error. The message of a failed result is available if the
+ * message could be decoded, but not verified.
+ *
+ * @author Matthias L. Jugel
+ */
+public final class DecodeResult {
+    private final ProtocolMessage message;
+    private final Exception error;
+
+    private DecodeResult(ProtocolMessage message, Exception error) {
+        this.message = message;
+        this.error = error;
+    }
+
+    /**
+     * @param message the decoded and verified message
+     * @return a valid result
+     */
+    public static DecodeResult valid(ProtocolMessage message) {
+        return new DecodeResult(message, null);
+    }
+
+    /**
+     * @param message the decoded message or null if decoding failed
+     * @param error   the reason for the failure
+     * @return a failed result
+     */
+    public static DecodeResult failed(ProtocolMessage message, Exception error) {
+        return new DecodeResult(message, error);
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    /**
+     * @return the decoded message, null if it could not be decoded
+     */
+    public ProtocolMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the error, either a {@link ProtocolException} or a {@link java.security.SignatureException}, or null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodeResult(" + (isValid() ? message : "error=" + error) + ")";
+    }
+}
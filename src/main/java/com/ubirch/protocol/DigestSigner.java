@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ubirch.protocol;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.UUID;
+
+/**
+ * A signer that signs the digest of the data instead of the data itself. The msgpack codecs feed the
+ * digest while packing the message and hand only the finished digest to {@link #signDigest(UUID, byte[])},
+ * instead of hashing the packed message in a second pass.
+ *
+ * @author Matthias L. Jugel
+ */
+public interface DigestSigner extends ProtocolSigner {
+    /**
+     * @return the name of the digest algorithm, i.e. "SHA-512"
+     */
+    String getDigestAlgorithm();
+
+    /**
+     * Sign the digest of the data.
+     *
+     * @param uuid   the uuid to identify the private key to sign the message
+     * @param digest the digest of the data to sign
+     * @return the generated signature
+     * @throws SignatureException  if the signing process fails
+     * @throws InvalidKeyException if the signing process fails because of an invalid private key
+     */
+    byte[] signDigest(UUID uuid, byte[] digest) throws SignatureException, InvalidKeyException;
+
+    /**
+     * Compute the digest of the data and sign it with {@link #signDigest(UUID, byte[])}.
+     */
+    @Override
+    default byte[] sign(UUID uuid, byte[] data, int offset, int len) throws SignatureException, InvalidKeyException {
+        MessageDigest digest = MessageDigests.get(getDigestAlgorithm());
+        digest.update(data, offset, len);
+        return signDigest(uuid, digest.digest());
+    }
+}
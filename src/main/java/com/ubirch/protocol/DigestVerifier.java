@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ubirch.protocol;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.UUID;
+
+/**
+ * A verifier that verifies the signature against the digest of the data. The msgpack decoder feeds the
+ * digest while parsing the message, other callers use the default verify methods, which compute the digest
+ * of the signed data, buffers in place. Both hand only the finished digest to
+ * {@link #verifyDigest(UUID, byte[], byte[])}.
+ *
+ * @author Matthias L. Jugel
+ */
+public interface DigestVerifier extends ProtocolVerifier {
+    /**
+     * @return the name of the digest algorithm, i.e. "SHA-512"
+     */
+    String getDigestAlgorithm();
+
+    /**
+     * Verify the signature against the digest of the data.
+     *
+     * @param uuid      the uuid to identify the public key to verify the message
+     * @param digest    the digest of the signed data
+     * @param signature the signature to verify against
+     * @return whether the signature can be verified given the uuid and digest
+     * @throws SignatureException  if the verification fails for initialization or other issues
+     * @throws InvalidKeyException if the verification fails because the key is invalid
+     */
+    boolean verifyDigest(UUID uuid, byte[] digest, byte[] signature) throws SignatureException, InvalidKeyException;
+
+    /**
+     * Compute the digest of the data and verify it with {@link #verifyDigest(UUID, byte[], byte[])}.
+     */
+    @Override
+    default boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature)
+            throws SignatureException, InvalidKeyException {
+        MessageDigest digest = MessageDigests.get(getDigestAlgorithm());
+        digest.update(data, offset, len);
+        return verifyDigest(uuid, digest.digest(), signature);
+    }
+
+    /**
+     * Compute the digest of the data between position and limit of the buffer, without copying direct buffers,
+     * and verify it with {@link #verifyDigest(UUID, byte[], byte[])}. The position of the buffer is not changed.
+     */
+    @Override
+    default boolean verify(UUID uuid, ByteBuffer data, byte[] signature) throws SignatureException, InvalidKeyException {
+        MessageDigest digest = MessageDigests.get(getDigestAlgorithm());
+        digest.update(data.duplicate());
+        return verifyDigest(uuid, digest.digest(), signature);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import java.security.InvalidKeyException;
+import java.util.UUID;
+
+/**
+ * Service provider interface to look up the public key of a uuid, i.e. from a key service or database,
+ * and turn it into a ready to use key object. Used by {@link CachingKeyVerifier}.
+ *
+ * @param <K> the type of the decoded key
+ * @author Matthias L. Jugel
+ */
+public interface KeyResolver<K> {
+    /**
+     * Resolve the public key of the uuid.
+     *
+     * @param uuid the uuid to resolve the key for
+     * @return the decoded key or null if no key is known for the uuid
+     * @throws InvalidKeyException if the key cannot be resolved or decoded
+     */
+    K resolve(UUID uuid) throws InvalidKeyException;
+}
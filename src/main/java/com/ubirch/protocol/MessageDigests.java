@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ubirch.protocol;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Re-usable message digests of the current thread, used by the codecs and the default methods of
+ * {@link DigestSigner} and {@link DigestVerifier}.
+ *
+ * @author Matthias L. Jugel
+ */
+public final class MessageDigests {
+    private static final ThreadLocal<Map<String, MessageDigest>> digests = ThreadLocal.withInitial(HashMap::new);
+
+    private MessageDigests() {
+    }
+
+    /**
+     * Get the digest of the current thread for the algorithm. The digest is reset and must not be used
+     * anymore once its result has been computed.
+     *
+     * @param algorithm the digest algorithm, i.e. "SHA-512"
+     * @return a reset digest for exclusive use by the current thread
+     * @throws SignatureException if the algorithm is not available
+     */
+    public static MessageDigest get(String algorithm) throws SignatureException {
+        Map<String, MessageDigest> cache = digests.get();
+        MessageDigest digest = cache.get(algorithm);
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new SignatureException(String.format("digest algorithm not available: %s", algorithm), e);
+            }
+            cache.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+}
@@ -16,29 +16,75 @@
 
 package com.ubirch.protocol;
 
+import com.ubirch.protocol.chain.ChainState;
 import com.ubirch.protocol.codec.JSONProtocolDecoder;
 import com.ubirch.protocol.codec.JSONProtocolEncoder;
 import com.ubirch.protocol.codec.MsgPackProtocolDecoder;
 import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
 import java.security.SignatureException;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Wrapper for the ubirch-protocol.
+ * <p>
+ * The chain of chained messages is either kept by the implementation, which implements {@link #getLastSignature(UUID)}
+ * and records each new signature in {@link #sign(UUID, byte[], int, int)}, or by a {@link ChainState} given to the
+ * constructor. With a chain state, reading the last signature, signing and storing the new signature is a single
+ * atomic step per uuid, while messages of different uuids are signed in parallel.
  *
  * @author Matthias L. Jugel
  */
 @SuppressWarnings("WeakerAccess")
 public abstract class Protocol implements ProtocolSigner, ProtocolVerifier {
+    // the last pending chained message of each uuid, see encodeSignAsync()
+    private final ConcurrentMap<UUID, CompletableFuture<byte[]>> pendingChains = new ConcurrentHashMap<>();
+    private final ChainState chainState;
+
     /**
-     * Create a new protocol instance.
+     * Create a new protocol instance. The implementation keeps track of the last signatures.
      */
     public Protocol() {
+        this(null);
+    }
+
+    /**
+     * Create a new protocol instance, keeping the last signatures in the chain state.
+     *
+     * @param chainState the chain state, or null if the implementation keeps track of the last signatures
+     */
+    public Protocol(ChainState chainState) {
+        this.chainState = chainState;
+    }
+
+    /**
+     * @return the chain state or null if the implementation keeps track of the last signatures
+     */
+    public ChainState getChainState() {
+        return chainState;
     }
 
+    /**
+     * Get the last signature of the chain of a uuid, used as the chain of the next chained message.
+     * With a {@link ChainState}, the last signature is taken from the chain state instead and implementations
+     * can simply return {@code getChainState().getLastSignature(uuid)}.
+     *
+     * @param uuid the uuid of the chain
+     * @return the last signature or null if there is none
+     */
     protected abstract byte[] getLastSignature(UUID uuid);
 
     /**
@@ -52,23 +98,377 @@ public abstract class Protocol implements ProtocolSigner, ProtocolVerifier {
      * @throws SignatureException if the message signing failed
      */
     public byte[] encodeSign(ProtocolMessage pm, Format format) throws IOException, SignatureException {
-        if (pm.getVersion() == ProtocolMessage.CHAINED) {
-            pm.chain = getLastSignature(pm.getUUID());
+        return chained(pm, () -> {
+            switch (format) {
+                case MSGPACK_V1:
+                case MSGPACK_V2:
+                case MSGPACK:
+                    return MsgPackProtocolEncoder.getEncoder().encode(pm, this);
+                case JSON_V1:
+                case JSON:
+                    return JSONProtocolEncoder.getEncoder().encode(pm, this).getBytes(StandardCharsets.UTF_8);
+                default:
+                    throw new ProtocolException(String.format("unsupported target format: %s", format));
+            }
+        });
+    }
+
+    /**
+     * Create a new message from the given protocol message, sign it and write it into the target buffer,
+     * starting at its position. The position is advanced by the number of bytes written.
+     * For the msgpack formats only the signature of the protocol message is updated, not the signed data.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param format the target format to encode to
+     * @param target the buffer to write the message into
+     * @return the number of bytes written
+     * @throws ProtocolException  if the message could not be encoded or does not fit into the target
+     * @throws SignatureException if the message signing failed
+     */
+    public int encodeSign(ProtocolMessage pm, Format format, ByteBuffer target) throws IOException, SignatureException {
+        return chained(pm, () -> {
+            switch (format) {
+                case MSGPACK_V1:
+                case MSGPACK_V2:
+                case MSGPACK:
+                    return MsgPackProtocolEncoder.getEncoder().encode(pm, this, target);
+                case JSON_V1:
+                case JSON:
+                    return JSONProtocolEncoder.getEncoder().encode(pm, this, target);
+                default:
+                    throw new ProtocolException(String.format("unsupported target format: %s", format));
+            }
+        });
+    }
+
+    /**
+     * Create a new message from the given protocol message, sign it and write it to the output stream.
+     * For the msgpack formats only the signature of the protocol message is updated, not the signed data.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param format the target format to encode to
+     * @param target the output stream to write the message to
+     * @return the number of bytes written
+     * @throws IOException        if the message could not be encoded or written
+     * @throws SignatureException if the message signing failed
+     */
+    public int encodeSign(ProtocolMessage pm, Format format, OutputStream target) throws IOException, SignatureException {
+        return chained(pm, () -> {
+            switch (format) {
+                case MSGPACK_V1:
+                case MSGPACK_V2:
+                case MSGPACK:
+                    return MsgPackProtocolEncoder.getEncoder().encode(pm, this, target);
+                case JSON_V1:
+                case JSON:
+                    return JSONProtocolEncoder.getEncoder().encode(pm, this, target);
+                default:
+                    throw new ProtocolException(String.format("unsupported target format: %s", format));
+            }
+        });
+    }
+
+    /**
+     * Create a new message from the given protocol message, sign it and write it to a blocking channel.
+     * For the msgpack formats the signed data and the signature are written with a single gathering write
+     * if the channel supports it. Only the signature of the protocol message is updated, not the signed data.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param format the target format to encode to
+     * @param target the channel to write the message to
+     * @return the number of bytes written
+     * @throws IOException        if the message could not be encoded or written
+     * @throws SignatureException if the message signing failed
+     */
+    public int encodeSign(ProtocolMessage pm, Format format, WritableByteChannel target) throws IOException, SignatureException {
+        return chained(pm, () -> {
+            switch (format) {
+                case MSGPACK_V1:
+                case MSGPACK_V2:
+                case MSGPACK:
+                    return MsgPackProtocolEncoder.getEncoder().encode(pm, this, target);
+                case JSON_V1:
+                case JSON:
+                    return JSONProtocolEncoder.getEncoder().encode(pm, this, target);
+                default:
+                    throw new ProtocolException(String.format("unsupported target format: %s", format));
+            }
+        });
+    }
+
+    /**
+     * Create and sign a batch of messages, using a single {@link #signBatch(List)} call per round.
+     * Messages that do not depend on each other are signed in the same round. A chained message needs the
+     * signature of the previous message with the same uuid, so only one chained message per uuid is signed
+     * in each round, keeping the chain in the order of the list. As with {@link #encodeSign(ProtocolMessage, Format)}
+     * the fields of the protocol messages are updated. With a {@link ChainState}, a {@link ProtocolException} is
+     * thrown if a chain has been extended by a concurrent call while signing a round.
+     *
+     * @param messages the protocol messages to encode and sign
+     * @param format   the target format to encode to
+     * @return the raw values of the messages, in the same order as the input
+     * @throws ProtocolException  if a message could not be encoded
+     * @throws SignatureException if the message signing failed
+     */
+    public List<byte[]> encodeSignBatch(List<ProtocolMessage> messages, Format format) throws IOException, SignatureException {
+        byte[][] results = new byte[messages.size()][];
+        List<Integer> pending = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            pending.add(i);
+        }
+
+        while (!pending.isEmpty()) {
+            List<Integer> round = new ArrayList<>(pending.size());
+            List<Integer> deferred = new ArrayList<>();
+            Set<UUID> chained = new HashSet<>();
+            for (int i : pending) {
+                ProtocolMessage pm = messages.get(i);
+                if (pm.getVersion() == ProtocolMessage.CHAINED && !chained.add(pm.getUUID())) {
+                    deferred.add(i);
+                } else {
+                    round.add(i);
+                }
+            }
+
+            List<SignRequest> requests = new ArrayList<>(round.size());
+            for (int i : round) {
+                ProtocolMessage pm = messages.get(i);
+                prepareChain(pm);
+                byte[] signed = pack(pm, format);
+                pm.setSigned(signed);
+                requests.add(new SignRequest(pm.getUUID(), signed, 0, signed.length));
+            }
+
+            List<byte[]> signatures;
+            try {
+                signatures = signBatch(requests);
+            } catch (InvalidKeyException e) {
+                throw new ProtocolException("invalid key", e);
+            }
+            if (signatures.size() != requests.size()) {
+                throw new ProtocolException(String.format("expected %d signatures, got %d", requests.size(), signatures.size()));
+            }
+
+            for (int n = 0; n < round.size(); n++) {
+                int i = round.get(n);
+                ProtocolMessage pm = messages.get(i);
+                pm.setSignature(signatures.get(n));
+                updateChain(pm);
+                results[i] = encode(pm, format);
+            }
+            pending = deferred;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Create a new message from the given protocol message and sign it without blocking. The message is packed
+     * on the calling thread, the final message is assembled when the signature is available. If this protocol
+     * implements {@link AsyncProtocolSigner} it is used for signing, otherwise the blocking
+     * {@link #sign(UUID, byte[], int, int)} is called on the calling thread.
+     * <p>
+     * A chained message is only packed after all chained messages of the same uuid requested before it have
+     * been signed, as it contains the previous signature. Without a {@link ChainState} the async signer must make
+     * the new signature available to {@link #getLastSignature(UUID)} before completing, the same as the blocking
+     * signer. With a chain state the future fails with a {@link ProtocolException} if the chain has been extended
+     * by a concurrent blocking call while signing.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param format the target format to encode to
+     * @return a future completed with the raw value of the message, or exceptionally if encoding or signing fails
+     */
+    public CompletableFuture<byte[]> encodeSignAsync(ProtocolMessage pm, Format format) {
+        if (pm.getVersion() != ProtocolMessage.CHAINED) {
+            return packSignAsync(pm, format);
+        }
+
+        UUID uuid = pm.getUUID();
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        CompletableFuture<byte[]> previous = pendingChains.put(uuid, result);
+        Runnable next = () -> packSignAsync(pm, format).whenComplete((message, e) -> {
+            pendingChains.remove(uuid, result);
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(message);
+            }
+        });
+        if (previous == null) {
+            next.run();
+        } else {
+            // continue the chain even if the previous message failed
+            previous.whenComplete((message, e) -> next.run());
+        }
+        return result;
+    }
+
+    private CompletableFuture<byte[]> packSignAsync(ProtocolMessage pm, Format format) {
+        byte[] signed;
+        try {
+            prepareChain(pm);
+            signed = pack(pm, format);
+            pm.setSigned(signed);
+        } catch (ProtocolException e) {
+            return failedFuture(e);
+        }
+
+        CompletableFuture<byte[]> signature;
+        if (this instanceof AsyncProtocolSigner) {
+            signature = ((AsyncProtocolSigner) this).signAsync(pm.getUUID(), signed, 0, signed.length);
+        } else {
+            try {
+                signature = CompletableFuture.completedFuture(sign(pm.getUUID(), signed, 0, signed.length));
+            } catch (SignatureException e) {
+                return failedFuture(e);
+            } catch (InvalidKeyException e) {
+                return failedFuture(new ProtocolException("invalid key", e));
+            }
         }
 
+        return signature.thenApply(s -> {
+            pm.setSignature(s);
+            try {
+                updateChain(pm);
+                return encode(pm, format);
+            } catch (ProtocolException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Verify and construct a protocol message without blocking. The message is decoded on the calling
+     * thread. If this protocol implements {@link AsyncProtocolVerifier} it is used for verification,
+     * otherwise the blocking {@link #verify(UUID, byte[], int, int, byte[])} is called on the calling thread.
+     *
+     * @param message the binary message to decode
+     * @param format  the source fromat to decode from
+     * @return a future completed with the verified message, or exceptionally with a {@link ProtocolException}
+     * if decoding fails or a {@link SignatureException} if the signature verification fails
+     */
+    public CompletableFuture<ProtocolMessage> decodeVerifyAsync(byte[] message, Format format) {
+        ProtocolMessage pm;
+        try {
+            pm = decode(message, format);
+        } catch (ProtocolException e) {
+            return failedFuture(e);
+        }
+
+        CompletableFuture<Boolean> verified;
+        if (this instanceof AsyncProtocolVerifier) {
+            verified = ((AsyncProtocolVerifier) this)
+                    .verifyAsync(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length, pm.getSignature());
+        } else {
+            try {
+                verified = CompletableFuture.completedFuture(
+                        verify(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length, pm.getSignature()));
+            } catch (SignatureException e) {
+                return failedFuture(e);
+            } catch (InvalidKeyException e) {
+                return failedFuture(new ProtocolException("invalid key", e));
+            }
+        }
+
+        return verified.thenApply(valid -> {
+            if (!valid) {
+                throw new CompletionException(new SignatureException(String.format("signature verification failed: %s", pm)));
+            }
+            return pm;
+        });
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private ProtocolMessage decode(byte[] message, Format format) throws ProtocolException {
         switch (format) {
             case MSGPACK_V1:
             case MSGPACK_V2:
             case MSGPACK:
-                return MsgPackProtocolEncoder.getEncoder().encode(pm, this);
+                return MsgPackProtocolDecoder.getDecoder().decode(message);
             case JSON_V1:
             case JSON:
-                return JSONProtocolEncoder.getEncoder().encode(pm, this).getBytes(StandardCharsets.UTF_8);
+                return JSONProtocolDecoder.getDecoder().decode(new String(message, StandardCharsets.UTF_8));
+            default:
+                throw new ProtocolException(String.format("unsupported source format: %s", format));
+        }
+    }
+
+    private byte[] pack(ProtocolMessage pm, Format format) throws ProtocolException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolEncoder.getEncoder().pack(pm);
+            case JSON_V1:
+            case JSON:
+                return JSONProtocolEncoder.getEncoder().pack(pm);
+            default:
+                throw new ProtocolException(String.format("unsupported target format: %s", format));
+        }
+    }
+
+    private byte[] encode(ProtocolMessage pm, Format format) throws ProtocolException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolEncoder.getEncoder().encode(pm);
+            case JSON_V1:
+            case JSON:
+                return JSONProtocolEncoder.getEncoder().encode(pm).getBytes(StandardCharsets.UTF_8);
             default:
                 throw new ProtocolException(String.format("unsupported target format: %s", format));
         }
     }
 
+    private void prepareChain(ProtocolMessage pm) {
+        if (pm.getVersion() == ProtocolMessage.CHAINED) {
+            pm.chain = chainState != null ? chainState.getLastSignature(pm.getUUID()) : getLastSignature(pm.getUUID());
+        }
+    }
+
+    /**
+     * Run the encoding with the chain of the message prepared. With a chain state the lock of the uuid is held
+     * and the new signature is stored when the encoding is done.
+     */
+    private <T> T chained(ProtocolMessage pm, Encoding<T> encoding) throws IOException, SignatureException {
+        if (chainState == null || pm.getVersion() != ProtocolMessage.CHAINED) {
+            prepareChain(pm);
+            return encoding.encode();
+        }
+
+        Lock lock = chainState.getLock(pm.getUUID());
+        lock.lock();
+        try {
+            prepareChain(pm);
+            T result = encoding.encode();
+            chainState.setLastSignature(pm.getUUID(), pm.getSignature());
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store the signature of a chained message that has been signed without holding the lock of its uuid.
+     *
+     * @throws ProtocolException if the chain has been extended since the message was prepared
+     */
+    private void updateChain(ProtocolMessage pm) throws ProtocolException {
+        if (chainState != null && pm.getVersion() == ProtocolMessage.CHAINED
+                && !chainState.compareAndSet(pm.getUUID(), pm.getChain(), pm.getSignature())) {
+            throw new ProtocolException(String.format("chain of %s has been extended concurrently", pm.getUUID()));
+        }
+    }
+
+    private interface Encoding<T> {
+        T encode() throws IOException, SignatureException;
+    }
+
     /**
      * Verify and construct a protocol message from the given byte input.
      *
@@ -93,6 +493,193 @@ public abstract class Protocol implements ProtocolSigner, ProtocolVerifier {
         }
     }
 
+    /**
+     * Verify and construct a protocol message from the given byte input, but keep the payload in its raw form
+     * until it is accessed. Useful if only the envelope (uuid, hint, signature) is of interest.
+     * The JSON formats sign the serialized payload and always decode it.
+     *
+     * @param message the binary message to decode
+     * @param format  the source fromat to decode from
+     * @return the decoded and verified protocol message
+     * @throws ProtocolException  if the decoding fails
+     * @throws SignatureException if the signature verification fails
+     */
+    public ProtocolMessage decodeVerifyLazy(byte[] message, Format format) throws IOException, SignatureException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolDecoder.getDecoder().decodeLazy(message, this);
+            default:
+                return decodeVerify(message, format);
+        }
+    }
+
+    /**
+     * Verify and construct a protocol message from the given buffer, starting at the buffer position.
+     * Heap buffers are read in place, direct buffers in place or, on Java 9+, in heap chunks. The position
+     * of the buffer is not changed.
+     *
+     * @param message the buffer containing the binary message to decode
+     * @param format  the source fromat to decode from
+     * @return the decoded and verified protocol message
+     * @throws ProtocolException  if the decoding fails
+     * @throws SignatureException if the signature verification fails
+     */
+    public ProtocolMessage decodeVerify(ByteBuffer message, Format format) throws IOException, SignatureException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolDecoder.getDecoder().decode(message, this);
+            case JSON_V1:
+            case JSON:
+                return JSONProtocolDecoder.getDecoder().decode(StandardCharsets.UTF_8.decode(message.duplicate()).toString(), this);
+            default:
+                throw new ProtocolException(String.format("unsupported source format: %s", format));
+        }
+    }
+
+    /**
+     * Verify a message without constructing a protocol message, for services that only accept or reject
+     * messages and forward the original bytes. The msgpack formats skip over the envelope and verify the
+     * signed region in place, the payload is never decoded. The JSON formats sign the serialized payload
+     * and are decoded.
+     *
+     * @param message the binary message to verify
+     * @param format  the source fromat of the message
+     * @return the verdict, with the uuid, version and hint of the message
+     * @throws ProtocolException  if the decoding fails
+     * @throws SignatureException if the signature verification can't be done
+     */
+    public VerifyResult verifyOnly(byte[] message, Format format) throws IOException, SignatureException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolDecoder.getDecoder().verifyOnly(message, this);
+            default:
+                return verifyDecoded(decode(message, format));
+        }
+    }
+
+    /**
+     * Verify a message without constructing a protocol message, starting at the buffer position. The position
+     * of the buffer is not changed.
+     *
+     * @param message the buffer containing the binary message to verify
+     * @param format  the source fromat of the message
+     * @return the verdict, with the uuid, version and hint of the message
+     * @throws ProtocolException  if the decoding fails
+     * @throws SignatureException if the signature verification can't be done
+     * @see #verifyOnly(byte[], Format)
+     */
+    public VerifyResult verifyOnly(ByteBuffer message, Format format) throws IOException, SignatureException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolDecoder.getDecoder().verifyOnly(message, this);
+            default:
+                byte[] data = new byte[message.remaining()];
+                message.duplicate().get(data);
+                return verifyDecoded(decode(data, format));
+        }
+    }
+
+    private VerifyResult verifyDecoded(ProtocolMessage pm) throws ProtocolException, SignatureException {
+        try {
+            boolean valid = verify(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length, pm.getSignature());
+            return new VerifyResult(valid, pm.getVersion(), pm.getUUID(), pm.getHint());
+        } catch (InvalidKeyException e) {
+            throw new ProtocolException("invalid key", e);
+        }
+    }
+
+    /**
+     * Verify and construct a batch of protocol messages. All messages are decoded first and their signatures
+     * are verified with {@link #verifyBatch(List)} if this protocol {@link #hasBatchVerification() has batch
+     * verification}, otherwise one by one. A failure of a single message does not affect the other results.
+     *
+     * @param messages the binary messages to decode
+     * @param format   the source fromat to decode from
+     * @return the results, in the same order as the messages
+     * @throws ProtocolException if the format is not supported
+     */
+    public List<DecodeResult> decodeVerifyBatch(List<byte[]> messages, Format format) throws ProtocolException {
+        switch (format) {
+            case MSGPACK_V1:
+            case MSGPACK_V2:
+            case MSGPACK:
+                return MsgPackProtocolDecoder.getDecoder().decode(messages, this);
+            case JSON_V1:
+            case JSON:
+                List<String> json = new ArrayList<>(messages.size());
+                for (byte[] message : messages) {
+                    json.add(new String(message, StandardCharsets.UTF_8));
+                }
+                return JSONProtocolDecoder.getDecoder().decode(json, this);
+            default:
+                throw new ProtocolException(String.format("unsupported source format: %s", format));
+        }
+    }
+
+    /**
+     * Verify and construct all messages in parallel on the common {@link ForkJoinPool}.
+     *
+     * @param messages the binary messages to decode
+     * @param format   the source fromat to decode from
+     * @return the results, in the same order as the messages
+     * @see #decodeVerifyAll(Iterable, Format, Executor)
+     */
+    public List<DecodeResult> decodeVerifyAll(Iterable<byte[]> messages, Format format) {
+        return decodeVerifyAll(messages, format, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Verify and construct all messages in parallel. The messages are split into chunks, several per
+     * worker thread, which are decoded and verified as separate tasks on the executor. With a
+     * {@link ForkJoinPool} idle workers steal pending chunks from busy ones. A failure of a single
+     * message is reported in its result and does not affect the other messages.
+     * <p>
+     * The codecs are thread safe, but {@link #verify(UUID, byte[], int, int, byte[])} of this protocol is
+     * called concurrently and must be thread safe as well.
+     *
+     * @param messages the binary messages to decode
+     * @param format   the source fromat to decode from
+     * @param executor the executor to run the decoding and verification on
+     * @return the results, in the same order as the messages
+     */
+    public List<DecodeResult> decodeVerifyAll(Iterable<byte[]> messages, Format format, Executor executor) {
+        List<byte[]> input = new ArrayList<>();
+        messages.forEach(input::add);
+
+        DecodeResult[] results = new DecodeResult[input.size()];
+        int parallelism = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+        int chunkSize = Math.max(1, input.size() / (parallelism * 4));
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < input.size(); start += chunkSize) {
+            int from = start;
+            int to = Math.min(start + chunkSize, input.size());
+            tasks.add(CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; i++) {
+                    results[i] = decodeVerifyResult(input.get(i), format);
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+        return Arrays.asList(results);
+    }
+
+    private DecodeResult decodeVerifyResult(byte[] message, Format format) {
+        try {
+            return DecodeResult.valid(decodeVerify(message, format));
+        } catch (IOException | SignatureException | RuntimeException e) {
+            return DecodeResult.failed(null, e);
+        }
+    }
+
     public ProtocolMessage decodeVerify(byte[] message) throws IOException, SignatureException {
         return decodeVerify(message, Format.MSGPACK_V1);
     }
@@ -22,6 +22,8 @@ import com.fasterxml.jackson.annotation.JsonView;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.UUID;
 
@@ -67,6 +69,16 @@ public class ProtocolMessage {
     @JsonView(ProtocolMessageViews.Default.class)
     protected JsonNode payload;
 
+    // raw payload range, only materialized into the payload on first access
+    @JsonIgnore
+    private byte[] rawPayload;
+    @JsonIgnore
+    private int rawPayloadOffset;
+    @JsonIgnore
+    private int rawPayloadLength;
+    @JsonIgnore
+    private PayloadDecoder payloadDecoder;
+
     public ProtocolMessage() {
     }
 
@@ -91,6 +103,8 @@ public class ProtocolMessage {
                 (chain != null ? String.format(",chain=%s", encoder.encodeToString(chain)) : "") +
                 String.format(",hint=0x%02x", hint) +
                 (payload != null ? ",p=" + payload : "") +
+                // a lazy payload is not decoded here, decoding may fail
+                (payload == null && rawPayload != null ? ",raw=" + encoder.encodeToString(getRawPayload()) : "") +
                 (signed != null ? ",d=" + encoder.encodeToString(signed) : "") +
                 (signature != null ? ",s=" + encoder.encodeToString(signature) : "") + ")";
     }
@@ -143,11 +157,85 @@ public class ProtocolMessage {
         this.signed = data;
     }
 
+    /**
+     * Set the signed data as a range of a larger array, usually the encoded message itself. The range is
+     * copied, unless it is the whole array, which is referenced like in {@link #setSigned(byte[])}.
+     *
+     * @param data   the array containing the signed data
+     * @param offset the offset of the signed data
+     * @param length the length of the signed data
+     */
+    public void setSigned(byte[] data, int offset, int length) {
+        this.signed = offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    /**
+     * Get the payload of this message. If the message was decoded with a lazy payload, the raw payload
+     * is decoded on the first call.
+     *
+     * @return the payload
+     * @throws IllegalStateException if the lazy decoding of the raw payload fails
+     */
     public JsonNode getPayload() {
+        if (payload == null && rawPayload != null) {
+            try {
+                payload = payloadDecoder.decode(rawPayload, rawPayloadOffset, rawPayloadLength);
+            } catch (IOException e) {
+                throw new IllegalStateException("payload decoding failed", e);
+            }
+        }
         return payload;
     }
 
     public void setPayload(JsonNode payload) {
         this.payload = payload;
+        this.rawPayload = null;
+        this.payloadDecoder = null;
+    }
+
+    /**
+     * Get a copy of the raw (encoded) payload bytes, if this message was decoded with a lazy payload.
+     *
+     * @return the raw payload bytes or null if no raw payload is available
+     */
+    @JsonIgnore
+    public byte[] getRawPayload() {
+        if (rawPayload == null) {
+            return null;
+        }
+        return Arrays.copyOfRange(rawPayload, rawPayloadOffset, rawPayloadOffset + rawPayloadLength);
+    }
+
+    /**
+     * Set the raw payload as a range of an encoded message. The payload is not decoded until
+     * {@link #getPayload()} is called. The data array is referenced, not copied.
+     *
+     * @param data    the array containing the encoded payload
+     * @param offset  the offset of the payload in the data
+     * @param length  the length of the encoded payload
+     * @param decoder the decoder used to materialize the payload
+     */
+    public void setRawPayload(byte[] data, int offset, int length, PayloadDecoder decoder) {
+        this.payload = null;
+        this.rawPayload = data;
+        this.rawPayloadOffset = offset;
+        this.rawPayloadLength = length;
+        this.payloadDecoder = decoder;
+    }
+
+    /**
+     * Decoder for a raw payload that has not been materialized yet.
+     */
+    public interface PayloadDecoder {
+        /**
+         * Decode the raw payload.
+         *
+         * @param data   the array containing the encoded payload
+         * @param offset the offset of the payload in the data
+         * @param length the length of the encoded payload
+         * @return the decoded payload
+         * @throws IOException if the payload cannot be decoded
+         */
+        JsonNode decode(byte[] data, int offset, int length) throws IOException;
     }
 }
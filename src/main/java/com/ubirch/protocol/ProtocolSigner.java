@@ -18,6 +18,8 @@ package com.ubirch.protocol;
 
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -28,9 +30,13 @@ import java.util.UUID;
 public interface ProtocolSigner {
     /**
      * Sign the protocol message and return the updated message with the signature.
+     * <p>
+     * Only the range {@code [offset, offset + len)} of the array is the data to sign, the rest may belong
+     * to other messages or be scratch space of the encoder. The data is only valid for the duration of this
+     * call, as encoders re-use their buffers. A signer that needs the data after returning must copy the range.
      *
      * @param uuid   the uuid to identify the public key to sign the message
-     * @param data   the data to sign
+     * @param data   the array containing the data to sign
      * @param offset the offset into the data
      * @param len    the length of the data to sign
      * @return the generated signature
@@ -38,4 +44,22 @@ public interface ProtocolSigner {
      * @throws InvalidKeyException if the signing process fails because of an invalid private key
      */
     byte[] sign(UUID uuid, byte[] data, int offset, int len) throws SignatureException, InvalidKeyException;
+
+    /**
+     * Sign a batch of requests in one call. Signers with a high per-call cost (i.e. a remote HSM) should
+     * override this method, the default implementation signs the requests one by one.
+     * Signers that keep track of the last signature per uuid for chaining must do so in both methods.
+     *
+     * @param requests the data to sign
+     * @return the generated signatures, in the same order as the requests
+     * @throws SignatureException  if the signing process fails
+     * @throws InvalidKeyException if the signing process fails because of an invalid private key
+     */
+    default List<byte[]> signBatch(List<SignRequest> requests) throws SignatureException, InvalidKeyException {
+        List<byte[]> signatures = new ArrayList<>(requests.size());
+        for (SignRequest request : requests) {
+            signatures.add(sign(request.getUUID(), request.getData(), request.getOffset(), request.getLength()));
+        }
+        return signatures;
+    }
 }
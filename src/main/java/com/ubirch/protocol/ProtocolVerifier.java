@@ -16,8 +16,10 @@
 
 package com.ubirch.protocol;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -39,4 +41,55 @@ public interface ProtocolVerifier {
      * @throws InvalidKeyException if the verification fails because the key is invalid
      */
     boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) throws SignatureException, InvalidKeyException;
+
+    /**
+     * Verify the data between position and limit of the buffer. The default implementation hands
+     * the backing array of heap buffers directly to {@link #verify(UUID, byte[], int, int, byte[])} and
+     * copies the data of direct buffers. The position of the buffer is not changed.
+     *
+     * @param uuid      the uuid to identify the public key to verify the message
+     * @param data      the buffer containing the data to verify
+     * @param signature the signature to verify against
+     * @return whether the signature can be verified given the uuid and data
+     * @throws SignatureException  if the verification fails for initialization or other issues
+     * @throws InvalidKeyException if the verification fails because the key is invalid
+     */
+    default boolean verify(UUID uuid, ByteBuffer data, byte[] signature) throws SignatureException, InvalidKeyException {
+        if (data.hasArray()) {
+            return verify(uuid, data.array(), data.arrayOffset() + data.position(), data.remaining(), signature);
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return verify(uuid, copy, 0, copy.length, signature);
+    }
+
+    /**
+     * Verify a batch of requests at once. Verifiers that support batch verification, which is cheaper
+     * per signature than one by one, should override this method and {@link #hasBatchVerification()}.
+     * The default implementation verifies each request exactly once.
+     *
+     * @param requests the data and signatures to verify
+     * @return the result of each request, in the same order as the requests
+     * @throws SignatureException  if the verification fails for initialization or other issues
+     * @throws InvalidKeyException if the verification fails because a key is invalid
+     */
+    default boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+        boolean[] valid = new boolean[requests.size()];
+        for (int i = 0; i < valid.length; i++) {
+            VerifyRequest request = requests.get(i);
+            valid[i] = verify(request.getUUID(), request.getData(), request.getOffset(), request.getLength(), request.getSignature());
+        }
+        return valid;
+    }
+
+    /**
+     * Whether {@link #verifyBatch(List)} is a real batch operation. Batch decoders only use it if it is,
+     * and otherwise verify message by message, so that an exception affects only the message it was
+     * thrown for.
+     *
+     * @return true if this verifier overrides {@link #verifyBatch(List)} with a batch operation
+     */
+    default boolean hasBatchVerification() {
+        return false;
+    }
 }
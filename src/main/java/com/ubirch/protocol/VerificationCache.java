@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link ProtocolVerifier} that remembers recent successful verifications of its delegate, so repeated
+ * messages (i.e. retries) skip the crypto operation. The cache is keyed by a SHA-256 hash of the uuid,
+ * the signed data and the signature. Failed verifications are never cached.
+ * <p>
+ * The cache holds at most {@code maxSize} entries, evicting the least recently used, and an entry expires
+ * after the given time to live. Large caches are split into independently locked stripes by key, so
+ * concurrent verifications rarely contend, the least recently used entry is then evicted per stripe.
+ * Batches are checked against the cache request by request, only the misses are passed on to the batch
+ * verification of the delegate. Use it wherever a verifier is expected:
+ * <pre>
+ * ProtocolVerifier verifier = new VerificationCache(protocol, 10000, 10, TimeUnit.MINUTES);
+ * MsgPackProtocolDecoder.getDecoder().decode(message, verifier);
+ * </pre>
+ *
+ * @author Matthias L. Jugel
+ */
+public class VerificationCache implements ProtocolVerifier {
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private static final int MAX_STRIPES = 16;
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    private final ProtocolVerifier delegate;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Map<Key, Long>[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a new verification cache.
+     *
+     * @param delegate the verifier doing the actual verification
+     * @param maxSize  the maximum number of cached verifications
+     * @param ttl      the time to live of a cached verification
+     * @param unit     the time unit of the time to live
+     */
+    public VerificationCache(ProtocolVerifier delegate, int maxSize, long ttl, TimeUnit unit) {
+        this(delegate, maxSize, ttl, unit, System::nanoTime);
+    }
+
+    VerificationCache(ProtocolVerifier delegate, int maxSize, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (maxSize < 1 || ttl < 1) {
+            throw new IllegalArgumentException("cache size and ttl must be positive");
+        }
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+        // a power of two of stripes with at least MIN_STRIPE_SIZE entries each, small caches are exact LRU
+        int n = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, maxSize / MIN_STRIPE_SIZE)));
+        @SuppressWarnings("unchecked")
+        Map<Key, Long>[] stripes = new Map[n];
+        for (int i = 0; i < n; i++) {
+            int stripeSize = maxSize / n + (i < maxSize % n ? 1 : 0);
+            stripes[i] = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                    return size() > stripeSize;
+                }
+            };
+        }
+        this.stripes = stripes;
+    }
+
+    @Override
+    public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) throws SignatureException, InvalidKeyException {
+        Key key = Key.of(uuid, data, offset, len, signature);
+        long now = clock.getAsLong();
+        if (isCached(key, now)) {
+            hits.increment();
+            return true;
+        }
+
+        misses.increment();
+        boolean verified = delegate.verify(uuid, data, offset, len, signature);
+        if (verified) {
+            put(key, now);
+        }
+        return verified;
+    }
+
+    /**
+     * Verify a batch, answering cached requests from the cache and passing only the misses on to the batch
+     * verification of the delegate.
+     */
+    @Override
+    public boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+        boolean[] results = new boolean[requests.size()];
+        // the keys of the misses, null for hits
+        Key[] keys = new Key[requests.size()];
+        List<VerifyRequest> missed = new ArrayList<>();
+        long now = clock.getAsLong();
+        for (int i = 0; i < results.length; i++) {
+            VerifyRequest request = requests.get(i);
+            Key key = Key.of(request.getUUID(), request.getData(), request.getOffset(), request.getLength(),
+                    request.getSignature());
+            if (isCached(key, now)) {
+                results[i] = true;
+            } else {
+                keys[i] = key;
+                missed.add(request);
+            }
+        }
+        hits.add(results.length - missed.size());
+        if (missed.isEmpty()) {
+            return results;
+        }
+
+        misses.add(missed.size());
+        boolean[] verified = delegate.verifyBatch(missed);
+        if (verified.length != missed.size()) {
+            throw new SignatureException(String.format("batch verification returned %d results for %d requests",
+                    verified.length, missed.size()));
+        }
+        for (int i = 0, m = 0; i < results.length; i++) {
+            if (keys[i] != null) {
+                results[i] = verified[m++];
+                if (results[i]) {
+                    put(keys[i], now);
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean hasBatchVerification() {
+        return delegate.hasBatchVerification();
+    }
+
+    private Map<Key, Long> stripe(Key key) {
+        int h = key.hashCode;
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * @return whether the key is cached and not expired, expired entries are removed
+     */
+    private boolean isCached(Key key, long now) {
+        Map<Key, Long> entries = stripe(key);
+        synchronized (entries) {
+            Long expires = entries.get(key);
+            if (expires != null) {
+                if (expires - now > 0) {
+                    return true;
+                }
+                entries.remove(key);
+            }
+        }
+        return false;
+    }
+
+    private void put(Key key, long now) {
+        Map<Key, Long> entries = stripe(key);
+        synchronized (entries) {
+            entries.put(key, now + ttlNanos);
+        }
+    }
+
+    /**
+     * @return the number of verifications answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of verifications passed on to the delegate
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of cached verifications, including expired ones not yet evicted
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Key, Long> entries : stripes) {
+            synchronized (entries) {
+                size += entries.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Map<Key, Long> entries : stripes) {
+            synchronized (entries) {
+                entries.clear();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final byte[] hash;
+        private final int hashCode;
+
+        private Key(byte[] hash) {
+            this.hash = hash;
+            this.hashCode = Arrays.hashCode(hash);
+        }
+
+        static Key of(UUID uuid, byte[] data, int offset, int len, byte[] signature) {
+            MessageDigest md = sha256.get();
+            md.reset();
+            long msb = uuid.getMostSignificantBits();
+            long lsb = uuid.getLeastSignificantBits();
+            for (int i = 56; i >= 0; i -= 8) {
+                md.update((byte) (msb >>> i));
+            }
+            for (int i = 56; i >= 0; i -= 8) {
+                md.update((byte) (lsb >>> i));
+            }
+            // the length separates data and signature
+            for (int i = 24; i >= 0; i -= 8) {
+                md.update((byte) (len >>> i));
+            }
+            md.update(data, offset, len);
+            md.update(signature);
+            return new Key(md.digest());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(hash, ((Key) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
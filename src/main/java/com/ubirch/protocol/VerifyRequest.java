@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import java.util.UUID;
+
+/**
+ * A single verification request of a batch, see {@link ProtocolVerifier#verifyBatch(java.util.List)}.
+ *
+ * @author Matthias L. Jugel
+ */
+public final class VerifyRequest {
+    private final UUID uuid;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private final byte[] signature;
+
+    /**
+     * Create a new verification request.
+     *
+     * @param uuid      the uuid to identify the public key to verify the data
+     * @param data      the data to verify
+     * @param offset    the offset into the data
+     * @param length    the length of the data to verify
+     * @param signature the signature to verify against
+     */
+    public VerifyRequest(UUID uuid, byte[] data, int offset, int length, byte[] signature) {
+        this.uuid = uuid;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.signature = signature;
+    }
+
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte[] getSignature() {
+        return signature;
+    }
+}
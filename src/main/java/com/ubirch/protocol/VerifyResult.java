@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol;
+
+import java.util.UUID;
+
+/**
+ * The verdict of verifying a message without decoding it, see {@link Protocol#verifyOnly(byte[], Protocol.Format)}.
+ * Contains the header fields needed to forward the message.
+ *
+ * @author Matthias L. Jugel
+ */
+public final class VerifyResult {
+    private final boolean valid;
+    private final int version;
+    private final UUID uuid;
+    private final int hint;
+
+    public VerifyResult(boolean valid, int version, UUID uuid, int hint) {
+        this.valid = valid;
+        this.version = version;
+        this.uuid = uuid;
+        this.hint = hint;
+    }
+
+    /**
+     * @return whether the signature of the message has been verified
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    public int getHint() {
+        return hint;
+    }
+
+    @Override
+    public String toString() {
+        return "VerifyResult(" + (valid ? "valid" : "invalid") +
+                String.format(",v=0x%02x", version) +
+                "," + uuid +
+                String.format(",hint=0x%02x", hint) + ")";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.chain;
+
+import com.ubirch.protocol.ProtocolMessage;
+
+import java.util.UUID;
+
+/**
+ * A problem found by the {@link ChainVerifier}.
+ *
+ * @author Matthias L. Jugel
+ */
+public final class ChainIssue {
+    public enum Type {
+        /**
+         * the message could not be decoded
+         */
+        DECODE_ERROR,
+        /**
+         * the signature of the message is invalid, the message does not extend the chain
+         */
+        INVALID_SIGNATURE,
+        /**
+         * the chain of the message is not the signature of the previous message, messages are missing
+         */
+        GAP,
+        /**
+         * the message has the same chain as the previous message, both continue the same message
+         */
+        FORK
+    }
+
+    private final Type type;
+    private final long index;
+    private final ProtocolMessage message;
+    private final Exception error;
+
+    ChainIssue(Type type, long index, ProtocolMessage message, Exception error) {
+        this.type = type;
+        this.index = index;
+        this.message = message;
+        this.error = error;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the index of the message in the verified sequence, starting with 0
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the uuid of the message or null if it could not be decoded
+     */
+    public UUID getUUID() {
+        return message != null ? message.getUUID() : null;
+    }
+
+    /**
+     * @return the message or null if it could not be decoded
+     */
+    public ProtocolMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the decoding or verification error, null for gaps and forks
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "ChainIssue(" + type + ",index=" + index + ",uuid=" + getUUID()
+                + (error != null ? ",error=" + error : "") + ")";
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.chain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The result of a {@link ChainVerifier} run. Contains the issues found and the last signature of each chain.
+ *
+ * @author Matthias L. Jugel
+ */
+public final class ChainReport {
+    // the last link of each chain: {chain, signature} of the last message
+    private final Map<UUID, byte[][]> links = new HashMap<>();
+    private final List<ChainIssue> issues = new ArrayList<>();
+    private long messageCount;
+
+    ChainReport() {
+    }
+
+    /**
+     * @return whether all messages have been verified and all chains are unbroken
+     */
+    public boolean isValid() {
+        return issues.isEmpty();
+    }
+
+    /**
+     * @return the number of messages read
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return the number of chains, i.e. the uuids with chained messages
+     */
+    public int getChainCount() {
+        return links.size();
+    }
+
+    /**
+     * @return the issues in the order of the messages
+     */
+    public List<ChainIssue> getIssues() {
+        return Collections.unmodifiableList(issues);
+    }
+
+    /**
+     * @return the first issue or null if there is none
+     */
+    public ChainIssue getFirstIssue() {
+        return issues.isEmpty() ? null : issues.get(0);
+    }
+
+    /**
+     * @return the first gap or fork or null if all chains are unbroken
+     */
+    public ChainIssue getFirstBrokenLink() {
+        for (ChainIssue issue : issues) {
+            if (issue.getType() == ChainIssue.Type.GAP || issue.getType() == ChainIssue.Type.FORK) {
+                return issue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param uuid the uuid of the chain
+     * @return the signature of the last message of the chain or null if there is no message for the uuid
+     */
+    public byte[] getLastSignature(UUID uuid) {
+        byte[][] link = links.get(uuid);
+        return link != null ? link[1] : null;
+    }
+
+    long next() {
+        return messageCount++;
+    }
+
+    byte[][] getLink(UUID uuid) {
+        return links.get(uuid);
+    }
+
+    void setLink(UUID uuid, byte[] chain, byte[] signature) {
+        links.put(uuid, new byte[][]{chain, signature});
+    }
+
+    void add(ChainIssue issue) {
+        issues.add(issue);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.chain;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The chain state of all uuids, i.e. the last signature of each chain, stored in a {@link ChainStore}.
+ * <p>
+ * Extending a chain reads the last signature, signs the new message and stores its signature. To make this
+ * a single step, the lock of the uuid is held while doing so:
+ * <pre>
+ * Lock lock = state.getLock(uuid);
+ * lock.lock();
+ * try {
+ *     byte[] previous = state.getLastSignature(uuid);
+ *     ...
+ *     state.setLastSignature(uuid, signature);
+ * } finally {
+ *     lock.unlock();
+ * }
+ * </pre>
+ * The locks are striped, so uuids only rarely share a lock and different chains are extended in parallel.
+ * If the lock can't be held while signing, {@link #compareAndSet(UUID, byte[], byte[])} detects a concurrent
+ * extension of the chain.
+ *
+ * @author Matthias L. Jugel
+ */
+public class ChainState {
+    private static final int DEFAULT_STRIPES = 256;
+
+    private final ChainStore store;
+    private final Lock[] locks;
+
+    /**
+     * Create a new chain state in memory.
+     */
+    public ChainState() {
+        this(new InMemoryChainStore());
+    }
+
+    /**
+     * Create a new chain state.
+     *
+     * @param store the store for the last signatures
+     */
+    public ChainState(ChainStore store) {
+        this(store, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a new chain state.
+     *
+     * @param store   the store for the last signatures
+     * @param stripes the number of locks, rounded up to the next power of two
+     */
+    public ChainState(ChainStore store, int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("at least one lock stripe is required");
+        }
+        this.store = store;
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new Lock[size];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Get the lock guarding the chain of the uuid.
+     *
+     * @param uuid the uuid of the chain
+     * @return the lock of the chain, shared with some other chains
+     */
+    public Lock getLock(UUID uuid) {
+        int h = uuid.hashCode();
+        return locks[(h ^ (h >>> 16)) & (locks.length - 1)];
+    }
+
+    /**
+     * Get the last signature of the chain.
+     *
+     * @param uuid the uuid of the chain
+     * @return the last signature or null if the chain has not been started
+     */
+    public byte[] getLastSignature(UUID uuid) {
+        return store.get(uuid);
+    }
+
+    /**
+     * Set the last signature of the chain. The caller should hold the lock of the uuid.
+     *
+     * @param uuid      the uuid of the chain
+     * @param signature the new last signature
+     */
+    public void setLastSignature(UUID uuid, byte[] signature) {
+        store.put(uuid, signature);
+    }
+
+    /**
+     * Set the last signature of the chain if the current last signature is the expected one.
+     *
+     * @param uuid      the uuid of the chain
+     * @param expected  the expected last signature, null if the chain is expected not to be started
+     * @param signature the new last signature
+     * @return whether the signature has been set
+     */
+    public boolean compareAndSet(UUID uuid, byte[] expected, byte[] signature) {
+        Lock lock = getLock(uuid);
+        lock.lock();
+        try {
+            if (!Arrays.equals(store.get(uuid), expected)) {
+                return false;
+            }
+            store.put(uuid, signature);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
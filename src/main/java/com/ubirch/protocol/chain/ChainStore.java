@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.chain;
+
+import java.util.UUID;
+
+/**
+ * Storage of the last signature of each uuid, used by {@link ChainState}. Implementations must be thread safe
+ * for different uuids. Access to the same uuid is serialized by the chain state.
+ *
+ * @author Matthias L. Jugel
+ */
+public interface ChainStore {
+    /**
+     * Get the last signature stored for the uuid.
+     *
+     * @param uuid the uuid of the chain
+     * @return the last signature or null if there is none
+     */
+    byte[] get(UUID uuid);
+
+    /**
+     * Store the last signature of the uuid.
+     *
+     * @param uuid      the uuid of the chain
+     * @param signature the new last signature
+     */
+    void put(UUID uuid, byte[] signature);
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.chain;
+
+import com.ubirch.protocol.DecodeResult;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolVerifier;
+import com.ubirch.protocol.codec.MsgPackProtocolDecoder;
+import com.ubirch.protocol.codec.MsgPackProtocolReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Verifies that the chained messages in an ordered sequence of msgpack messages form unbroken chains,
+ * i.e. the chain of each message is the signature of the previous message with the same uuid.
+ * <p>
+ * The messages are decoded and their signatures verified on the executor, up to {@code window} messages
+ * ahead of the linkage check, which runs on the calling thread in the order of the sequence. Only the last
+ * link of each chain is kept. The first message of a uuid starts its chain, whatever its chain is.
+ * <p>
+ * A message with the same chain as the previous message of the uuid is reported as a {@link ChainIssue.Type#FORK}.
+ * Any other mismatch is reported as a {@link ChainIssue.Type#GAP}, this includes forks further back in the chain.
+ * After a broken link the chain continues with the message that broke it. Messages with an invalid signature
+ * are reported and do not extend their chain, so the next message is reported as a gap.
+ *
+ * @author Matthias L. Jugel
+ */
+public class ChainVerifier {
+    private final ProtocolVerifier verifier;
+    private final Executor executor;
+    private final int window;
+
+    /**
+     * Create a new chain verifier, verifying signatures on the common {@link ForkJoinPool}.
+     *
+     * @param verifier the verifier for the message signatures
+     */
+    public ChainVerifier(ProtocolVerifier verifier) {
+        this(verifier, ForkJoinPool.commonPool(), 16 * ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Create a new chain verifier.
+     *
+     * @param verifier the verifier for the message signatures, called concurrently
+     * @param executor the executor to decode and verify the messages on
+     * @param window   the maximum number of messages verified ahead of the linkage check
+     */
+    public ChainVerifier(ProtocolVerifier verifier, Executor executor, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.verifier = verifier;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Verify the chains of a sequence of messages.
+     *
+     * @param messages the raw messages in msgpack format, in chain order
+     * @return the report
+     */
+    public ChainReport verify(Iterator<byte[]> messages) {
+        try {
+            return verify(() -> messages.hasNext() ? messages.next() : null);
+        } catch (IOException e) {
+            // the iterator does not throw checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Verify the chains of a stream of concatenated msgpack messages.
+     *
+     * @param in the input stream, read until its end
+     * @return the report
+     * @throws ProtocolException if the stream does not contain msgpack messages
+     * @throws IOException       if reading the stream fails
+     */
+    public ChainReport verify(InputStream in) throws IOException {
+        MsgPackProtocolReader reader = new MsgPackProtocolReader(in);
+        return verify(reader::next);
+    }
+
+    private ChainReport verify(Source messages) throws IOException {
+        ChainReport report = new ChainReport();
+        Deque<CompletableFuture<DecodeResult>> pending = new ArrayDeque<>(window);
+        try {
+            byte[] message;
+            while ((message = messages.next()) != null) {
+                byte[] raw = message;
+                pending.add(CompletableFuture.supplyAsync(() -> decodeVerify(raw), executor));
+                if (pending.size() >= window) {
+                    link(report, pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                link(report, pending.poll().join());
+            }
+        } finally {
+            for (CompletableFuture<DecodeResult> result : pending) {
+                result.cancel(false);
+            }
+        }
+        return report;
+    }
+
+    private DecodeResult decodeVerify(byte[] message) {
+        ProtocolMessage pm = null;
+        try {
+            pm = MsgPackProtocolDecoder.getDecoder().decodeLazy(message);
+            byte[] signed = pm.getSigned();
+            if (!verifier.verify(pm.getUUID(), signed, 0, signed.length, pm.getSignature())) {
+                return DecodeResult.failed(pm, new SignatureException("signature verification failed"));
+            }
+            return DecodeResult.valid(pm);
+        } catch (InvalidKeyException e) {
+            return DecodeResult.failed(pm, new ProtocolException("invalid key", e));
+        } catch (ProtocolException | SignatureException | RuntimeException e) {
+            return DecodeResult.failed(pm, e);
+        }
+    }
+
+    private static void link(ChainReport report, DecodeResult result) {
+        long index = report.next();
+        ProtocolMessage pm = result.getMessage();
+        if (!result.isValid()) {
+            ChainIssue.Type type = pm == null ? ChainIssue.Type.DECODE_ERROR : ChainIssue.Type.INVALID_SIGNATURE;
+            report.add(new ChainIssue(type, index, pm, result.getError()));
+            return;
+        }
+        if (pm.getVersion() != ProtocolMessage.CHAINED) {
+            return;
+        }
+
+        byte[][] link = report.getLink(pm.getUUID());
+        if (link == null) {
+            report.setLink(pm.getUUID(), pm.getChain(), pm.getSignature());
+            return;
+        }
+        if (Arrays.equals(pm.getChain(), link[1])) {
+            link[0] = pm.getChain();
+        } else if (Arrays.equals(pm.getChain(), link[0])) {
+            report.add(new ChainIssue(ChainIssue.Type.FORK, index, pm, null));
+        } else {
+            report.add(new ChainIssue(ChainIssue.Type.GAP, index, pm, null));
+            link[0] = pm.getChain();
+        }
+        link[1] = pm.getSignature();
+    }
+
+    private interface Source {
+        byte[] next() throws IOException;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.chain;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link ChainStore} keeping the signatures in memory.
+ *
+ * @author Matthias L. Jugel
+ */
+public class InMemoryChainStore implements ChainStore {
+    private final Map<UUID, byte[]> signatures = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] get(UUID uuid) {
+        return signatures.get(uuid);
+    }
+
+    @Override
+    public void put(UUID uuid, byte[] signature) {
+        signatures.put(uuid, signature);
+    }
+}
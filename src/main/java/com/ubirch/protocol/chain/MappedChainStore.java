@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.chain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link ChainStore} keeping the signatures in a memory mapped file, ready to use right after opening,
+ * without loading the file first.
+ * <p>
+ * The file is a hash table of fixed size records with linear probing. Each record contains the uuid and two
+ * signature slots, each with a sequence number and a CRC32 checksum of uuid, sequence number and signature.
+ * An update writes the signature into the older slot first, followed by the sequence number and the checksum.
+ * If the process crashes during an update, the checksum of the slot does not match and the previous
+ * signature in the other slot is used. A new record is written with its uuid last, so that a partially
+ * written record is never found. Use {@link #force()} to make the changes durable on storage.
+ * <p>
+ * The capacity is fixed when the file is created. Records can't be removed and the nil uuid can't be stored.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MappedChainStore implements ChainStore, Closeable {
+    private static final int MAGIC = 0x55504353; // "UPCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SIGNATURE_SIZE = 64;
+    private static final int SLOT_SIZE = 8 + SIGNATURE_SIZE;
+    private static final int RECORD_SIZE = 16 + 2 * SLOT_SIZE;
+    // a single mapping is limited to 2GB
+    private static final int SEGMENT_SHIFT = 20;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long slots;
+
+    private MappedChainStore(FileChannel channel, long slots) throws IOException {
+        this.channel = channel;
+        this.slots = slots;
+        this.segments = new MappedByteBuffer[(int) ((slots + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long records = Math.min(SEGMENT_MASK + 1, slots - ((long) i << SEGMENT_SHIFT));
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + ((long) i << SEGMENT_SHIFT) * RECORD_SIZE, records * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Open a chain store, creating the file if it does not exist. The capacity of an existing file
+     * is kept.
+     *
+     * @param file     the file containing the chain store
+     * @param capacity the maximum number of uuids in a new file
+     * @return the opened chain store
+     * @throws IOException if the file can't be opened or is not a chain store
+     */
+    public static MappedChainStore open(Path file, long capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (header.getInt(0) == 0) {
+                // new file, the magic is written last to mark the header complete
+                long slots = capacity + capacity / 3 + 1;
+                header.putInt(4, VERSION).putInt(8, RECORD_SIZE).putLong(16, slots);
+                header.putInt(0, MAGIC);
+                header.force();
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+                throw new IOException(String.format("not a chain store: %s", file));
+            }
+            return new MappedChainStore(channel, header.getLong(16));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public byte[] get(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long record = find(msb, lsb);
+        if (record < 0) {
+            return null;
+        }
+        ByteBuffer buffer = segment(record);
+        int base = offset(record);
+        int slot = newestSlot(buffer, base, msb, lsb);
+        if (slot < 0) {
+            return null;
+        }
+        byte[] signature = new byte[SIGNATURE_SIZE];
+        buffer.position(base + 16 + slot * SLOT_SIZE + 8);
+        buffer.get(signature);
+        return signature;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the uuid is the nil uuid or the signature is not 64 bytes long
+     * @throws IllegalStateException    if the store is full
+     */
+    @Override
+    public void put(UUID uuid, byte[] signature) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (msb == 0 && lsb == 0) {
+            throw new IllegalArgumentException("the nil uuid can't be stored");
+        }
+        if (signature == null || signature.length != SIGNATURE_SIZE) {
+            throw new IllegalArgumentException(String.format("signature must be %d bytes", SIGNATURE_SIZE));
+        }
+
+        long record = find(msb, lsb);
+        if (record < 0) {
+            synchronized (this) {
+                // another uuid may have taken the free record in the meantime
+                record = find(msb, lsb);
+                if (record == Long.MIN_VALUE) {
+                    throw new IllegalStateException(String.format("chain store full: %d records", slots));
+                }
+                if (record < 0) {
+                    record = -record - 1;
+                    ByteBuffer buffer = segment(record);
+                    int base = offset(record);
+                    writeSlot(buffer, base, 0, 1, msb, lsb, signature);
+                    buffer.putLong(base + 8, lsb);
+                    buffer.putLong(base, msb);
+                    return;
+                }
+            }
+        }
+
+        ByteBuffer buffer = segment(record);
+        int base = offset(record);
+        int newest = newestSlot(buffer, base, msb, lsb);
+        int sequence = newest < 0 ? 1 : buffer.getInt(base + 16 + newest * SLOT_SIZE) + 1;
+        writeSlot(buffer, base, newest == 0 ? 1 : 0, sequence == 0 ? 1 : sequence, msb, lsb, signature);
+    }
+
+    /**
+     * @return the maximum number of records in this store
+     */
+    public long getCapacity() {
+        return slots;
+    }
+
+    /**
+     * Write all changes to the storage device.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Find the record of the uuid.
+     *
+     * @return the record, -(free record) - 1 if the uuid is not stored or Long.MIN_VALUE if the store is full
+     */
+    private long find(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        long record = (h & Long.MAX_VALUE) % slots;
+        for (long n = 0; n < slots; n++) {
+            ByteBuffer segment = segments[(int) (record >>> SEGMENT_SHIFT)];
+            int base = offset(record);
+            long recordMsb = segment.getLong(base);
+            long recordLsb = segment.getLong(base + 8);
+            if (recordMsb == msb && recordLsb == lsb) {
+                return record;
+            }
+            if (recordMsb == 0 && recordLsb == 0) {
+                return -record - 1;
+            }
+            record = record + 1 == slots ? 0 : record + 1;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private ByteBuffer segment(long record) {
+        return segments[(int) (record >>> SEGMENT_SHIFT)].duplicate();
+    }
+
+    private static int offset(long record) {
+        return (int) (record & SEGMENT_MASK) * RECORD_SIZE;
+    }
+
+    /**
+     * @return the slot with a valid checksum and the higher sequence number or -1 if no slot is valid
+     */
+    private static int newestSlot(ByteBuffer buffer, int base, long msb, long lsb) {
+        int newest = -1;
+        int newestSequence = 0;
+        for (int slot = 0; slot < 2; slot++) {
+            int position = base + 16 + slot * SLOT_SIZE;
+            int sequence = buffer.getInt(position);
+            if (sequence == 0 || buffer.getInt(position + 4) != checksum(buffer, position, msb, lsb, sequence)) {
+                continue;
+            }
+            // sequence numbers may wrap around
+            if (newest < 0 || sequence - newestSequence > 0) {
+                newest = slot;
+                newestSequence = sequence;
+            }
+        }
+        return newest;
+    }
+
+    private static void writeSlot(ByteBuffer buffer, int base, int slot, int sequence, long msb, long lsb, byte[] signature) {
+        int position = base + 16 + slot * SLOT_SIZE;
+        buffer.position(position + 8);
+        buffer.put(signature);
+        buffer.putInt(position, sequence);
+        buffer.putInt(position + 4, checksum(buffer, position, msb, lsb, sequence));
+    }
+
+    private static int checksum(ByteBuffer buffer, int position, long msb, long lsb, int sequence) {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(20).putLong(msb).putLong(lsb).putInt(sequence);
+        header.flip();
+        crc.update(header);
+        ByteBuffer signature = buffer.duplicate();
+        signature.limit(position + SLOT_SIZE).position(position + 8);
+        crc.update(signature);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.core.buffer.ByteBufferInput;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferInput;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Creates msgpack buffer inputs for {@link ByteBuffer}s, reading from the buffer position to its limit
+ * without modifying the buffer.
+ * <p>
+ * Heap buffers are read in place. Direct buffers are read in place if msgpack-core supports that on the
+ * running platform, which is not the case on Java 9+ with the universal buffer implementation. There the
+ * buffer is read in chunks.
+ *
+ * @author Matthias L. Jugel
+ */
+final class BufferInputs {
+    private static final int CHUNK_SIZE = 8192;
+    private static final boolean DIRECT_BUFFER_SUPPORT = isDirectBufferSupported();
+
+    private BufferInputs() {
+    }
+
+    private static boolean isDirectBufferSupported() {
+        try {
+            MessageBuffer.wrap(ByteBuffer.allocateDirect(1));
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    static MessageBufferInput newBufferInput(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new ArrayBufferInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        if (DIRECT_BUFFER_SUPPORT) {
+            return new ByteBufferInput(buffer.slice());
+        }
+        return new ChunkedBufferInput(buffer.slice());
+    }
+
+    /**
+     * Reads a direct buffer in heap chunks. Like the stream input of msgpack-core, one chunk array is re-used
+     * for the whole buffer, the unpacker copies what it still needs of a chunk before asking for the next one.
+     */
+    private static class ChunkedBufferInput implements MessageBufferInput {
+        private final ByteBuffer buffer;
+        private final byte[] chunk;
+        private final MessageBuffer fullChunk;
+
+        ChunkedBufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.chunk = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+            this.fullChunk = MessageBuffer.wrap(chunk);
+        }
+
+        @Override
+        public MessageBuffer next() {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            return length == chunk.length ? fullChunk : MessageBuffer.wrap(chunk, 0, length);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import java.nio.ByteBuffer;
+
+import static com.ubirch.protocol.codec.MsgPackHeaders.headerSize;
+import static com.ubirch.protocol.codec.MsgPackHeaders.isInteger;
+import static com.ubirch.protocol.codec.MsgPackHeaders.isRaw;
+import static com.ubirch.protocol.codec.MsgPackHeaders.rawHeaderSize;
+import static com.ubirch.protocol.codec.MsgPackHeaders.readLength;
+import static com.ubirch.protocol.codec.MsgPackHeaders.readRawLength;
+
+/**
+ * Finds the end of msgpack values and protocol message envelopes in a {@link ByteBuffer}, reading only the
+ * headers with absolute gets. Works on heap, direct and memory mapped buffers alike, regardless of their byte
+ * order, and does not modify the buffer.
+ *
+ * @author Matthias L. Jugel
+ */
+final class EnvelopeScanner {
+    /**
+     * the value continues after the limit
+     */
+    static final int INCOMPLETE = -1;
+    /**
+     * the data is not a msgpack value or protocol message
+     */
+    static final int INVALID = -2;
+
+    private EnvelopeScanner() {
+    }
+
+    /**
+     * Skip a msgpack value.
+     *
+     * @param buffer   the buffer to read
+     * @param position the position of the value
+     * @param limit    the end of the available data
+     * @return the position after the value, {@link #INCOMPLETE} or {@link #INVALID}
+     */
+    static int skip(ByteBuffer buffer, int position, int limit) {
+        long remaining = 1;
+        long p = position;
+        while (remaining > 0) {
+            if (p >= limit) {
+                return INCOMPLETE;
+            }
+            int b = buffer.get((int) p) & 0xFF;
+            remaining--;
+            if (b <= 0x7f || b >= 0xe0 || b == 0xc0 || b == 0xc2 || b == 0xc3) {
+                p += 1;
+            } else if (b <= 0x8f) {
+                remaining += 2L * (b & 0x0f);
+                p += 1;
+            } else if (b <= 0x9f) {
+                remaining += b & 0x0f;
+                p += 1;
+            } else if (b <= 0xbf) {
+                p += 1 + (b & 0x1f);
+            } else {
+                int size = headerSize(b);
+                if (size == 0) {
+                    return INVALID;
+                }
+                if (p + size > limit) {
+                    return INCOMPLETE;
+                }
+                long n = size > 1 ? readLength(buffer, (int) p + 1, b) : 0;
+                switch (b) {
+                    case 0xdc:
+                    case 0xdd:
+                        remaining += n;
+                        n = 0;
+                        break;
+                    case 0xde:
+                    case 0xdf:
+                        remaining += 2 * n;
+                        n = 0;
+                        break;
+                    default:
+                        if (b >= 0xca && b <= 0xd8) {
+                            // fixed size values, the header size includes the data
+                            n = 0;
+                        }
+                }
+                p += size + n;
+            }
+        }
+        return p > limit ? INCOMPLETE : (int) p;
+    }
+
+    /**
+     * Skip a protocol message, checking the envelope strictly: a 5 or 6 element array with a known version,
+     * a 16 byte uuid, a 64 byte chain for chained messages, an integer hint, any payload and a raw signature.
+     *
+     * @param buffer   the buffer to read
+     * @param position the position of the message
+     * @param limit    the end of the available data
+     * @return the position after the message, {@link #INCOMPLETE} or {@link #INVALID}
+     */
+    static int skipEnvelope(ByteBuffer buffer, int position, int limit) {
+        if (position + 2 > limit) {
+            return position >= limit ? INCOMPLETE : checkPrefix(buffer, position);
+        }
+        int b = buffer.get(position) & 0xFF;
+        int version = buffer.get(position + 1) & 0xFF;
+        if ((b != 0x95 && b != 0x96) || ((version >> 4) != 1 && (version >> 4) != 2)) {
+            return INVALID;
+        }
+        boolean chained;
+        switch (version & 0x0F) {
+            case 0x02:
+                chained = false;
+                break;
+            case 0x03:
+                chained = true;
+                break;
+            default:
+                return INVALID;
+        }
+        if (chained != (b == 0x96)) {
+            return INVALID;
+        }
+
+        int p = raw(buffer, position + 2, limit, 16);
+        if (chained && p >= 0) {
+            p = raw(buffer, p, limit, 64);
+        }
+        if (p >= 0) {
+            p = integer(buffer, p, limit);
+        }
+        if (p >= 0) {
+            p = skip(buffer, p, limit);
+        }
+        if (p >= 0) {
+            p = raw(buffer, p, limit, -1);
+        }
+        return p;
+    }
+
+    private static int checkPrefix(ByteBuffer buffer, int position) {
+        int b = buffer.get(position) & 0xFF;
+        return b == 0x95 || b == 0x96 ? INCOMPLETE : INVALID;
+    }
+
+    /**
+     * Skip a raw (string or binary) value of the expected length, -1 for any length.
+     */
+    private static int raw(ByteBuffer buffer, int position, int limit, int expected) {
+        if (position >= limit) {
+            return INCOMPLETE;
+        }
+        int b = buffer.get(position) & 0xFF;
+        if (!isRaw(b)) {
+            return INVALID;
+        }
+        int size = rawHeaderSize(b);
+        if (position + size > limit) {
+            return INCOMPLETE;
+        }
+        long length = readRawLength(buffer, position, b);
+        if (expected >= 0 ? length != expected : length == 0) {
+            return INVALID;
+        }
+        long end = position + size + length;
+        return end > limit ? INCOMPLETE : (int) end;
+    }
+
+    /**
+     * Skip an integer value.
+     */
+    private static int integer(ByteBuffer buffer, int position, int limit) {
+        if (position >= limit) {
+            return INCOMPLETE;
+        }
+        int b = buffer.get(position) & 0xFF;
+        if (b <= 0x7f || b >= 0xe0) {
+            return position + 1;
+        }
+        if (!isInteger(b)) {
+            return INVALID;
+        }
+        int end = position + headerSize(b);
+        return end > limit ? INCOMPLETE : end;
+    }
+}
@@ -25,6 +25,10 @@ import com.ubirch.protocol.ProtocolMessage;
 import com.ubirch.protocol.ProtocolMessageViews;
 import com.ubirch.protocol.ProtocolSigner;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
@@ -52,14 +56,85 @@ public class JSONProtocolEncoder extends ProtocolEncoder<String> {
 
     @Override
     public String encode(ProtocolMessage pm, ProtocolSigner signer) throws ProtocolException, SignatureException {
-        if (pm == null || signer == null) {
-            throw new IllegalArgumentException("message or signer null");
+        return new String(encodeBytes(pm, signer), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the protocol message into the target buffer, starting at its position. The position is
+     * advanced by the number of bytes written. If the message does not fit, the buffer is not modified.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the buffer to write the UTF-8 encoded json message into
+     * @return the number of bytes written
+     * @throws ProtocolException  if the encoding fails or the message does not fit into the target
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, ByteBuffer target) throws ProtocolException, SignatureException {
+        checkArguments(pm, signer);
+
+        // check with a signature of the protocol length before signing, the signer may keep the signature
+        // as the chain of the next message
+        byte[] signed = pack(pm);
+        byte[] signature = pm.getSignature();
+        pm.setSignature(new byte[SIGNATURE_LENGTH]);
+        try {
+            checkCapacity(mapper.writeValueAsBytes(pm).length, target.remaining());
+        } catch (JsonProcessingException e) {
+            throw new ProtocolException("json encoding failed", e);
+        } finally {
+            pm.setSignature(signature);
         }
 
+        byte[] message = encodeBytes(pm, signer, signed);
+        checkCapacity(message.length, target.remaining());
+        target.put(message);
+        return message.length;
+    }
+
+    /**
+     * Encodes the protocol message and writes it to the output stream.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the output stream to write the UTF-8 encoded json message to
+     * @return the number of bytes written
+     * @throws IOException        if the encoding or writing fails
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, OutputStream target) throws IOException, SignatureException {
+        byte[] message = encodeBytes(pm, signer);
+        target.write(message);
+        return message.length;
+    }
+
+    /**
+     * Encodes the protocol message and writes it to a blocking channel.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the channel to write the UTF-8 encoded json message to
+     * @return the number of bytes written
+     * @throws IOException        if the encoding or writing fails
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, WritableByteChannel target) throws IOException, SignatureException {
+        byte[] message = encodeBytes(pm, signer);
+        writeFully(target, ByteBuffer.wrap(message));
+        return message.length;
+    }
+
+    private byte[] encodeBytes(ProtocolMessage pm, ProtocolSigner signer) throws ProtocolException, SignatureException {
+        checkArguments(pm, signer);
+        return encodeBytes(pm, signer, pack(pm));
+    }
+
+    private byte[] encodeBytes(ProtocolMessage pm, ProtocolSigner signer, byte[] signed) throws ProtocolException, SignatureException {
         try {
-            pm.setSigned(this.mapper.writeValueAsBytes(pm.getPayload()));
+            pm.setSigned(signed);
             pm.setSignature(signer.sign(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length));
-            return encode(pm);
+            checkProtocolMessage(pm);
+            return mapper.writeValueAsBytes(pm);
         } catch (InvalidKeyException e) {
             throw new ProtocolException("invalid key", e);
         } catch (JsonProcessingException e) {
@@ -67,6 +142,22 @@ public class JSONProtocolEncoder extends ProtocolEncoder<String> {
         }
     }
 
+    /**
+     * Serializes the signed part of the protocol message, the payload, without signing it.
+     * Set the signed data and the signature and use {@link #encode(ProtocolMessage)} to create the final message.
+     *
+     * @param pm the protocol message to pack
+     * @return the data to sign
+     * @throws ProtocolException if the serialization fails
+     */
+    public byte[] pack(ProtocolMessage pm) throws ProtocolException {
+        try {
+            return mapper.writeValueAsBytes(pm.getPayload());
+        } catch (JsonProcessingException e) {
+            throw new ProtocolException("json encoding failed", e);
+        }
+    }
+
     @Override
     public String encode(ProtocolMessage pm) throws ProtocolException {
         checkProtocolMessage(pm);
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads an archive file of concatenated msgpack protocol messages by memory mapping it in segments, which can
+ * be scanned independently and in parallel.
+ * <p>
+ * {@link #split(int)} cuts the file into segments of about the same size. As msgpack has no markers, the start
+ * of a segment is the first position after the cut where several complete messages with a valid envelope
+ * follow each other. Each segment is mapped on its own and scanned by skipping over the message envelopes,
+ * handing each message as a {@link MsgPackProtocolView} of the mapped data to a {@link MessageHandler}. A
+ * segment that does not end exactly at the start of the next segment is reported as an error, so a wrong cut
+ * (i.e. in a payload that contains a sequence of complete messages) is never silently accepted. Such archives
+ * must be scanned as a single segment.
+ * <p>
+ * The raw data is only read from the mapped file, nothing is copied to the heap. The view wraps the mapped
+ * slice of each message in place and {@link MsgPackProtocolView#verify} hands the signed region to the
+ * verifier as a buffer, so a {@link com.ubirch.protocol.DigestVerifier} hashes it straight from the mapping.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MsgPackArchiveReader implements Closeable {
+    // a single mapping is limited to 2GB, a segment may extend its nominal size by one message
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private static final int SYNC_WINDOW = 64 * 1024 * 1024;
+    private static final int SYNC_MESSAGES = 4;
+
+    private final FileChannel channel;
+    private final long size;
+
+    /**
+     * Handles the messages of a segment, called with the messages in the order of the file.
+     */
+    public interface MessageHandler {
+        /**
+         * Handle a message.
+         *
+         * @param position the position of the message in the file
+         * @param view     the message, only valid during this call
+         * @throws IOException              if handling the message fails, stops the scan
+         * @throws GeneralSecurityException if verifying the message fails, stops the scan
+         */
+        void handle(long position, MsgPackProtocolView view) throws IOException, GeneralSecurityException;
+    }
+
+    /**
+     * A part of the archive, starting and ending at message boundaries.
+     */
+    public static final class Segment {
+        private final long start;
+        private final long end;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the file position of the first message
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the file position after the last message
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment(" + start + "-" + end + ")";
+        }
+    }
+
+    private MsgPackArchiveReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * Open an archive.
+     *
+     * @param file the archive file
+     * @return a new reader
+     * @throws IOException if the file can't be opened
+     */
+    public static MsgPackArchiveReader open(Path file) throws IOException {
+        return new MsgPackArchiveReader(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * @return the size of the archive file
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Split the archive into segments. Large archives are split into more segments, as each segment is mapped
+     * on its own. Only a small window after each cut is read.
+     *
+     * @param count the number of segments
+     * @return the segments, in file order and covering the whole file, fewer than requested if the archive is small
+     * @throws ProtocolException if no message boundary could be found after a cut
+     * @throws IOException       if reading the file fails
+     */
+    public List<Segment> split(int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("segment count must be positive");
+        }
+        long n = Math.max(count, (size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE);
+        List<Segment> segments = new ArrayList<>();
+        long start = 0;
+        for (long i = 1; i <= n && start < size; i++) {
+            long end = i == n ? size : sync(Math.max(start, size / n * i));
+            if (end > start) {
+                segments.add(new Segment(start, end));
+                start = end;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Scan a segment on the calling thread.
+     *
+     * @param segment the segment to scan
+     * @param handler the handler for the messages
+     * @return the number of messages in the segment
+     * @throws ProtocolException        if the segment contains broken messages or does not end at a message boundary
+     * @throws IOException              if reading the file or handling a message fails
+     * @throws GeneralSecurityException if handling a message fails
+     */
+    public long scan(Segment segment, MessageHandler handler) throws IOException, GeneralSecurityException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, segment.start, segment.getLength());
+        MsgPackProtocolView view = new MsgPackProtocolView();
+        // one buffer moved along the messages, so that the view can re-use its slice of it
+        ByteBuffer message = buffer.duplicate();
+        int limit = (int) segment.getLength();
+        int position = 0;
+        long count = 0;
+        while (position < limit) {
+            int end = EnvelopeScanner.skip(buffer, position, limit);
+            if (end == EnvelopeScanner.INCOMPLETE) {
+                throw new ProtocolException(String.format("message at position %d crosses the segment end at %d",
+                        segment.start + position, segment.end));
+            }
+            if (end == EnvelopeScanner.INVALID) {
+                throw new ProtocolException(String.format("msgpack data corrupt at position %d", segment.start + position));
+            }
+            message.limit(end);
+            message.position(position);
+            handler.handle(segment.start + position, view.wrap(message));
+            position = end;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Scan the whole archive in parallel on the common {@link ForkJoinPool}, with a few segments per worker.
+     *
+     * @param handler the handler for the messages, called concurrently
+     * @return the number of messages in the archive
+     * @throws ProtocolException        if the archive contains broken messages
+     * @throws IOException              if reading the file or handling a message fails
+     * @throws GeneralSecurityException if handling a message fails
+     * @see #scanAll(List, Executor, MessageHandler)
+     */
+    public long scanAll(MessageHandler handler) throws IOException, GeneralSecurityException {
+        return scanAll(split(4 * ForkJoinPool.getCommonPoolParallelism()), ForkJoinPool.commonPool(), handler);
+    }
+
+    /**
+     * Scan the segments in parallel, each segment as a separate task on the executor. The messages of a
+     * segment are handled in file order, the handler is called concurrently for different segments and must
+     * be thread safe. The first failure stops the scan of the remaining segments.
+     *
+     * @param segments the segments to scan
+     * @param executor the executor to run the scans on
+     * @param handler  the handler for the messages
+     * @return the number of messages in the segments
+     * @throws ProtocolException        if a segment contains broken messages or does not end at a message boundary
+     * @throws IOException              if reading the file or handling a message fails
+     * @throws GeneralSecurityException if handling a message fails
+     */
+    public long scanAll(List<Segment> segments, Executor executor, MessageHandler handler)
+            throws IOException, GeneralSecurityException {
+        List<CompletableFuture<Long>> scans = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            scans.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return scan(segment, handler);
+                } catch (IOException | GeneralSecurityException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        long count = 0;
+        try {
+            for (CompletableFuture<Long> scan : scans) {
+                count += scan.join();
+            }
+        } catch (CompletionException e) {
+            for (CompletableFuture<Long> scan : scans) {
+                scan.cancel(false);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            }
+            throw e;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Find the first message boundary at or after the position.
+     *
+     * @return the position of the boundary or the file size if the position is within the last message
+     */
+    private long sync(long position) throws IOException {
+        int limit = (int) Math.min(SYNC_WINDOW, size - position);
+        boolean atEnd = position + limit == size;
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, limit);
+        for (int p = 0; p < limit; p++) {
+            int b = window.get(p) & 0xFF;
+            if ((b == 0x95 || b == 0x96) && isBoundary(window, p, limit, atEnd)) {
+                return position + p;
+            }
+        }
+        if (atEnd) {
+            return size;
+        }
+        throw new ProtocolException(String.format("no message boundary found between %d and %d", position, position + limit));
+    }
+
+    /**
+     * @return whether several valid messages, or valid messages up to the end of the file, follow the position
+     */
+    private static boolean isBoundary(ByteBuffer window, int position, int limit, boolean atEnd) {
+        int p = position;
+        for (int i = 0; i < SYNC_MESSAGES; i++) {
+            if (p == limit && atEnd) {
+                return true;
+            }
+            int end = EnvelopeScanner.skipEnvelope(window, p, limit);
+            if (end == EnvelopeScanner.INVALID) {
+                return false;
+            }
+            if (end == EnvelopeScanner.INCOMPLETE) {
+                // the window ends within a message
+                return !atEnd && i > 0;
+            }
+            p = end;
+        }
+        return true;
+    }
+}
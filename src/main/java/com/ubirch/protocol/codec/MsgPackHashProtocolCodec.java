@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.ProtocolVerifier;
+
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+/**
+ * A msgpack codec for the most common kind of message: a signed or chained (v2) message with a binary payload,
+ * usually a hash. These messages have a fixed layout, so the fields are read and written at known offsets
+ * instead of running the msgpack packer and unpacker and the json tree mapper.
+ * <p>
+ * The codec produces exactly the same bytes as the {@link MsgPackProtocolEncoder}. Messages that don't
+ * match the layout are handed to the {@link MsgPackProtocolEncoder} or the {@link MsgPackProtocolDecoder}.
+ * A message matches if
+ * <ul>
+ * <li>it has the version {@link ProtocolMessage#SIGNED} or {@link ProtocolMessage#CHAINED},</li>
+ * <li>the hint is in the range 0 - 255,</li>
+ * <li>the payload is binary data of up to 255 bytes and</li>
+ * <li>the signature is up to 255 bytes (decoding only).</li>
+ * </ul>
+ *
+ * @author Matthias L. Jugel
+ */
+public class MsgPackHashProtocolCodec {
+    private static final MsgPackHashProtocolCodec instance = new MsgPackHashProtocolCodec();
+
+    public static MsgPackHashProtocolCodec getCodec() {
+        return instance;
+    }
+
+    private static final int SIGNED_ARRAY = 0x95;
+    private static final int CHAINED_ARRAY = 0x96;
+    private static final int BIN8 = 0xC4;
+    private static final int BIN16 = 0xC5;
+    private static final int UINT8 = 0xCC;
+    private static final int UUID_OFFSET = 4;
+    // the hint of signed messages follows the uuid, the hint of chained messages follows the chain
+    private static final int HINT_OFFSET = 20;
+    private static final int CHAIN_OFFSET = 22;
+    private static final int CHAIN_LENGTH = 64;
+    private static final int MAX_LENGTH = 255;
+    private static final int SIGNATURE_LENGTH = 64;
+
+    MsgPackHashProtocolCodec() {
+    }
+
+    /**
+     * Decode a protocol message. The signed data of the message is copied from the given message.
+     *
+     * @param message the raw protocol message in msgpack format
+     * @return the decoded protocol message
+     * @throws ProtocolException if the decoding failed
+     */
+    public ProtocolMessage decode(byte[] message) throws ProtocolException {
+        int signedLength = signedLength(message);
+        if (signedLength < 0) {
+            return MsgPackProtocolDecoder.getDecoder().decode(message);
+        }
+        boolean chained = (message[0] & 0xFF) == CHAINED_ARRAY;
+        int p = chained ? CHAIN_OFFSET + CHAIN_LENGTH : HINT_OFFSET;
+
+        ProtocolMessage pm = new ProtocolMessage();
+        pm.setVersion(message[1]);
+        pm.setUUID(UUIDUtil.bytesToUUID(message, UUID_OFFSET));
+        if (chained) {
+            pm.setChain(Arrays.copyOfRange(message, CHAIN_OFFSET, CHAIN_OFFSET + CHAIN_LENGTH));
+        }
+        int hint = message[p++] & 0xFF;
+        if (hint == UINT8) {
+            hint = message[p++] & 0xFF;
+        }
+        pm.setHint(hint);
+        int payloadLength = message[p + 1] & 0xFF;
+        pm.setPayload(BinaryNode.valueOf(Arrays.copyOfRange(message, p + 2, p + 2 + payloadLength)));
+        pm.setSigned(message, 0, signedLength);
+        pm.setSignature(Arrays.copyOfRange(message, signedLength + 2, message.length));
+        return pm;
+    }
+
+    /**
+     * Decode and verify a protocol message. The signed data is verified in place.
+     *
+     * @param message  the raw protocol message in msgpack format
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the decoded and verified protocol message
+     * @throws ProtocolException  if the decoding failed
+     * @throws SignatureException if the signature verification failed
+     */
+    public ProtocolMessage decode(byte[] message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
+        ProtocolMessage pm = decode(message);
+        try {
+            int signedLength = signedLength(message);
+            boolean verified = signedLength < 0
+                    ? verifier.verify(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length, pm.getSignature())
+                    : verifier.verify(pm.getUUID(), message, 0, signedLength, pm.getSignature());
+            if (!verified) {
+                throw new SignatureException(String.format("signature verification failed: %s", pm));
+            }
+            return pm;
+        } catch (InvalidKeyException e) {
+            throw new ProtocolException("invalid key", e);
+        }
+    }
+
+    /**
+     * Check whether the message has the fixed layout of this codec, with a few comparisons of header bytes.
+     *
+     * @param message the raw protocol message in msgpack format
+     * @return the length of the signed data or -1 if the message does not have the fixed layout
+     */
+    static int signedLength(byte[] message) {
+        if (message.length < CHAIN_OFFSET + 2) {
+            return -1;
+        }
+        int p;
+        switch (message[0] & 0xFF) {
+            case SIGNED_ARRAY:
+                if (message[1] != ProtocolMessage.SIGNED) {
+                    return -1;
+                }
+                p = HINT_OFFSET;
+                break;
+            case CHAINED_ARRAY:
+                if (message[1] != ProtocolMessage.CHAINED || (message[CHAIN_OFFSET - 2] & 0xFF) != BIN8
+                        || message[CHAIN_OFFSET - 1] != CHAIN_LENGTH) {
+                    return -1;
+                }
+                p = CHAIN_OFFSET + CHAIN_LENGTH;
+                break;
+            default:
+                return -1;
+        }
+        if ((message[2] & 0xFF) != BIN8 || message[3] != 16 || message.length < p + 4) {
+            return -1;
+        }
+        // the hint as positive fixint or uint8
+        int hint = message[p] & 0xFF;
+        if (hint == UINT8) {
+            p++;
+        } else if (hint > 0x7F) {
+            return -1;
+        }
+        p++;
+        if ((message[p] & 0xFF) != BIN8) {
+            return -1;
+        }
+        int signed = p + 2 + (message[p + 1] & 0xFF);
+        if (message.length < signed + 2 || (message[signed] & 0xFF) != BIN8
+                || message.length != signed + 2 + (message[signed + 1] & 0xFF)) {
+            return -1;
+        }
+        return signed;
+    }
+
+    /**
+     * Encode and sign a protocol message. The signer is handed the signed part of the result array, which
+     * must not be retained by the signer.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @return the msgpack encoded message as bytes
+     * @throws ProtocolException  if the encoding fails
+     * @throws SignatureException if the signature cannot be created
+     */
+    public byte[] encode(ProtocolMessage pm, ProtocolSigner signer) throws ProtocolException, SignatureException {
+        if (pm == null) {
+            return MsgPackProtocolEncoder.getEncoder().encode(pm, signer);
+        }
+        JsonNode payload = pm.getPayload();
+        int version = pm.getVersion();
+        if ((version != ProtocolMessage.SIGNED && version != ProtocolMessage.CHAINED) || pm.getUUID() == null
+                || pm.getHint() < 0 || pm.getHint() > MAX_LENGTH
+                || payload == null || !payload.isBinary() || signer == null) {
+            return MsgPackProtocolEncoder.getEncoder().encode(pm, signer);
+        }
+        byte[] data = ((BinaryNode) payload).binaryValue();
+        if (data.length > MAX_LENGTH) {
+            return MsgPackProtocolEncoder.getEncoder().encode(pm, signer);
+        }
+
+        boolean chained = version == ProtocolMessage.CHAINED;
+        int hint = pm.getHint();
+        int p = chained ? CHAIN_OFFSET + CHAIN_LENGTH : HINT_OFFSET;
+        int signedLength = p + (hint > 0x7F ? 2 : 1) + 2 + data.length;
+        byte[] message = new byte[signedLength + 2 + SIGNATURE_LENGTH];
+
+        message[0] = (byte) (chained ? CHAINED_ARRAY : SIGNED_ARRAY);
+        message[1] = (byte) version;
+        message[2] = (byte) BIN8;
+        message[3] = 16;
+        UUIDUtil.uuidToBytes(pm.getUUID(), message, UUID_OFFSET);
+        if (chained) {
+            message[CHAIN_OFFSET - 2] = (byte) BIN8;
+            message[CHAIN_OFFSET - 1] = CHAIN_LENGTH;
+            byte[] chain = pm.getChain();
+            if (chain != null) {
+                if (chain.length != CHAIN_LENGTH) {
+                    return MsgPackProtocolEncoder.getEncoder().encode(pm, signer);
+                }
+                System.arraycopy(chain, 0, message, CHAIN_OFFSET, CHAIN_LENGTH);
+            }
+        }
+        if (hint > 0x7F) {
+            message[p++] = (byte) UINT8;
+        }
+        message[p++] = (byte) hint;
+        message[p++] = (byte) BIN8;
+        message[p++] = (byte) data.length;
+        System.arraycopy(data, 0, message, p, data.length);
+
+        byte[] signature;
+        try {
+            signature = signer.sign(pm.getUUID(), message, 0, signedLength);
+        } catch (InvalidKeyException e) {
+            throw new ProtocolException("invalid key", e);
+        }
+        int headerLength = signature.length > MAX_LENGTH ? 3 : 2;
+        if (signature.length != SIGNATURE_LENGTH) {
+            message = Arrays.copyOf(message, signedLength + headerLength + signature.length);
+        }
+        if (headerLength == 2) {
+            message[signedLength] = (byte) BIN8;
+            message[signedLength + 1] = (byte) signature.length;
+        } else {
+            // a signature this long is not decoded by this codec, but encoded like the generic encoder does
+            message[signedLength] = (byte) BIN16;
+            message[signedLength + 1] = (byte) (signature.length >> 8);
+            message[signedLength + 2] = (byte) signature.length;
+        }
+        System.arraycopy(signature, 0, message, signedLength + headerLength, signature.length);
+
+        pm.setSigned(message, 0, signedLength);
+        pm.setSignature(signature);
+        return message;
+    }
+}
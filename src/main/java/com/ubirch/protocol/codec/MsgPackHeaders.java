@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads msgpack value headers from a {@link ByteBuffer} with absolute gets. This is the single place that
+ * knows the msgpack header layout for the parsers reading envelopes without an unpacker, the
+ * {@link EnvelopeScanner}, the {@link MsgPackProtocolHeader} and the {@link MsgPackProtocolView}. Works on
+ * heap, direct and memory mapped buffers alike, regardless of their byte order, and does not modify the buffer.
+ * <p>
+ * None of the methods check the limit of the data, the callers check that the header is available first.
+ *
+ * @author Matthias L. Jugel
+ */
+final class MsgPackHeaders {
+    private MsgPackHeaders() {
+    }
+
+    /**
+     * @return whether the format byte starts a raw (string or binary) value
+     */
+    static boolean isRaw(int b) {
+        return (b >= 0xa0 && b <= 0xbf) || (b >= 0xc4 && b <= 0xc6) || (b >= 0xd9 && b <= 0xdb);
+    }
+
+    /**
+     * @return whether the format byte starts an integer value
+     */
+    static boolean isInteger(int b) {
+        return b <= 0x7f || b >= 0xe0 || (b >= 0xcc && b <= 0xd3);
+    }
+
+    /**
+     * @return the size of the header of a non-fix format, including the data of fixed size values, 0 if unused
+     */
+    static int headerSize(int b) {
+        switch (b) {
+            case 0xc4:
+            case 0xcc:
+            case 0xd0:
+            case 0xd9:
+                return 2;
+            case 0xc5:
+            case 0xc7:
+            case 0xcd:
+            case 0xd1:
+            case 0xd4:
+            case 0xda:
+            case 0xdc:
+            case 0xde:
+                return 3;
+            case 0xc8:
+            case 0xd5:
+                return 4;
+            case 0xc6:
+            case 0xca:
+            case 0xce:
+            case 0xd2:
+            case 0xdb:
+            case 0xdd:
+            case 0xdf:
+                return 5;
+            case 0xc9:
+            case 0xd6:
+                return 6;
+            case 0xcb:
+            case 0xcf:
+            case 0xd3:
+                return 9;
+            case 0xd7:
+                return 10;
+            case 0xd8:
+                return 18;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the size of the header of a raw value, see {@link #isRaw(int)}
+     */
+    static int rawHeaderSize(int b) {
+        return b <= 0xbf ? 1 : headerSize(b);
+    }
+
+    /**
+     * Read the length field of a variable size format, which follows the format byte.
+     */
+    static long readLength(ByteBuffer buffer, int index, int b) {
+        switch (b) {
+            case 0xc4:
+            case 0xc7:
+            case 0xd9:
+                return buffer.get(index) & 0xFF;
+            case 0xc5:
+            case 0xc8:
+            case 0xda:
+            case 0xdc:
+            case 0xde:
+                return readBigEndian(buffer, index, 2);
+            case 0xc6:
+            case 0xc9:
+            case 0xdb:
+            case 0xdd:
+            case 0xdf:
+                return readBigEndian(buffer, index, 4);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Read the length of the raw value at the index, see {@link #isRaw(int)}.
+     *
+     * @param index the position of the format byte b
+     */
+    static long readRawLength(ByteBuffer buffer, int index, int b) {
+        return b <= 0xbf ? b & 0x1f : readLength(buffer, index + 1, b);
+    }
+
+    /**
+     * Read the integer value at the index, see {@link #isInteger(int)}. A uint64 value above
+     * {@link Long#MAX_VALUE} is returned as a negative value.
+     *
+     * @param index the position of the format byte b
+     */
+    static long readInteger(ByteBuffer buffer, int index, int b) {
+        if (b <= 0x7f) {
+            return b;
+        } else if (b >= 0xe0) {
+            return (byte) b;
+        }
+        switch (b) {
+            case 0xcc:
+                return buffer.get(index + 1) & 0xFF;
+            case 0xcd:
+                return readBigEndian(buffer, index + 1, 2);
+            case 0xce:
+                return readBigEndian(buffer, index + 1, 4);
+            case 0xd0:
+                return buffer.get(index + 1);
+            case 0xd1:
+                return (short) readBigEndian(buffer, index + 1, 2);
+            case 0xd2:
+                return (int) readBigEndian(buffer, index + 1, 4);
+            default:
+                return readBigEndian(buffer, index + 1, 8);
+        }
+    }
+
+    private static long readBigEndian(ByteBuffer buffer, int index, int n) {
+        long value = 0;
+        for (int i = index; i < index + n; i++) {
+            value = value << 8 | (buffer.get(i) & 0xFF);
+        }
+        return value;
+    }
+}
@@ -20,15 +20,24 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.*;
+import com.ubirch.protocol.DigestVerifier;
+import com.ubirch.protocol.MessageDigests;
 import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolVerifier;
+import com.ubirch.protocol.VerifyResult;
 import org.msgpack.core.*;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.msgpack.value.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
 import java.util.*;
+import java.util.function.IntFunction;
 
 /**
  * The default msgpack ubirch protocol decoder.
@@ -36,19 +45,23 @@ import java.util.*;
  * @author Matthias L. Jugel
  */
 public class MsgPackProtocolDecoder extends ProtocolDecoder<byte[]> {
-    private static final int PAYLOAD_OFFSET = 2;
     private final static MsgPackProtocolDecoder instance = new MsgPackProtocolDecoder();
+    private final static ThreadLocal<MsgPackProtocolView> views = ThreadLocal.withInitial(MsgPackProtocolView::new);
 
     public static MsgPackProtocolDecoder getDecoder() {
         return instance;
     }
 
     private ObjectMapper mapper;
+    private final ProtocolMessage.PayloadDecoder payloadDecoder;
+    private final ProtocolMessage.PayloadDecoder legacyPayloadDecoder;
 
     @SuppressWarnings("WeakerAccess")
     MsgPackProtocolDecoder() {
         mapper = new ObjectMapper(new MessagePackFactory());
         mapper.configure(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS, true);
+        payloadDecoder = mapper::readTree;
+        legacyPayloadDecoder = (data, offset, length) -> decodePayload(MessagePack.newDefaultUnpacker(data, offset, length));
     }
 
     /**
@@ -58,13 +71,194 @@ public class MsgPackProtocolDecoder extends ProtocolDecoder<byte[]> {
      * @return the decoded protocol message
      * @throws ProtocolException if the decoding failed
      */
-    @SuppressWarnings("checkstyle:FallThrough")
     @Override
     public ProtocolMessage decode(byte[] message) throws ProtocolException {
-        boolean legacyPayloadDecoding = false;
-        ByteArrayInputStream in = new ByteArrayInputStream(message);
+        return decode(message, false, null);
+    }
 
-        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(in);
+    /**
+     * Decode and verify a protocol message. A {@link DigestVerifier} gets the digest of the signed data,
+     * fed while the envelope and payload are parsed.
+     *
+     * @param message  the raw protocol message in msgpack format
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the decoded and verified protocol message
+     * @throws ProtocolException  if the decoding failed
+     * @throws SignatureException if the signature verification failed
+     */
+    @Override
+    public ProtocolMessage decode(byte[] message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
+        MessageDigest digest = digestFor(verifier);
+        return verify(decode(message, false, digest), verifier, digest);
+    }
+
+    /**
+     * Decode a protocol message from it's raw data, but keep the payload as raw bytes. The payload is only
+     * decoded when {@link ProtocolMessage#getPayload()} is called for the first time.
+     *
+     * @param message the raw protocol message in msgpack format
+     * @return the decoded protocol message with a lazy payload
+     * @throws ProtocolException if the decoding failed
+     */
+    public ProtocolMessage decodeLazy(byte[] message) throws ProtocolException {
+        return decode(message, true, null);
+    }
+
+    /**
+     * Decode and verify a protocol message, but keep the payload as raw bytes.
+     *
+     * @param message  the raw protocol message in msgpack format
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the decoded and verified protocol message with a lazy payload
+     * @throws ProtocolException  if the decoding failed
+     * @throws SignatureException if the signature verification failed
+     * @see #decodeLazy(byte[])
+     */
+    public ProtocolMessage decodeLazy(byte[] message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
+        MessageDigest digest = digestFor(verifier);
+        return verify(decode(message, true, digest), verifier, digest);
+    }
+
+    /**
+     * Decode a protocol message from a {@link ByteBuffer}, reading from the buffer position. Heap buffers are
+     * read in place, direct buffers in place or, on Java 9+, in heap chunks. The position of the buffer is
+     * not changed.
+     *
+     * @param message the buffer containing the raw protocol message in msgpack format
+     * @return the decoded protocol message
+     * @throws ProtocolException if the decoding failed
+     */
+    public ProtocolMessage decode(ByteBuffer message) throws ProtocolException {
+        return decode(message, false, null);
+    }
+
+    /**
+     * Decode and verify a protocol message from a {@link ByteBuffer}.
+     *
+     * @param message  the buffer containing the raw protocol message in msgpack format
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the decoded and verified protocol message
+     * @throws ProtocolException  if the decoding failed
+     * @throws SignatureException if the signature verification failed
+     * @see #decode(ByteBuffer)
+     */
+    public ProtocolMessage decode(ByteBuffer message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
+        MessageDigest digest = digestFor(verifier);
+        return verify(decode(message, false, digest), verifier, digest);
+    }
+
+    /**
+     * Verify a protocol message without decoding it. The envelope is skipped over and the signed region is
+     * handed to the verifier in place, neither a {@link ProtocolMessage} nor the payload is created.
+     *
+     * @param message  the raw protocol message in msgpack format
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the verdict with the header fields of the message
+     * @throws ProtocolException  if the envelope is broken or the key is invalid
+     * @throws SignatureException if the signature verification cannot be done
+     */
+    public VerifyResult verifyOnly(byte[] message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
+        return verifyOnly(views.get().wrap(message), verifier);
+    }
+
+    /**
+     * Verify a protocol message without decoding it, starting at the buffer position. The message is verified
+     * in place, the signed region of a direct buffer is handed to the verifier as a buffer, see
+     * {@link MsgPackProtocolView#verify(ProtocolVerifier)}. The position of the buffer is not changed.
+     *
+     * @param message  the buffer containing the raw protocol message in msgpack format
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the verdict with the header fields of the message
+     * @throws ProtocolException  if the envelope is broken or the key is invalid
+     * @throws SignatureException if the signature verification cannot be done
+     * @see #verifyOnly(byte[], ProtocolVerifier)
+     */
+    public VerifyResult verifyOnly(ByteBuffer message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
+        return verifyOnly(views.get().wrap(message), verifier);
+    }
+
+    private VerifyResult verifyOnly(MsgPackProtocolView view, ProtocolVerifier verifier)
+            throws ProtocolException, SignatureException {
+        // read everything needed before verifying, the verifier may use the view of this thread as well
+        UUID uuid = view.getUUID();
+        int version = view.getVersion();
+        int hint = view.getHint();
+        try {
+            boolean valid = view.verify(verifier);
+            return new VerifyResult(valid, version, uuid, hint);
+        } catch (InvalidKeyException e) {
+            throw new ProtocolException("invalid key", e);
+        }
+    }
+
+    /**
+     * @return the digest to feed while decoding if the verifier is a {@link DigestVerifier}, null otherwise
+     */
+    private static MessageDigest digestFor(ProtocolVerifier verifier) throws SignatureException {
+        if (verifier instanceof DigestVerifier) {
+            return MessageDigests.get(((DigestVerifier) verifier).getDigestAlgorithm());
+        }
+        return null;
+    }
+
+    /**
+     * Verify the decoded message, with the digest fed while decoding if there is one.
+     */
+    private ProtocolMessage verify(ProtocolMessage pm, ProtocolVerifier verifier, MessageDigest digest)
+            throws ProtocolException, SignatureException {
+        if (digest == null) {
+            return verify(pm, verifier);
+        }
+        try {
+            if (!((DigestVerifier) verifier).verifyDigest(pm.getUUID(), digest.digest(), pm.getSignature())) {
+                throw new SignatureException(String.format("signature verification failed: %s", pm));
+            }
+            return pm;
+        } catch (InvalidKeyException e) {
+            throw new ProtocolException("invalid key", e);
+        }
+    }
+
+    /**
+     * Feeds a range of the message being decoded into a digest.
+     */
+    private interface DigestFeed {
+        void update(MessageDigest digest, int offset, int length);
+    }
+
+    private ProtocolMessage decode(byte[] message, boolean lazyPayload, MessageDigest digest) throws ProtocolException {
+        return decode(MessagePack.newDefaultUnpacker(message), lazyPayload,
+                length -> Arrays.copyOfRange(message, 0, length),
+                digest, (md, offset, length) -> md.update(message, offset, length));
+    }
+
+    private ProtocolMessage decode(ByteBuffer message, boolean lazyPayload, MessageDigest digest) throws ProtocolException {
+        return decode(MessagePack.newDefaultUnpacker(BufferInputs.newBufferInput(message)), lazyPayload, length -> {
+            byte[] signed = new byte[length];
+            ((ByteBuffer) message.duplicate().limit(message.position() + length)).get(signed);
+            return signed;
+        }, digest, (md, offset, length) -> {
+            // hashes direct buffers in place
+            ByteBuffer range = message.duplicate();
+            range.position(message.position() + offset);
+            range.limit(message.position() + offset + length);
+            md.update(range);
+        });
+    }
+
+    /**
+     * Decode the message read by the unpacker.
+     *
+     * @param unpacker    the unpacker positioned at the start of the message
+     * @param lazyPayload whether to keep the payload raw
+     * @param signedData  function that returns a copy of the first n bytes of the message
+     * @param digest      the digest to feed with the signed data while parsing, may be null
+     * @param digestFeed  feeds a range of the message into the digest
+     */
+    @SuppressWarnings("checkstyle:FallThrough")
+    private ProtocolMessage decode(MessageUnpacker unpacker, boolean lazyPayload, IntFunction<byte[]> signedData,
+                                   MessageDigest digest, DigestFeed digestFeed) throws ProtocolException {
+        boolean legacyPayloadDecoding = false;
         ProtocolMessage pm = new ProtocolMessage();
         try {
             ValueType envelopeType = unpacker.getNextFormat().getValueType();
@@ -93,17 +287,36 @@ public class MsgPackProtocolDecoder extends ProtocolDecoder<byte[]> {
                         throw new ProtocolException(String.format("unknown protocol type: 0x%04x", pm.getVersion() & 0x0F));
                 }
                 pm.setHint(unpacker.unpackInt());
-                if (!legacyPayloadDecoding) {
-                    pm.setPayload(mapper.readTree(message).get(envelopeLength - PAYLOAD_OFFSET));
-                    unpacker.skipValue();
-                } else {
+
+                int payloadStart = (int) unpacker.getTotalReadBytes();
+                if (digest != null) {
+                    // the envelope header has just been read, hash it before the payload is walked
+                    digestFeed.update(digest, 0, payloadStart);
+                }
+                if (legacyPayloadDecoding && !lazyPayload) {
                     pm.setPayload(decodePayload(unpacker));
+                } else {
+                    unpacker.skipValue();
+                }
+                int payloadLength = (int) unpacker.getTotalReadBytes() - payloadStart;
+                if (digest != null) {
+                    // the payload ends the signed range, hash it right after it has been skipped or decoded
+                    digestFeed.update(digest, payloadStart, payloadLength);
                 }
 
                 // finally store the signed data and signature for later verification
-                pm.setSigned(Arrays.copyOfRange(message, 0, (int) unpacker.getTotalReadBytes()));
+                pm.setSigned(signedData.apply((int) unpacker.getTotalReadBytes()));
                 pm.setSignature(unpacker.readPayload(unpacker.unpackRawStringHeader()));
 
+                // the signed data contains the payload at the same position as the message
+                if (lazyPayload) {
+                    pm.setRawPayload(pm.getSigned(), payloadStart, payloadLength,
+                            legacyPayloadDecoding ? legacyPayloadDecoder : payloadDecoder);
+                } else if (!legacyPayloadDecoding) {
+                    // only parse the exact payload slice, the envelope has already been read
+                    pm.setPayload(mapper.readTree(pm.getSigned(), payloadStart, payloadLength));
+                }
+
                 return pm;
             } else {
                 throw new ProtocolException(String.format("unknown msgpack envelope format: %s[%d]", envelopeType.name(), envelopeLength));
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.UUID;
+
+/**
+ * A msgpack encoder bound to a single uuid and protocol version, for emitters creating many messages
+ * for a small set of devices.
+ * <p>
+ * The envelope prefix (array header, version and uuid, and the chain header for chained messages) is
+ * packed once when the emitter is created and copied into each message, only the chain, hint and payload
+ * are packed per message. The result is identical to the output of the {@link MsgPackProtocolEncoder}.
+ * <p>
+ * Emitters are immutable and can be shared between threads.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MsgPackProtocolEmitter {
+    private static final int CHAIN_LENGTH = 64;
+    private static final byte[] EMPTY_CHAIN = new byte[CHAIN_LENGTH];
+    private static final int UINT8 = 0xcc;
+    private static final int BIN8 = 0xc4;
+
+    private final UUID uuid;
+    private final int version;
+    private final byte[] prefix;
+
+    /**
+     * Create an emitter for messages of the given uuid and version.
+     *
+     * @param uuid    the uuid of all messages emitted
+     * @param version the protocol version, {@link ProtocolMessage#SIGNED} or {@link ProtocolMessage#CHAINED}
+     * @throws IllegalArgumentException if the uuid is null or the version is not supported
+     */
+    public MsgPackProtocolEmitter(UUID uuid, int version) {
+        if (uuid == null) {
+            throw new IllegalArgumentException("uuid null");
+        }
+        if (version != ProtocolMessage.SIGNED && version != ProtocolMessage.CHAINED) {
+            throw new IllegalArgumentException(String.format("unsupported protocol version: 0x%x", version));
+        }
+        this.uuid = uuid;
+        this.version = version;
+        this.prefix = packPrefix(uuid, version);
+    }
+
+    private static byte[] packPrefix(UUID uuid, int version) {
+        byte[] uuidBytes = new byte[16];
+        UUIDUtil.uuidToBytes(uuid, uuidBytes, 0);
+        try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(5 + (version & 0x0f) - 2);
+            packer.packInt(version);
+            packer.packBinaryHeader(uuidBytes.length).writePayload(uuidBytes);
+            if (version == ProtocolMessage.CHAINED) {
+                packer.packBinaryHeader(CHAIN_LENGTH);
+            }
+            return packer.toByteArray();
+        } catch (IOException e) {
+            // cannot happen, the packer writes into memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Encode and sign the protocol message. Modifies the given ProtocolMessage, filling in the signature
+     * and the signed data, like {@link MsgPackProtocolEncoder#encode(ProtocolMessage, ProtocolSigner)}.
+     *
+     * @param pm     the protocol message to encode and sign, must match the uuid and version of the emitter
+     * @param signer the protocol signer
+     * @return the msgpack encoded message as bytes
+     * @throws ProtocolException  if the message does not match the emitter or the encoding fails
+     * @throws SignatureException if the signature cannot be created
+     */
+    public byte[] emit(ProtocolMessage pm, ProtocolSigner signer) throws ProtocolException, SignatureException {
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            int signedLength = packSign(pm, signer, out, Integer.MAX_VALUE);
+            out.write(pm.getSignature(), 0, pm.getSignature().length);
+            byte[] result = out.toByteArray();
+            pm.setSigned(result, 0, signedLength);
+            return result;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Encode and sign the protocol message into the given target array, starting at the offset. Only the
+     * signature of the ProtocolMessage is filled in.
+     *
+     * @param pm     the protocol message to encode and sign, must match the uuid and version of the emitter
+     * @param signer the protocol signer
+     * @param target the array to write the encoded message into
+     * @param offset the offset in the target array
+     * @return the number of bytes written
+     * @throws ProtocolException  if the message does not match the emitter, the encoding fails or the
+     *                            message does not fit into the target
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int emit(ProtocolMessage pm, ProtocolSigner signer, byte[] target, int offset) throws ProtocolException, SignatureException {
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            packSign(pm, signer, out, target.length - offset);
+            int length = out.size() + pm.getSignature().length;
+            ProtocolEncoder.checkCapacity(length, target.length - offset);
+            System.arraycopy(out.buffer(), 0, target, offset, out.size());
+            System.arraycopy(pm.getSignature(), 0, target, offset + out.size(), pm.getSignature().length);
+            return length;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Hints are usually single byte values, written directly the way the packer would write them.
+     */
+    private static void packHint(PackerBuffer out, int hint) throws IOException {
+        if (hint >= 0 && hint <= 0x7f) {
+            out.write(hint);
+        } else if (hint > 0x7f && hint <= 0xff) {
+            out.write(UINT8);
+            out.write(hint);
+        } else {
+            out.packer.packInt(hint);
+            out.packer.flush();
+        }
+    }
+
+    /**
+     * Pack and sign the message, setting its signature. The buffer contains the signed data followed by
+     * the header of the signature. The message is only signed if it fits into the capacity of the target
+     * with a signature of the protocol length.
+     *
+     * @return the length of the signed data
+     */
+    private int packSign(ProtocolMessage pm, ProtocolSigner signer, PackerBuffer out, int capacity) throws ProtocolException, SignatureException {
+        if (pm == null || signer == null) {
+            throw new IllegalArgumentException("message or signer null");
+        }
+        if (pm.getVersion() != version || !uuid.equals(pm.getUUID())) {
+            throw new ProtocolException(String.format("message %s/0x%x does not match emitter %s/0x%x",
+                    pm.getUUID(), pm.getVersion(), uuid, version));
+        }
+        try {
+            out.beginDigest(signer);
+            out.write(prefix, 0, prefix.length);
+            if (version == ProtocolMessage.CHAINED) {
+                byte[] chain = pm.getChain() == null ? EMPTY_CHAIN : pm.getChain();
+                if (chain.length != CHAIN_LENGTH) {
+                    throw new ProtocolException(String.format("chain must be %d bytes: %d", CHAIN_LENGTH, chain.length));
+                }
+                out.write(chain, 0, CHAIN_LENGTH);
+            }
+            packHint(out, pm.getHint());
+            MsgPackProtocolEncoder.getEncoder().packPayload(out, pm);
+
+            int signedLength = out.size();
+            ProtocolEncoder.checkCapacity(signedLength + 2 + ProtocolEncoder.SIGNATURE_LENGTH, capacity);
+            byte[] signature = out.sign(signer, uuid);
+            if (signature.length <= 0xff) {
+                out.write(BIN8);
+                out.write(signature.length);
+            } else {
+                out.packer.packBinaryHeader(signature.length);
+                out.packer.flush();
+            }
+            pm.setSignature(signature);
+            return signedLength;
+        } catch (InvalidKeyException e) {
+            throw new ProtocolException("invalid key", e);
+        } catch (IOException e) {
+            throw new ProtocolException("msgpack encoding failed", e);
+        }
+    }
+}
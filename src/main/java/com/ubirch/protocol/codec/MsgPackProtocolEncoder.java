@@ -20,11 +20,13 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolMessage;
 import com.ubirch.protocol.ProtocolSigner;
-import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessagePacker;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
 import java.util.Base64;
@@ -35,7 +37,6 @@ import java.util.Base64;
  * @author Matthias L. Jugel
  */
 public class MsgPackProtocolEncoder extends ProtocolEncoder<byte[]> {
-    private static MessagePack.PackerConfig config = new MessagePack.PackerConfig().withStr8FormatSupport(false);
     private static final MsgPackProtocolEncoder instance = new MsgPackProtocolEncoder();
 
     public static MsgPackProtocolEncoder getEncoder() {
@@ -68,6 +69,10 @@ public class MsgPackProtocolEncoder extends ProtocolEncoder<byte[]> {
     /**
      * Encodes this protocol message into the msgpack format. Modifies the given ProtocolMessage, filling
      * in the signature and encoded bytes.
+     * <p>
+     * The message is packed into a re-usable buffer of the current thread, which is handed to the signer
+     * directly and must not be retained by it. The arrays allocated for the message are the result and
+     * the copy of the signed data set on the protocol message.
      *
      * @param pm     the protocol message to encode and sign
      * @param signer the protocol signer
@@ -76,12 +81,167 @@ public class MsgPackProtocolEncoder extends ProtocolEncoder<byte[]> {
      */
     @Override
     public byte[] encode(ProtocolMessage pm, ProtocolSigner signer) throws ProtocolException, SignatureException {
-        if (pm == null || signer == null) {
-            throw new IllegalArgumentException("message or signer null");
+        checkArguments(pm, signer);
+
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            int signedLength = packSign(pm, signer, out, Integer.MAX_VALUE);
+            out.packer.writePayload(pm.getSignature());
+            out.packer.flush();
+            byte[] result = out.toByteArray();
+            pm.setSigned(result, 0, signedLength);
+            return result;
+        } catch (IOException e) {
+            throw new ProtocolException("msgpack encoding failed", e);
+        } finally {
+            out.release();
         }
+    }
 
+    /**
+     * Encodes this protocol message into the given target array, starting at the offset. Only the signature
+     * of the ProtocolMessage is filled in, the signed data is not retained, as the target is owned by the caller.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the array to write the encoded message into
+     * @param offset the offset in the target array
+     * @return the number of bytes written
+     * @throws ProtocolException  if the encoding fails or the message does not fit into the target
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, byte[] target, int offset) throws ProtocolException, SignatureException {
+        checkArguments(pm, signer);
+
+        PackerBuffer out = PackerBuffer.acquire();
         try {
-            return encode(protocolSigning.sign(pm, signer));
+            packSign(pm, signer, out, target.length - offset);
+            int length = out.size() + pm.getSignature().length;
+            checkCapacity(length, target.length - offset);
+            System.arraycopy(out.buffer(), 0, target, offset, out.size());
+            System.arraycopy(pm.getSignature(), 0, target, offset + out.size(), pm.getSignature().length);
+            return length;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Encodes this protocol message into the target buffer, starting at its position. The position is
+     * advanced by the number of bytes written. If the message does not fit, the buffer is not modified.
+     * Only the signature of the ProtocolMessage is filled in.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the buffer to write the encoded message into
+     * @return the number of bytes written
+     * @throws ProtocolException  if the encoding fails or the message does not fit into the target
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, ByteBuffer target) throws ProtocolException, SignatureException {
+        checkArguments(pm, signer);
+
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            packSign(pm, signer, out, target.remaining());
+            int length = out.size() + pm.getSignature().length;
+            checkCapacity(length, target.remaining());
+            target.put(out.buffer(), 0, out.size()).put(pm.getSignature());
+            return length;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Encodes this protocol message and writes it to the output stream, the signed data and the signature
+     * in two separate writes. Only the signature of the ProtocolMessage is filled in.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the output stream to write the encoded message to
+     * @return the number of bytes written
+     * @throws IOException        if the encoding or writing fails
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, OutputStream target) throws IOException, SignatureException {
+        checkArguments(pm, signer);
+
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            packSign(pm, signer, out, Integer.MAX_VALUE);
+            target.write(out.buffer(), 0, out.size());
+            target.write(pm.getSignature());
+            return out.size() + pm.getSignature().length;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Encodes this protocol message and writes it to a blocking channel, using a gathering write of the signed
+     * data and the signature if supported by the channel. Only the signature of the ProtocolMessage is filled in.
+     *
+     * @param pm     the protocol message to encode and sign
+     * @param signer the protocol signer
+     * @param target the channel to write the encoded message to
+     * @return the number of bytes written
+     * @throws IOException        if the encoding or writing fails
+     * @throws SignatureException if the signature cannot be created
+     */
+    public int encode(ProtocolMessage pm, ProtocolSigner signer, WritableByteChannel target) throws IOException, SignatureException {
+        checkArguments(pm, signer);
+
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            packSign(pm, signer, out, Integer.MAX_VALUE);
+            writeFully(target, ByteBuffer.wrap(out.buffer(), 0, out.size()), ByteBuffer.wrap(pm.getSignature()));
+            return out.size() + pm.getSignature().length;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Packs the signed part of the protocol message (everything but the signature) without signing it.
+     * Set the signed data and the signature and use {@link #encode(ProtocolMessage)} to create the final message.
+     *
+     * @param pm the protocol message to pack
+     * @return the data to sign
+     * @throws ProtocolException if the packing fails
+     */
+    public byte[] pack(ProtocolMessage pm) throws ProtocolException {
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            protocolSigning.pack(out.packer, pm, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new ProtocolException("msgpack encoding failed", e);
+        } catch (NullPointerException e) {
+            throw new ProtocolException("msgpack encoding failed: field null?", e);
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Pack and sign the message, setting its signature. The buffer contains the signed data followed by
+     * the header of the signature. The message is only signed if it fits into the capacity of the target
+     * with a signature of the protocol length.
+     *
+     * @return the length of the signed data
+     */
+    private int packSign(ProtocolMessage pm, ProtocolSigner signer, PackerBuffer out, int capacity) throws ProtocolException, SignatureException {
+        try {
+            out.beginDigest(signer);
+            protocolSigning.pack(out.packer, pm, out);
+            int signedLength = out.size();
+            checkCapacity(signedLength + signatureHeaderLength(pm.getVersion()) + SIGNATURE_LENGTH, capacity);
+            byte[] signature = out.sign(signer, pm.getUUID());
+            packSignatureHeader(out.packer, pm.getVersion(), signature.length);
+            out.packer.flush();
+            pm.setSignature(signature);
+            return signedLength;
         } catch (InvalidKeyException e) {
             throw new ProtocolException("invalid key", e);
         } catch (IOException e) {
@@ -91,27 +251,44 @@ public class MsgPackProtocolEncoder extends ProtocolEncoder<byte[]> {
         }
     }
 
+    /**
+     * Pack the payload of the message into the buffer the same way the encoder does, used by the
+     * {@link MsgPackProtocolEmitter}. The envelope packer must have been flushed before.
+     */
+    void packPayload(PackerBuffer out, ProtocolMessage pm) throws IOException {
+        protocolSigning.payloadConsumer(out.packer, pm, out);
+        out.packer.flush();
+    }
+
     public byte[] encode(ProtocolMessage pm) throws ProtocolException {
         checkProtocolMessage(pm);
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream(255);
-        MessagePacker packer = config.newPacker(out);
-
+        PackerBuffer out = PackerBuffer.acquire();
         try {
-            packer.writePayload(pm.getSigned());
-            if (pm.getVersion() == 1) {
-                packer.packRawStringHeader(pm.getSignature().length);
-            } else {
-                packer.packBinaryHeader(pm.getSignature().length);
-            }
-            packer.writePayload(pm.getSignature());
-
-            packer.flush();
-            packer.close();
+            out.packer.writePayload(pm.getSigned());
+            packSignatureHeader(out.packer, pm.getVersion(), pm.getSignature().length);
+            out.packer.writePayload(pm.getSignature());
+            out.packer.flush();
+            return out.toByteArray();
         } catch (IOException e) {
             throw new ProtocolException("msgpack encoding failed", e);
+        } finally {
+            out.release();
         }
+    }
 
-        return out.toByteArray();
+    /**
+     * The header length of a signature of the protocol length, a str16 (str8 is disabled) or a bin8 header.
+     */
+    private static int signatureHeaderLength(int version) {
+        return version == 1 ? 3 : 2;
+    }
+
+    private static void packSignatureHeader(MessagePacker packer, int version, int length) throws IOException {
+        if (version == 1) {
+            packer.packRawStringHeader(length);
+        } else {
+            packer.packBinaryHeader(length);
+        }
     }
 }
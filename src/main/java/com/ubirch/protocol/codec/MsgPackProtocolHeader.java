@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * Reads only the header of a msgpack encoded protocol message: the version, the uuid and the hint. Neither
+ * the payload nor the signature are read, which makes routing and filtering messages cost a few dozen byte
+ * reads per message. Heap, direct and memory mapped buffers are read in place with absolute gets, all offsets
+ * are absolute positions in the buffer.
+ * <p>
+ * A header can be re-used for any number of messages by calling {@link #peek(byte[])} again, it is not thread
+ * safe. Use {@link #matches(byte[], Filter)} to filter messages without allocating.
+ * <p>
+ * Peeking does not check the payload and the signature, use {@link MsgPackProtocolView} or a decoder for that.
+ *
+ * @author Matthias L. Jugel
+ */
+@SuppressWarnings("WeakerAccess")
+public class MsgPackProtocolHeader {
+    /**
+     * A filter on the header fields of a message.
+     */
+    @FunctionalInterface
+    public interface Filter {
+        /**
+         * @param version                  the protocol message version
+         * @param uuidMostSignificantBits  the most significant bits of the uuid
+         * @param uuidLeastSignificantBits the least significant bits of the uuid
+         * @param hint                     the payload hint
+         * @return whether the message is accepted
+         */
+        boolean accept(int version, long uuidMostSignificantBits, long uuidLeastSignificantBits, int hint);
+    }
+
+    private ByteBuffer wrapped = ByteBuffer.allocate(0);
+
+    private int version;
+    private long uuidMostSignificantBits;
+    private long uuidLeastSignificantBits;
+    private int chainOffset;
+    private int chainLength;
+    private int hint;
+    private int payloadOffset;
+    private int headerLength;
+
+    // position after the last value read
+    private int position;
+
+    /**
+     * Read the header of a message.
+     *
+     * @param message the raw protocol message in msgpack format
+     * @return this header
+     * @throws ProtocolException if the message header is broken
+     */
+    public MsgPackProtocolHeader peek(byte[] message) throws ProtocolException {
+        return peek(message, 0, message.length);
+    }
+
+    /**
+     * Read the header of a message that starts at the given offset of the buffer.
+     *
+     * @param buffer the buffer containing the raw protocol message in msgpack format
+     * @param offset the offset of the message in the buffer
+     * @param length the number of bytes available for the message
+     * @return this header
+     * @throws ProtocolException if the message header is broken
+     */
+    public MsgPackProtocolHeader peek(byte[] buffer, int offset, int length) throws ProtocolException {
+        if (wrapped.array() != buffer) {
+            wrapped = ByteBuffer.wrap(buffer);
+        }
+        parse(wrapped, offset, offset + length);
+        return this;
+    }
+
+    /**
+     * Read the header of a message that starts at the position of the buffer. The position of the buffer
+     * is not changed.
+     *
+     * @param buffer the buffer containing the raw protocol message in msgpack format
+     * @return this header
+     * @throws ProtocolException if the message header is broken
+     */
+    public MsgPackProtocolHeader peek(ByteBuffer buffer) throws ProtocolException {
+        parse(buffer, buffer.position(), buffer.limit());
+        return this;
+    }
+
+    /**
+     * Read the header of a message and apply the filter.
+     *
+     * @param message the raw protocol message in msgpack format
+     * @param filter  the filter to apply
+     * @return whether the filter accepts the message
+     * @throws ProtocolException if the message header is broken
+     */
+    public boolean matches(byte[] message, Filter filter) throws ProtocolException {
+        peek(message);
+        return filter.accept(version, uuidMostSignificantBits, uuidLeastSignificantBits, hint);
+    }
+
+    /**
+     * Read the header of a message that starts at the position of the buffer and apply the filter.
+     *
+     * @param buffer the buffer containing the raw protocol message in msgpack format
+     * @param filter the filter to apply
+     * @return whether the filter accepts the message
+     * @throws ProtocolException if the message header is broken
+     */
+    public boolean matches(ByteBuffer buffer, Filter filter) throws ProtocolException {
+        peek(buffer);
+        return filter.accept(version, uuidMostSignificantBits, uuidLeastSignificantBits, hint);
+    }
+
+    /**
+     * Parse the header of the message between start and limit of the buffer, also used by the
+     * {@link MsgPackProtocolView}.
+     */
+    void parse(ByteBuffer buffer, int start, int limit) throws ProtocolException {
+        position = start;
+        int envelope = readByte(buffer, limit);
+        if (envelope != 0x95 && envelope != 0x96) {
+            throw new ProtocolException(String.format("unknown msgpack envelope format: 0x%02x", envelope));
+        }
+
+        version = readInt(buffer, limit);
+        int protocolVersion = version >> 4;
+        if (protocolVersion != 1 && protocolVersion != ProtocolMessage.ubirchProtocolVersion) {
+            throw new ProtocolException(String.format("unknown protocol version: %d", protocolVersion));
+        }
+
+        int uuidLength = readRawHeader(buffer, limit);
+        if (uuidLength != 16) {
+            throw new ProtocolException(String.format("unexpected uuid length: %d", uuidLength));
+        }
+        require(16, limit);
+        uuidMostSignificantBits = buffer.getLong(position);
+        uuidLeastSignificantBits = buffer.getLong(position + 8);
+        if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+            uuidMostSignificantBits = Long.reverseBytes(uuidMostSignificantBits);
+            uuidLeastSignificantBits = Long.reverseBytes(uuidLeastSignificantBits);
+        }
+        position += 16;
+
+        switch (version & 0x0F) {
+            case ProtocolMessage.CHAINED & 0x0F:
+                chainLength = readRawHeader(buffer, limit);
+                chainOffset = position;
+                require(chainLength, limit);
+                position += chainLength;
+                break;
+            case ProtocolMessage.SIGNED & 0x0F:
+                chainOffset = -1;
+                chainLength = 0;
+                break;
+            default:
+                throw new ProtocolException(String.format("unknown protocol type: 0x%04x", version & 0x0F));
+        }
+
+        hint = readInt(buffer, limit);
+        payloadOffset = position;
+        headerLength = position - start;
+    }
+
+    private void require(int n, int limit) throws ProtocolException {
+        if (limit - position < n) {
+            throw new ProtocolException(String.format("msgpack data corrupt at position %d", position));
+        }
+    }
+
+    private int readByte(ByteBuffer buffer, int limit) throws ProtocolException {
+        require(1, limit);
+        return buffer.get(position++) & 0xFF;
+    }
+
+    private int readInt(ByteBuffer buffer, int limit) throws ProtocolException {
+        require(1, limit);
+        int b = buffer.get(position) & 0xFF;
+        if (!MsgPackHeaders.isInteger(b)) {
+            throw new ProtocolException(String.format("expected integer, found: 0x%02x", b));
+        }
+        int size = b <= 0x7f || b >= 0xe0 ? 1 : MsgPackHeaders.headerSize(b);
+        require(size, limit);
+        long value = MsgPackHeaders.readInteger(buffer, position, b);
+        position += size;
+        if ((b == 0xcf && value < 0) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new ProtocolException(String.format("integer overflow at position %d", position));
+        }
+        return (int) value;
+    }
+
+    private int readRawHeader(ByteBuffer buffer, int limit) throws ProtocolException {
+        require(1, limit);
+        int b = buffer.get(position) & 0xFF;
+        if (!MsgPackHeaders.isRaw(b)) {
+            throw new ProtocolException(String.format("expected raw value, found: 0x%02x", b));
+        }
+        int size = MsgPackHeaders.rawHeaderSize(b);
+        require(size, limit);
+        long length = MsgPackHeaders.readRawLength(buffer, position, b);
+        position += size;
+        return length > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) length;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getUUIDMostSignificantBits() {
+        return uuidMostSignificantBits;
+    }
+
+    public long getUUIDLeastSignificantBits() {
+        return uuidLeastSignificantBits;
+    }
+
+    /**
+     * @return the uuid as a new {@link UUID} object, use the significant bits to avoid the allocation
+     */
+    public UUID getUUID() {
+        return new UUID(uuidMostSignificantBits, uuidLeastSignificantBits);
+    }
+
+    public boolean hasChain() {
+        return chainOffset >= 0;
+    }
+
+    /**
+     * @return the position of the chain data in the buffer, -1 for signed messages
+     */
+    public int getChainOffset() {
+        return chainOffset;
+    }
+
+    public int getChainLength() {
+        return chainLength;
+    }
+
+    public int getHint() {
+        return hint;
+    }
+
+    /**
+     * @return the position of the payload in the buffer, which directly follows the header
+     */
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * @return the length of the header, from the start of the message to the payload
+     */
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    @Override
+    public String toString() {
+        return "MsgPackProtocolHeader(" +
+                String.format("v=0x%02x", version) +
+                "," + getUUID() +
+                String.format(",hint=0x%02x", hint) +
+                String.format(",p=%d", payloadOffset) + ")";
+    }
+}
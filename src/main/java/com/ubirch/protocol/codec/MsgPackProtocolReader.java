@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import org.msgpack.core.MessageInsufficientBufferException;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.value.ValueType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads msgpack protocol messages from a stream of concatenated messages, i.e. an archive or export file.
+ * The message boundaries are found by skipping over the envelope array, without decoding the message.
+ * <p>
+ * The stream is read in large chunks into a re-used buffer. Each message can be returned as a copy of its raw
+ * data with {@link #next()}, decoded with {@link #nextMessage()} or wrapped in a {@link MsgPackProtocolView}
+ * with {@link #nextView(MsgPackProtocolView)}. The view refers to the internal buffer and is only valid until
+ * the next message is read. A reader is not thread safe.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MsgPackProtocolReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private final InputStream in;
+    private final ReadableByteChannel channel;
+    private final ArrayBufferInput input = new ArrayBufferInput(new byte[0]);
+    private final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(input);
+    private byte[] buffer;
+    // start and length of the current message in the buffer, end of the buffered data
+    private int start;
+    private int length;
+    private int end;
+    // stream position of the current message
+    private long position;
+    private boolean eof;
+
+    /**
+     * Create a new reader.
+     *
+     * @param in the input stream to read the messages from
+     */
+    public MsgPackProtocolReader(InputStream in) {
+        this(in, null, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new reader.
+     *
+     * @param channel the channel to read the messages from, i.e. a {@link FileChannel}
+     */
+    public MsgPackProtocolReader(ReadableByteChannel channel) {
+        this(null, channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new reader.
+     *
+     * @param channel    the channel to read the messages from, i.e. a {@link FileChannel}
+     * @param bufferSize the initial size of the read buffer, it grows if a message does not fit
+     */
+    public MsgPackProtocolReader(ReadableByteChannel channel, int bufferSize) {
+        this(null, channel, bufferSize);
+    }
+
+    private MsgPackProtocolReader(InputStream in, ReadableByteChannel channel, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.in = in;
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Open a reader for a file.
+     *
+     * @param file the file containing concatenated messages
+     * @return a new reader
+     * @throws IOException if the file can't be opened
+     */
+    public static MsgPackProtocolReader open(Path file) throws IOException {
+        return new MsgPackProtocolReader(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * Read the next message.
+     *
+     * @return a copy of the raw message or null at the end of the stream
+     * @throws ProtocolException if the stream does not contain msgpack protocol messages or ends within a message
+     * @throws IOException       if reading the stream fails
+     */
+    public byte[] next() throws IOException {
+        return advance() ? Arrays.copyOfRange(buffer, start, start + length) : null;
+    }
+
+    /**
+     * Read and decode the next message.
+     *
+     * @return the decoded message or null at the end of the stream
+     * @throws ProtocolException if the stream does not contain msgpack protocol messages or decoding fails
+     * @throws IOException       if reading the stream fails
+     */
+    public ProtocolMessage nextMessage() throws IOException {
+        return advance() ? MsgPackProtocolDecoder.getDecoder().decode(ByteBuffer.wrap(buffer, start, length)) : null;
+    }
+
+    /**
+     * Read the next message into a view, without copying it. The view is only valid until the next message is read.
+     *
+     * @param view the view to re-use
+     * @return the view wrapping the next message or null at the end of the stream
+     * @throws ProtocolException if the stream does not contain msgpack protocol messages or the message is broken
+     * @throws IOException       if reading the stream fails
+     */
+    public MsgPackProtocolView nextView(MsgPackProtocolView view) throws IOException {
+        return advance() ? view.wrap(buffer, start, length) : null;
+    }
+
+    /**
+     * @return the stream position after the last message read
+     */
+    public long getPosition() {
+        return position + length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    /**
+     * Move to the next message, reading from the stream if it is not completely buffered.
+     *
+     * @return whether there is a next message
+     */
+    private boolean advance() throws IOException {
+        start += length;
+        position += length;
+        length = 0;
+        while (true) {
+            length = messageLength();
+            if (length > 0) {
+                return true;
+            }
+            if (eof) {
+                if (start < end) {
+                    throw new ProtocolException(String.format("truncated message at position %d", position));
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * @return the length of the buffered message or 0 if it is not completely buffered yet
+     */
+    private int messageLength() throws IOException {
+        if (start == end) {
+            return 0;
+        }
+        input.reset(buffer, start, end - start);
+        unpacker.reset(input);
+        try {
+            ValueType envelopeType = unpacker.getNextFormat().getValueType();
+            if (envelopeType != ValueType.ARRAY) {
+                throw new ProtocolException(String.format("unknown msgpack envelope format at position %d: %s",
+                        position, envelopeType.name()));
+            }
+            unpacker.skipValue();
+            return (int) unpacker.getTotalReadBytes();
+        } catch (MessageInsufficientBufferException e) {
+            return 0;
+        } catch (MessagePackException | IOException e) {
+            throw new ProtocolException(String.format("msgpack data corrupt at position %d", position), e);
+        }
+    }
+
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            if (buffer.length >= MAX_MESSAGE_SIZE) {
+                throw new ProtocolException(String.format("message at position %d exceeds %d bytes", position, MAX_MESSAGE_SIZE));
+            }
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_MESSAGE_SIZE));
+        }
+        int n = in != null
+                ? in.read(buffer, end, buffer.length - end)
+                : channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+        if (n < 0) {
+            eof = true;
+        } else {
+            end += n;
+        }
+    }
+}
@@ -17,10 +17,10 @@ package com.ubirch.protocol.codec;
  */
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolMessage;
 import com.ubirch.protocol.ProtocolSigner;
-import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessagePacker;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 
@@ -42,7 +42,7 @@ import java.security.SignatureException;
  */
 public class MsgPackProtocolSigning {
 
-    private static final MessagePack.PackerConfig config = new MessagePack.PackerConfig().withStr8FormatSupport(false);
+    private static final ObjectWriter payloadWriter = new ObjectMapper(new MessagePackFactory()).writer();
 
     public MsgPackProtocolSigning() { }
 
@@ -77,14 +77,23 @@ public class MsgPackProtocolSigning {
     }
 
     public void payloadConsumer(MessagePacker packer, ProtocolMessage pm, ByteArrayOutputStream out) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
-        mapper.writeValue(out, pm.getPayload());
+        // pack common payloads directly into the re-usable buffer, the generator builds a complete copy first
+        if (out instanceof PackerBuffer && ((PackerBuffer) out).packPayload(pm.getPayload())) {
+            return;
+        }
+        payloadWriter.writeValue(out, pm.getPayload());
     }
 
-    public ProtocolMessage sign(ProtocolMessage pm, ProtocolSigner signer) throws IOException, SignatureException, InvalidKeyException {
-        //We prepare the streams and the packer
-        ByteArrayOutputStream out = new ByteArrayOutputStream(255);
-        MessagePacker packer = config.newPacker(out);
+    /**
+     * Packs the signed part of the message (everything but the signature) into the output stream.
+     * The packer must write into the given output stream, it is flushed when done.
+     *
+     * @param packer the packer writing into out
+     * @param pm     the protocol message to pack
+     * @param out    the output stream
+     * @throws IOException if the packing fails
+     */
+    public void pack(MessagePacker packer, ProtocolMessage pm, ByteArrayOutputStream out) throws IOException {
         packer.packArrayHeader(5 + (pm.getVersion() & 0x0f) - 2);
 
         //We build a stream based on the proper order for the Protocol Message
@@ -94,16 +103,28 @@ public class MsgPackProtocolSigning {
         hintConsumer(packer, pm);
         packer.flush(); // make sure everything is in the byte buffer
         payloadConsumer(packer, pm, out);
-        packer.close(); // also closes out
-
-        //We sign the bytes
-        byte[] dataToSign = out.toByteArray();
-        byte[] signature = signer.sign(pm.getUUID(), dataToSign, 0, dataToSign.length);
+        packer.flush(); // a payload consumer may have used the packer
+    }
 
-        //We set the values into the protocol message
-        pm.setSigned(dataToSign);
-        pm.setSignature(signature);
-        return pm;
+    public ProtocolMessage sign(ProtocolMessage pm, ProtocolSigner signer) throws IOException, SignatureException, InvalidKeyException {
+        //We pack into the re-usable buffer of this thread
+        PackerBuffer out = PackerBuffer.acquire();
+        try {
+            //A digest signer gets the data fed into its digest while packing
+            out.beginDigest(signer);
+            pack(out.packer, pm, out);
+
+            //We sign the bytes
+            byte[] dataToSign = out.toByteArray();
+            byte[] signature = out.sign(signer, pm.getUUID());
+
+            //We set the values into the protocol message
+            pm.setSigned(dataToSign);
+            pm.setSignature(signature);
+            return pm;
+        } finally {
+            out.release();
+        }
     }
 
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolVerifier;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A read-only view of a msgpack encoded protocol message.
+ * <p>
+ * The view wraps the original message array or buffer and exposes the envelope fields as values or as
+ * offset/length pairs into {@link #getByteBuffer()}, without copying any of the data. Direct and memory
+ * mapped buffers are read in place as well, see {@link #wrap(ByteBuffer)}. A view can be re-used for any
+ * number of messages by calling {@link #wrap(byte[])} again, it is not thread safe. All offsets are absolute
+ * positions in the wrapped array, or in the wrapped buffer if it has no accessible array.
+ * <p>
+ * The header is read by a {@link MsgPackProtocolHeader}, the rest of the envelope with the same absolute
+ * reads of the msgpack headers.
+ *
+ * @author Matthias L. Jugel
+ */
+@SuppressWarnings("WeakerAccess")
+public class MsgPackProtocolView {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final MsgPackProtocolHeader header = new MsgPackProtocolHeader();
+    private ByteBuffer wrapped = ByteBuffer.wrap(EMPTY);
+
+    // null if the wrapped buffer has no accessible array
+    private byte[] buffer = EMPTY;
+    // re-used slice of a wrapped buffer without accessible array
+    private ByteBuffer slice;
+    private int offset;
+    private int length;
+
+    private int payloadLength;
+    private int signedLength;
+    private int signatureOffset;
+    private int signatureLength;
+
+    /**
+     * Wrap a message.
+     *
+     * @param message the raw protocol message in msgpack format
+     * @return this view
+     * @throws ProtocolException if the message envelope is broken
+     */
+    public MsgPackProtocolView wrap(byte[] message) throws ProtocolException {
+        return wrap(message, 0, message.length);
+    }
+
+    /**
+     * Wrap a message that starts at the given offset of the buffer. The buffer may contain more data after
+     * the message, {@link #getLength()} returns the actual length of the message after wrapping.
+     *
+     * @param buffer the buffer containing the raw protocol message in msgpack format
+     * @param offset the offset of the message in the buffer
+     * @param length the number of bytes available for the message
+     * @return this view
+     * @throws ProtocolException if the message envelope is broken
+     */
+    public MsgPackProtocolView wrap(byte[] buffer, int offset, int length) throws ProtocolException {
+        if (this.buffer != buffer) {
+            wrapped = ByteBuffer.wrap(buffer);
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        parse(offset + length);
+        return this;
+    }
+
+    /**
+     * Wrap a message that starts at the position of the buffer, in place. A heap buffer is wrapped as its
+     * array, {@link #getBuffer()} returns the array all offsets point into. Direct, memory mapped and read-only
+     * buffers have no accessible array, the offsets are absolute positions in the buffer and {@link #getBuffer()}
+     * is not available. The position of the buffer is not changed.
+     *
+     * @param buffer the buffer containing the raw protocol message in msgpack format
+     * @return this view
+     * @throws ProtocolException if the message envelope is broken
+     */
+    public MsgPackProtocolView wrap(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.hasArray()) {
+            return wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        if (wrapped != buffer) {
+            wrapped = buffer;
+            slice = buffer.duplicate();
+        }
+        this.buffer = null;
+        this.offset = buffer.position();
+        parse(buffer.limit());
+        return this;
+    }
+
+    private void parse(int limit) throws ProtocolException {
+        header.parse(wrapped, offset, limit);
+
+        int p = EnvelopeScanner.skip(wrapped, header.getPayloadOffset(), limit);
+        if (p < 0) {
+            throw new ProtocolException(String.format("msgpack data corrupt at position %d", header.getPayloadOffset()));
+        }
+        payloadLength = p - header.getPayloadOffset();
+        signedLength = p - offset;
+
+        if (p >= limit) {
+            throw new ProtocolException(String.format("msgpack data corrupt at position %d", p));
+        }
+        int b = wrapped.get(p) & 0xFF;
+        if (!MsgPackHeaders.isRaw(b)) {
+            throw new ProtocolException(String.format("expected raw value, found: 0x%02x", b));
+        }
+        int size = MsgPackHeaders.rawHeaderSize(b);
+        long rawLength = limit - p < size ? -1 : MsgPackHeaders.readRawLength(wrapped, p, b);
+        if (rawLength < 0 || rawLength > limit - p - size) {
+            throw new ProtocolException(String.format("msgpack data corrupt at position %d", p));
+        }
+        signatureOffset = p + size;
+        signatureLength = (int) rawLength;
+        length = signatureOffset + signatureLength - offset;
+    }
+
+    /**
+     * Verify the signature of the wrapped message, handing the signed region of the array or buffer directly
+     * to the verifier. A buffer without accessible array is verified with
+     * {@link ProtocolVerifier#verify(UUID, ByteBuffer, byte[])}.
+     *
+     * @param verifier the verifier to use
+     * @return whether the signature could be verified
+     * @throws SignatureException  if the verification fails for initialization or other issues
+     * @throws InvalidKeyException if the verification fails because the key is invalid
+     */
+    public boolean verify(ProtocolVerifier verifier) throws SignatureException, InvalidKeyException {
+        if (buffer == null) {
+            byte[] signature = getSignature();
+            slice.limit(offset + signedLength);
+            slice.position(offset);
+            return verifier.verify(getUUID(), slice, signature);
+        }
+        return verifier.verify(getUUID(), buffer, getSignedOffset(), signedLength, getSignature());
+    }
+
+    /**
+     * @return the wrapped array, all offsets point into this array
+     * @throws IllegalStateException if the wrapped buffer has no accessible array
+     */
+    public byte[] getBuffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("wrapped buffer has no accessible array");
+        }
+        return buffer;
+    }
+
+    /**
+     * @return a read-only buffer of the wrapped array or buffer, all offsets are absolute positions in this buffer
+     */
+    public ByteBuffer getByteBuffer() {
+        return wrapped.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the offset of the message in the wrapped buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the total length of the message, including the signature
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getVersion() {
+        return header.getVersion();
+    }
+
+    public long getUUIDMostSignificantBits() {
+        return header.getUUIDMostSignificantBits();
+    }
+
+    public long getUUIDLeastSignificantBits() {
+        return header.getUUIDLeastSignificantBits();
+    }
+
+    /**
+     * @return a new {@link UUID} instance created from the uuid bits
+     */
+    public UUID getUUID() {
+        return header.getUUID();
+    }
+
+    public boolean hasChain() {
+        return header.hasChain();
+    }
+
+    /**
+     * @return the offset of the chain data or -1 if the message is not chained
+     */
+    public int getChainOffset() {
+        return header.getChainOffset();
+    }
+
+    public int getChainLength() {
+        return header.getChainLength();
+    }
+
+    /**
+     * @return a copy of the chain data or null if the message is not chained
+     */
+    public byte[] getChain() {
+        return hasChain() ? copy(getChainOffset(), getChainLength()) : null;
+    }
+
+    public int getHint() {
+        return header.getHint();
+    }
+
+    /**
+     * @return the offset of the encoded payload
+     */
+    public int getPayloadOffset() {
+        return header.getPayloadOffset();
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * @return the offset of the signed data, which is always the start of the message
+     */
+    public int getSignedOffset() {
+        return offset;
+    }
+
+    public int getSignedLength() {
+        return signedLength;
+    }
+
+    public int getSignatureOffset() {
+        return signatureOffset;
+    }
+
+    public int getSignatureLength() {
+        return signatureLength;
+    }
+
+    /**
+     * @return a copy of the signature
+     */
+    public byte[] getSignature() {
+        return copy(signatureOffset, signatureLength);
+    }
+
+    private byte[] copy(int start, int length) {
+        if (buffer != null) {
+            return Arrays.copyOfRange(buffer, start, start + length);
+        }
+        byte[] copy = new byte[length];
+        for (int i = 0; i < length; i++) {
+            copy[i] = wrapped.get(start + i);
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "MsgPackProtocolView(" +
+                String.format("v=0x%02x", getVersion()) +
+                "," + getUUID() +
+                String.format(",hint=0x%02x", getHint()) +
+                String.format(",p=%d+%d", getPayloadOffset(), payloadLength) +
+                String.format(",d=%d+%d", offset, signedLength) +
+                String.format(",s=%d+%d", signatureOffset, signatureLength) + ")";
+    }
+}
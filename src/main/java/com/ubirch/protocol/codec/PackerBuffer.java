@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.ubirch.protocol.DigestSigner;
+import com.ubirch.protocol.MessageDigests;
+import com.ubirch.protocol.ProtocolSigner;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A per-thread, re-usable output buffer with msgpack packers writing into it.
+ * <p>
+ * The {@link #packer} is used for the envelope, the {@link #payloadPacker} writes payloads the same way
+ * the jackson msgpack generator does, but without building an intermediate structure first.
+ * <p>
+ * Use {@link #acquire()} to get the buffer of the current thread and {@link #release()} it when done.
+ * If the buffer of the current thread is in use (i.e. a signer encodes another message while signing),
+ * a temporary buffer is returned instead. Buffers that grew very large are not kept.
+ * <p>
+ * For a {@link DigestSigner}, the data is fed into its digest in chunks as it is written, see
+ * {@link #beginDigest(ProtocolSigner)}.
+ *
+ * @author Matthias L. Jugel
+ */
+final class PackerBuffer extends ByteArrayOutputStream {
+    private static final MessagePack.PackerConfig config = new MessagePack.PackerConfig().withStr8FormatSupport(false);
+    private static final MessagePack.PackerConfig payloadConfig = new MessagePack.PackerConfig();
+    private static final int INITIAL_SIZE = 512;
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private static final int DIGEST_CHUNK_SIZE = 4096;
+
+    private static final ThreadLocal<PackerBuffer> buffers = ThreadLocal.withInitial(PackerBuffer::new);
+
+    final MessagePacker packer = config.newPacker(this);
+    final MessagePacker payloadPacker = payloadConfig.newPacker(this);
+    private boolean inUse;
+    private MessageDigest digest;
+    private int digested;
+
+    private PackerBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * @return an empty buffer for exclusive use by the caller
+     */
+    static PackerBuffer acquire() {
+        PackerBuffer buffer = buffers.get();
+        if (buffer.inUse) {
+            buffer = new PackerBuffer();
+        }
+        buffer.inUse = true;
+        // discard anything left over from a failed encoding
+        buffer.packer.clear();
+        buffer.payloadPacker.clear();
+        buffer.reset();
+        buffer.digest = null;
+        return buffer;
+    }
+
+    void release() {
+        inUse = false;
+        digest = null;
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE];
+        }
+    }
+
+    // the buffer is confined to one thread, no need for the locking of the stream methods
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+        if (digest != null && count - digested >= DIGEST_CHUNK_SIZE) {
+            updateDigest();
+        }
+    }
+
+    /**
+     * Feed the data written since the last update into the digest, while it is still in the cache.
+     */
+    private void updateDigest() {
+        digest.update(buf, digested, count - digested);
+        digested = count;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, capacity));
+        }
+    }
+
+    /**
+     * Start feeding everything written from now on into the digest of the signer, if it is a {@link DigestSigner}.
+     * Must be called on an empty buffer.
+     *
+     * @param signer the signer that will sign the data
+     * @throws SignatureException if the digest algorithm of the signer is not available
+     */
+    void beginDigest(ProtocolSigner signer) throws SignatureException {
+        if (signer instanceof DigestSigner) {
+            digest = MessageDigests.get(((DigestSigner) signer).getDigestAlgorithm());
+            digested = count;
+        }
+    }
+
+    /**
+     * Sign the data written so far, handing the digest to a {@link DigestSigner} if it has been fed while writing.
+     * Data written after signing is not fed into the digest.
+     *
+     * @param signer the signer
+     * @param uuid   the uuid to sign for
+     * @return the signature
+     */
+    byte[] sign(ProtocolSigner signer, UUID uuid) throws SignatureException, InvalidKeyException {
+        if (digest == null) {
+            return signer.sign(uuid, buf, 0, count);
+        }
+        updateDigest();
+        byte[] hash = digest.digest();
+        digest = null;
+        return ((DigestSigner) signer).signDigest(uuid, hash);
+    }
+
+    /**
+     * @return the internal buffer, valid up to {@link #size()}
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * Pack a json payload, producing the same output as the jackson msgpack generator. If the payload
+     * contains node types not handled here, nothing is written and false is returned.
+     *
+     * @param payload the payload to pack
+     * @return whether the payload has been written
+     * @throws IOException if writing the payload fails
+     */
+    boolean packPayload(JsonNode payload) throws IOException {
+        if (payload != null && payload.isBinary()) {
+            // hashes are the most common payload, skip the packer and its buffer
+            writeBinary(payload.binaryValue());
+            return true;
+        }
+        int start = count;
+        if (packNode(payload)) {
+            payloadPacker.flush();
+            return true;
+        }
+        payloadPacker.clear();
+        count = start;
+        if (digest != null && digested > count) {
+            // the payload packer has flushed part of the payload already
+            digest.reset();
+            digested = 0;
+            updateDigest();
+        }
+        return false;
+    }
+
+    private void writeBinary(byte[] data) {
+        int length = data.length;
+        if (length <= 0xff) {
+            write(0xc4);
+            write(length);
+        } else if (length <= 0xffff) {
+            write(0xc5);
+            write(length >>> 8);
+            write(length);
+        } else {
+            write(0xc6);
+            write(length >>> 24);
+            write(length >>> 16);
+            write(length >>> 8);
+            write(length);
+        }
+        write(data, 0, length);
+    }
+
+    private boolean packNode(JsonNode node) throws IOException {
+        if (node == null) {
+            payloadPacker.packNil();
+            return true;
+        }
+        switch (node.getNodeType()) {
+            case NULL:
+                payloadPacker.packNil();
+                return true;
+            case BOOLEAN:
+                payloadPacker.packBoolean(node.booleanValue());
+                return true;
+            case NUMBER:
+                return packNumber(node);
+            case STRING:
+                payloadPacker.packString(node.textValue());
+                return true;
+            case BINARY:
+                byte[] data = node.binaryValue();
+                payloadPacker.packBinaryHeader(data.length).writePayload(data);
+                return true;
+            case ARRAY:
+                payloadPacker.packArrayHeader(node.size());
+                for (JsonNode element : node) {
+                    if (!packNode(element)) {
+                        return false;
+                    }
+                }
+                return true;
+            case OBJECT:
+                payloadPacker.packMapHeader(node.size());
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    payloadPacker.packString(field.getKey());
+                    if (!packNode(field.getValue())) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean packNumber(JsonNode node) throws IOException {
+        switch (node.numberType()) {
+            case INT:
+                payloadPacker.packInt(node.intValue());
+                return true;
+            case LONG:
+                payloadPacker.packLong(node.longValue());
+                return true;
+            case BIG_INTEGER:
+                payloadPacker.packBigInteger(node.bigIntegerValue());
+                return true;
+            case FLOAT:
+                payloadPacker.packFloat(node.floatValue());
+                return true;
+            case DOUBLE:
+                payloadPacker.packDouble(node.doubleValue());
+                return true;
+            default:
+                // big decimals have a special encoding in the generator
+                return false;
+        }
+    }
+}
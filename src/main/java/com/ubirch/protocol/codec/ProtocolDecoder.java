@@ -16,12 +16,17 @@
 
 package com.ubirch.protocol.codec;
 
+import com.ubirch.protocol.DecodeResult;
 import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolMessage;
 import com.ubirch.protocol.ProtocolVerifier;
+import com.ubirch.protocol.VerifyRequest;
 
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Protocol decoder interface is the basis for protocol decoders.
@@ -42,7 +47,94 @@ abstract class ProtocolDecoder<T> {
      * @throws SignatureException if the signature verification cannot be done for some reason
      */
     public ProtocolMessage decode(T message, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
-        ProtocolMessage pm = decode(message);
+        return verify(decode(message), verifier);
+    }
+
+    /**
+     * Decode and verify a batch of messages. All messages are decoded first. If the verifier
+     * {@link ProtocolVerifier#hasBatchVerification() has batch verification}, they are verified with
+     * {@link ProtocolVerifier#verifyBatch(List)}, otherwise one by one. If the batch throws, it is split
+     * in halves, which are verified again, until the messages causing the exception are found.
+     *
+     * @param messages the messages to decode
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signatures
+     * @return the results, in the same order as the messages
+     */
+    public List<DecodeResult> decode(List<T> messages, ProtocolVerifier verifier) {
+        DecodeResult[] results = new DecodeResult[messages.size()];
+        ProtocolMessage[] pms = new ProtocolMessage[messages.size()];
+        List<Integer> decoded = new ArrayList<>(messages.size());
+        List<VerifyRequest> requests = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                ProtocolMessage pm = decode(messages.get(i));
+                pms[i] = pm;
+                decoded.add(i);
+                requests.add(new VerifyRequest(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length, pm.getSignature()));
+            } catch (ProtocolException e) {
+                results[i] = DecodeResult.failed(null, e);
+            }
+        }
+        if (requests.isEmpty()) {
+            return Arrays.asList(results);
+        }
+        if (verifier.hasBatchVerification()) {
+            verifyBatch(decoded, requests, pms, results, verifier);
+        } else {
+            for (int i : decoded) {
+                try {
+                    results[i] = DecodeResult.valid(verify(pms[i], verifier));
+                } catch (ProtocolException | SignatureException e) {
+                    results[i] = DecodeResult.failed(pms[i], e);
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private void verifyBatch(List<Integer> indexes, List<VerifyRequest> requests, ProtocolMessage[] pms,
+                             DecodeResult[] results, ProtocolVerifier verifier) {
+        Exception error;
+        try {
+            boolean[] valid = verifier.verifyBatch(requests);
+            if (valid == null || valid.length != requests.size()) {
+                throw new ProtocolException(String.format("batch verification returned %d results for %d requests",
+                        valid == null ? 0 : valid.length, requests.size()));
+            }
+            for (int i = 0; i < valid.length; i++) {
+                ProtocolMessage pm = pms[indexes.get(i)];
+                results[indexes.get(i)] = valid[i] ? DecodeResult.valid(pm)
+                        : DecodeResult.failed(pm, new SignatureException(String.format("signature verification failed: %s", pm)));
+            }
+            return;
+        } catch (SignatureException e) {
+            error = e;
+        } catch (InvalidKeyException e) {
+            error = new ProtocolException("invalid key", e);
+        } catch (ProtocolException e) {
+            error = e;
+        }
+
+        if (indexes.size() == 1) {
+            int i = indexes.get(0);
+            results[i] = DecodeResult.failed(pms[i], error);
+        } else {
+            int half = indexes.size() / 2;
+            verifyBatch(indexes.subList(0, half), requests.subList(0, half), pms, results, verifier);
+            verifyBatch(indexes.subList(half, indexes.size()), requests.subList(half, requests.size()), pms, results, verifier);
+        }
+    }
+
+    /**
+     * Verify the signature of an already decoded message.
+     *
+     * @param pm       the decoded message
+     * @param verifier a {@link ProtocolVerifier} that takes care of cryptographically verifying the message signature
+     * @return the verified message
+     * @throws ProtocolException  if the crypto functions fail (no signature verification)
+     * @throws SignatureException if the signature verification fails
+     */
+    ProtocolMessage verify(ProtocolMessage pm, ProtocolVerifier verifier) throws ProtocolException, SignatureException {
         try {
             if (!verifier.verify(pm.getUUID(), pm.getSigned(), 0, pm.getSigned().length, pm.getSignature())) {
                 throw new SignatureException(String.format("signature verification failed: %s", pm));
@@ -20,6 +20,10 @@ import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolMessage;
 import com.ubirch.protocol.ProtocolSigner;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.SignatureException;
 
 /**
@@ -29,6 +33,12 @@ import java.security.SignatureException;
  * @author Matthias L. Jugel
  */
 abstract class ProtocolEncoder<T> {
+    /**
+     * The signature length of the ubirch protocol. Targets of a fixed size are checked against it before
+     * the message is signed, as the signer may keep the signature as the chain of the next message.
+     */
+    static final int SIGNATURE_LENGTH = 64;
+
     /**
      * Encode a protocol message into the target type.
      *
@@ -49,6 +59,39 @@ abstract class ProtocolEncoder<T> {
      */
     abstract T encode(ProtocolMessage pm) throws ProtocolException;
 
+    void checkArguments(ProtocolMessage pm, ProtocolSigner signer) {
+        if (pm == null || signer == null) {
+            throw new IllegalArgumentException("message or signer null");
+        }
+    }
+
+    static void checkCapacity(int required, int available) throws ProtocolException {
+        if (required > available) {
+            throw new ProtocolException(String.format("target too small: %d bytes required, %d available", required, available));
+        }
+    }
+
+    /**
+     * Write all buffers to the channel, with a single gathering write if the channel supports it.
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer... buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= ((GatheringByteChannel) channel).write(buffers);
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
     void checkProtocolMessage(ProtocolMessage pm) throws ProtocolException {
         if (pm.getSignature() == null) {
             throw new ProtocolException("missing signature");
@@ -16,7 +16,6 @@
 
 package com.ubirch.protocol.codec;
 
-import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
@@ -30,16 +29,64 @@ public class UUIDUtil {
     }
 
     public static byte[] uuidToBytes(UUID uuid) {
-        ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
-        bb.putLong(uuid.getMostSignificantBits());
-        bb.putLong(uuid.getLeastSignificantBits());
-        return bb.array();
+        byte[] bytes = new byte[16];
+        uuidToBytes(uuid, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Write the 16 bytes of the uuid into the target array, big endian, without allocating.
+     *
+     * @param uuid   the uuid to write
+     * @param target the array to write to
+     * @param offset the offset in the target array
+     */
+    public static void uuidToBytes(UUID uuid, byte[] target, int offset) {
+        putLong(uuid.getMostSignificantBits(), target, offset);
+        putLong(uuid.getLeastSignificantBits(), target, offset + 8);
     }
 
     public static UUID bytesToUUID(byte[] bytes) {
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        long high = bb.getLong();
-        long low = bb.getLong();
-        return new UUID(high, low);
+        return bytesToUUID(bytes, 0);
+    }
+
+    /**
+     * Read a uuid from the 16 bytes at the offset of the array, big endian.
+     *
+     * @param bytes  the array to read from
+     * @param offset the offset in the array
+     * @return the uuid
+     */
+    public static UUID bytesToUUID(byte[] bytes, int offset) {
+        return new UUID(getLong(bytes, offset), getLong(bytes, offset + 8));
+    }
+
+    /**
+     * Read a big endian long from the 8 bytes at the offset of the array.
+     *
+     * @param data   the array to read from
+     * @param offset the offset in the array
+     * @return the value
+     */
+    public static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Write a long as 8 big endian bytes at the offset of the array.
+     *
+     * @param value  the value to write
+     * @param target the array to write to
+     * @param offset the offset in the array
+     */
+    public static void putLong(long value, byte[] target, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            target[offset + i] = (byte) value;
+            value >>>= 8;
+        }
     }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of index entries, each a 16 byte key and a record number relative to the segment base.
+ * The entries can be looked up by key through a hash table while they are added, and are sorted to write
+ * an {@link IndexFile}.
+ *
+ * @author Matthias L. Jugel
+ */
+final class IndexEntries {
+    long[] hi = new long[1024];
+    long[] lo = new long[1024];
+    int[] records = new int[1024];
+    int size;
+
+    // hash chains of entry index + 1, newest entry first
+    private int[] heads = new int[2048];
+    private int[] next = new int[1024];
+
+    void add(long keyHi, long keyLo, int record) {
+        if (size == hi.length) {
+            int capacity = size * 2;
+            hi = Arrays.copyOf(hi, capacity);
+            lo = Arrays.copyOf(lo, capacity);
+            records = Arrays.copyOf(records, capacity);
+            next = Arrays.copyOf(next, capacity);
+            heads = new int[capacity * 2];
+            for (int i = 0; i < size; i++) {
+                link(i);
+            }
+        }
+        hi[size] = keyHi;
+        lo[size] = keyLo;
+        records[size] = record;
+        link(size++);
+    }
+
+    private void link(int i) {
+        int bucket = (int) IndexFile.hash(hi[i], lo[i]) & (heads.length - 1);
+        next[i] = heads[bucket];
+        heads[bucket] = i + 1;
+    }
+
+    /**
+     * Find the entries with the key.
+     *
+     * @return the relative record numbers, in ascending order
+     */
+    int[] find(long keyHi, long keyLo) {
+        int[] found = new int[8];
+        int count = 0;
+        for (int i = heads[(int) IndexFile.hash(keyHi, keyLo) & (heads.length - 1)]; i != 0; i = next[i - 1]) {
+            if (hi[i - 1] == keyHi && lo[i - 1] == keyLo) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = records[i - 1];
+            }
+        }
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    void clear() {
+        size = 0;
+        Arrays.fill(heads, 0);
+    }
+
+    /**
+     * Sort the entries by key and record number. The hash table is not maintained, clear the entries after
+     * sorting.
+     */
+    void sort() {
+        sort(0, size - 1);
+    }
+
+    private int compare(int i, int j) {
+        int c = Long.compare(hi[i], hi[j]);
+        if (c == 0) {
+            c = Long.compare(lo[i], lo[j]);
+        }
+        return c != 0 ? c : Integer.compare(records[i], records[j]);
+    }
+
+    private void sort(int left, int right) {
+        while (right - left > 16) {
+            int middle = (left + right) >>> 1;
+            // median of three as pivot, moved to the right end
+            if (compare(middle, left) < 0) {
+                swap(middle, left);
+            }
+            if (compare(right, left) < 0) {
+                swap(right, left);
+            }
+            if (compare(middle, right) < 0) {
+                swap(middle, right);
+            }
+            int store = left;
+            for (int i = left; i < right; i++) {
+                if (compare(i, right) < 0) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, right);
+            // recurse into the smaller part to bound the stack depth
+            if (store - left < right - store) {
+                sort(left, store - 1);
+                left = store + 1;
+            } else {
+                sort(store + 1, right);
+                right = store - 1;
+            }
+        }
+        for (int i = left + 1; i <= right; i++) {
+            for (int j = i; j > left && compare(j, j - 1) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long h = hi[i];
+        hi[i] = hi[j];
+        hi[j] = h;
+        long l = lo[i];
+        lo[i] = lo[j];
+        lo[j] = l;
+        int r = records[i];
+        records[i] = records[j];
+        records[j] = r;
+    }
+}
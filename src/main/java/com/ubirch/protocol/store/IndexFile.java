@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An immutable, memory mapped index file of a log segment, mapping 16 byte keys to record numbers.
+ * <p>
+ * The file starts with a header (magic, version, segment base, entry count, bloom filter size and number of
+ * hash functions), followed by a bloom filter of about 10 bits per entry and the entries sorted by key and
+ * record number. Each entry is the key as two longs and the record number relative to the segment base.
+ * A lookup of a key that is not in the file is rejected by the bloom filter in about 99% of the cases,
+ * otherwise the entries are searched binary. The file is mapped while it is open, the mapping is released
+ * by the garbage collector.
+ *
+ * @author Matthias L. Jugel
+ */
+final class IndexFile {
+    private static final int MAGIC = 0x55504958; // "UPIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 20;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+    // a single mapping is limited to 2GB
+    private static final int CHUNK_SHIFT = 24;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final long base;
+    private final int count;
+    private final long bloomBits;
+    private final int bloomHashes;
+    private final MappedByteBuffer bloom;
+    private final MappedByteBuffer[] chunks;
+
+    private IndexFile(long base, int count, int bloomWords, int bloomHashes, MappedByteBuffer bloom,
+                      MappedByteBuffer[] chunks) {
+        this.base = base;
+        this.count = count;
+        this.bloomBits = bloomWords * 64L;
+        this.bloomHashes = bloomHashes;
+        this.bloom = bloom;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Write the entries to a new index file. The file is written under a temporary name and then moved,
+     * a crash never leaves an incomplete index file behind. The entries are sorted.
+     */
+    static void write(Path file, long base, IndexEntries entries) throws IOException {
+        entries.sort();
+        int bloomWords = (int) Math.max(1, ((long) entries.size * BLOOM_BITS_PER_ENTRY + 63) / 64);
+        long[] words = new long[bloomWords];
+        for (int i = 0; i < entries.size; i++) {
+            long h1 = hash(entries.hi[i], entries.lo[i]);
+            long h2 = mix(h1 ^ entries.lo[i]) | 1;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = Long.remainderUnsigned(h1 + k * h2, bloomWords * 64L);
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(channel), 1024 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(base);
+            out.writeInt(entries.size);
+            out.writeInt(bloomWords);
+            out.writeInt(BLOOM_HASHES);
+            out.writeInt(0);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            for (int i = 0; i < entries.size; i++) {
+                out.writeLong(entries.hi[i]);
+                out.writeLong(entries.lo[i]);
+                out.writeInt(entries.records[i]);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open an index file.
+     */
+    static IndexFile open(Path file, long base) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the complete header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != base) {
+                throw new IOException(String.format("not an index file: %s", file));
+            }
+            int count = header.getInt();
+            int bloomWords = header.getInt();
+            int bloomHashes = header.getInt();
+            long entriesStart = HEADER_SIZE + bloomWords * 8L;
+            if (count < 0 || bloomWords < 1 || channel.size() != entriesStart + (long) count * ENTRY_SIZE) {
+                throw new IOException(String.format("corrupt index file: %s", file));
+            }
+            MappedByteBuffer bloom = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, bloomWords * 8L);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(count + CHUNK_MASK) >>> CHUNK_SHIFT];
+            for (int i = 0; i < chunks.length; i++) {
+                long entries = Math.min(CHUNK_MASK + 1, count - ((long) i << CHUNK_SHIFT));
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        entriesStart + ((long) i << CHUNK_SHIFT) * ENTRY_SIZE, entries * ENTRY_SIZE);
+            }
+            return new IndexFile(base, count, bloomWords, bloomHashes, bloom, chunks);
+        }
+    }
+
+    long getBase() {
+        return base;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return false if the key is definitely not in the file
+     */
+    boolean mightContain(long keyHi, long keyLo) {
+        long h1 = hash(keyHi, keyLo);
+        long h2 = mix(h1 ^ keyLo) | 1;
+        for (int k = 0; k < bloomHashes; k++) {
+            long bit = Long.remainderUnsigned(h1 + k * h2, bloomBits);
+            if ((bloom.getLong((int) (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the entries with the key.
+     *
+     * @return the relative record numbers, in ascending order
+     */
+    int[] find(long keyHi, long keyLo) {
+        if (!mightContain(keyHi, keyLo)) {
+            return new int[0];
+        }
+        // the first entry not less than the key
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, keyHi, keyLo) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int end = low;
+        while (end < count && compare(end, keyHi, keyLo) == 0) {
+            end++;
+        }
+        int[] records = new int[end - low];
+        for (int i = low; i < end; i++) {
+            records[i - low] = chunks[i >>> CHUNK_SHIFT].getInt((i & CHUNK_MASK) * ENTRY_SIZE + 16);
+        }
+        return records;
+    }
+
+    private int compare(int i, long keyHi, long keyLo) {
+        MappedByteBuffer chunk = chunks[i >>> CHUNK_SHIFT];
+        int position = (i & CHUNK_MASK) * ENTRY_SIZE;
+        int c = Long.compare(chunk.getLong(position), keyHi);
+        return c != 0 ? c : Long.compare(chunk.getLong(position + 8), keyLo);
+    }
+
+    /**
+     * The hash of a key, used for the bloom filter and the hash table of {@link IndexEntries}. Keys are not
+     * necessarily random (uuids), so they are mixed.
+     */
+    static long hash(long keyHi, long keyLo) {
+        return mix(keyHi ^ mix(keyLo));
+    }
+
+    // the murmur3 64 bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
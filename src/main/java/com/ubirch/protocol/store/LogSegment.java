@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A segment file of a message log and its sparse index.
+ * <p>
+ * A segment file starts with a header (magic, version, number of the first record) followed by the records,
+ * each prefixed with its length and the CRC32 checksum of its data. The index file contains pairs of the record
+ * number relative to the segment and the record position in the segment file, one pair per
+ * {@link #INDEX_INTERVAL} bytes of records. The index is only a hint, a reader scans forward from the closest
+ * entry, so an index that is behind the segment is still valid.
+ *
+ * @author Matthias L. Jugel
+ */
+final class LogSegment implements Closeable {
+    static final int MAGIC = 0x5550504C; // "UPPL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int INDEX_INTERVAL = 4096;
+    static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final long base;
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+    private final ByteBuffer writeBuffer;
+    private final CRC32 crc = new CRC32();
+
+    // sparse index: relative record number and position
+    private int[] indexRecords = new int[64];
+    private int[] indexPositions = new int[64];
+    private int indexSize;
+    private int indexWritten;
+
+    private long written;
+    private int records;
+
+    private LogSegment(long base, FileChannel channel, FileChannel indexChannel, boolean writable) {
+        this.base = base;
+        this.channel = channel;
+        this.indexChannel = indexChannel;
+        this.writeBuffer = writable ? ByteBuffer.allocate(WRITE_BUFFER_SIZE) : null;
+    }
+
+    static Path logFile(Path dir, long base) {
+        return dir.resolve(String.format("%020d.log", base));
+    }
+
+    static Path indexFile(Path dir, long base) {
+        return dir.resolve(String.format("%020d.idx", base));
+    }
+
+    /**
+     * @return the first record numbers of the segments in the directory, in ascending order
+     */
+    static List<Long> list(Path dir) throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(bases);
+        return bases;
+    }
+
+    /**
+     * Create a new, empty segment for writing.
+     */
+    static LogSegment create(Path dir, long base) throws IOException {
+        FileChannel channel = FileChannel.open(logFile(dir, base),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel = FileChannel.open(indexFile(dir, base),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        writeHeader(channel, base);
+        LogSegment segment = new LogSegment(base, channel, indexChannel, true);
+        segment.written = HEADER_SIZE;
+        return segment;
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(base);
+        header.flip();
+        write(channel, header, 0);
+    }
+
+    /**
+     * Open the last segment of a log for writing. The segment is scanned, a partially written record at its
+     * end is removed and the index is rebuilt. A segment shorter than its header was created right before a
+     * crash and cannot contain any records, its header is written again.
+     */
+    static LogSegment recover(Path dir, long base) throws IOException {
+        FileChannel channel = FileChannel.open(logFile(dir, base), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel = FileChannel.open(indexFile(dir, base),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(base, channel, indexChannel, true);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0);
+                writeHeader(channel, base);
+                channel.force(false);
+            }
+            segment.checkHeader();
+            Reader reader = segment.reader(0, HEADER_SIZE);
+            long position = HEADER_SIZE;
+            while (reader.next() != null) {
+                segment.addIndex(segment.records++, position);
+                position = reader.position;
+            }
+            segment.written = position;
+            channel.truncate(position);
+            segment.writeIndex();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            segment.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a segment for reading, loading the index written so far.
+     */
+    static LogSegment read(Path dir, long base) throws IOException {
+        FileChannel channel = FileChannel.open(logFile(dir, base), StandardOpenOption.READ);
+        LogSegment segment = new LogSegment(base, channel, null, false);
+        try {
+            segment.checkHeader();
+            segment.loadIndex(dir);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            segment.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Load the index entries written so far, replacing the entries loaded before.
+     */
+    void loadIndex(Path dir) throws IOException {
+        Path index = indexFile(dir, base);
+        indexSize = 0;
+        if (Files.exists(index)) {
+            ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(index));
+            while (entries.remaining() >= 8) {
+                addIndexEntry(entries.getInt(), entries.getInt());
+            }
+        }
+    }
+
+    private void checkHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        read(channel, header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getLong() != base) {
+            throw new IOException(String.format("not a log segment: %020d", base));
+        }
+    }
+
+    long getBase() {
+        return base;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the size of the segment, including buffered records
+     */
+    long size() {
+        return written + writeBuffer.position();
+    }
+
+    /**
+     * Append a record.
+     *
+     * @return the number of the record, relative to the segment
+     */
+    int append(byte[] data, int offset, int length) throws IOException {
+        if (writeBuffer.remaining() < RECORD_HEADER_SIZE + length) {
+            flush();
+        }
+        addIndex(records, size());
+        crc.reset();
+        crc.update(data, offset, length);
+        if (writeBuffer.remaining() < RECORD_HEADER_SIZE + length) {
+            // larger than the buffer, write directly
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+            record.putInt(length).putInt((int) crc.getValue()).put(data, offset, length).flip();
+            written += write(channel, record, written);
+        } else {
+            writeBuffer.putInt(length).putInt((int) crc.getValue()).put(data, offset, length);
+        }
+        return records++;
+    }
+
+    /**
+     * Write the buffered records to the file, without forcing them to the storage device.
+     */
+    void flush() throws IOException {
+        writeBuffer.flip();
+        written += write(channel, writeBuffer, written);
+        writeBuffer.clear();
+    }
+
+    /**
+     * Write new index entries to the index file.
+     */
+    void writeIndex() throws IOException {
+        if (indexWritten == indexSize) {
+            return;
+        }
+        ByteBuffer entries = ByteBuffer.allocate((indexSize - indexWritten) * 8);
+        for (int i = indexWritten; i < indexSize; i++) {
+            entries.putInt(indexRecords[i]).putInt(indexPositions[i]);
+        }
+        entries.flip();
+        write(indexChannel, entries, indexWritten * 8L);
+        indexWritten = indexSize;
+    }
+
+    /**
+     * Force the written records to the storage device.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    private void addIndex(int record, long position) {
+        if (indexSize == 0 || position - indexPositions[indexSize - 1] >= INDEX_INTERVAL) {
+            addIndexEntry(record, (int) position);
+        }
+    }
+
+    private void addIndexEntry(int record, int position) {
+        if (indexSize == indexRecords.length) {
+            indexRecords = Arrays.copyOf(indexRecords, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+        }
+        indexRecords[indexSize] = record;
+        indexPositions[indexSize] = position;
+        indexSize++;
+    }
+
+    /**
+     * Create a reader positioned at the closest indexed record at or before the record.
+     *
+     * @param record the relative record number to read
+     * @return a reader whose next record is at or before the record, see {@link Reader#getRecord()}
+     */
+    Reader seek(int record) {
+        int i = Arrays.binarySearch(indexRecords, 0, indexSize, record);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i < 0 ? reader(0, HEADER_SIZE) : reader(indexRecords[i], indexPositions[i]);
+    }
+
+    Reader reader(int record, long position) {
+        return new Reader(record, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        }
+    }
+
+    private static int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int n = 0;
+        while (buffer.hasRemaining()) {
+            n += channel.write(buffer, position + n);
+        }
+        return n;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, p);
+            if (n < 0) {
+                return;
+            }
+            p += n;
+        }
+    }
+
+    /**
+     * Reads the records of the segment sequentially, with positional reads of the file in large chunks.
+     * A reader stops at the first incomplete or corrupt record, which is the end of the records written so far.
+     */
+    final class Reader {
+        // starts small for point reads and grows for sequential reads
+        private ByteBuffer buffer = ByteBuffer.allocate(INDEX_INTERVAL * 2);
+        private final CRC32 checksum = new CRC32();
+        private long bufferPosition;
+        private long position;
+        private int record;
+
+        private Reader(int record, long position) {
+            this.record = record;
+            this.position = position;
+            this.bufferPosition = position;
+            buffer.flip();
+        }
+
+        /**
+         * @return the relative number of the next record
+         */
+        int getRecord() {
+            return record;
+        }
+
+        /**
+         * @return the position of the next record
+         */
+        long getPosition() {
+            return position;
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return the data of the record or null if there is no complete, valid record
+         */
+        byte[] next() throws IOException {
+            if (!fill(RECORD_HEADER_SIZE)) {
+                return null;
+            }
+            int start = (int) (position - bufferPosition);
+            int length = buffer.getInt(start);
+            int expected = buffer.getInt(start + 4);
+            if (length < 0 || length > MAX_RECORD_SIZE || !fill(RECORD_HEADER_SIZE + length)) {
+                return null;
+            }
+            start = (int) (position - bufferPosition);
+            byte[] data = new byte[length];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(start + RECORD_HEADER_SIZE);
+            slice.get(data);
+            checksum.reset();
+            checksum.update(data, 0, length);
+            if ((int) checksum.getValue() != expected) {
+                return null;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            record++;
+            return data;
+        }
+
+        /**
+         * Make sure the buffer contains n bytes at the current position.
+         */
+        private boolean fill(int n) throws IOException {
+            if (position - bufferPosition + n <= buffer.limit()) {
+                return true;
+            }
+            if (buffer.capacity() < n) {
+                buffer = ByteBuffer.allocate(Integer.highestOneBit(n) << 1);
+            } else if (buffer.capacity() < READ_BUFFER_SIZE) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+            buffer.clear();
+            bufferPosition = position;
+            LogSegment.read(channel, buffer, position);
+            buffer.flip();
+            return buffer.limit() >= n;
+        }
+    }
+}
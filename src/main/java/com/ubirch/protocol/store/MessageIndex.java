@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.codec.MsgPackProtocolView;
+import com.ubirch.protocol.codec.UUIDUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Secondary indexes of the messages in a message log, to find messages by uuid, by signature and by the
+ * payload of hash-style messages, without scanning the log.
+ * <p>
+ * The segments of the log, except for the last one that is still written, are indexed in immutable index files
+ * next to the segment files ({@code .uuid}, {@code .signature} and {@code .payload}). Each file contains the
+ * entries sorted by key and a bloom filter, so a lookup checks the bloom filter of each segment and only
+ * searches the few files that may contain the key. The messages of the last segment are indexed in memory, and
+ * written to index files when the segment has been rolled. Call {@link #update()} to index new messages.
+ * <p>
+ * The indexes use 16 byte keys: the uuid, the first 16 bytes of the signature and the first 16 bytes of the
+ * payload. Signatures and payloads found in the index are compared with the stored message, so only exact
+ * matches are returned. Only binary payloads of 16 to 64 bytes are indexed. Messages that are not msgpack
+ * protocol messages are not indexed.
+ * <p>
+ * An index is thread safe, lookups and updates are serialized.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MessageIndex implements Closeable {
+    static final int MIN_PAYLOAD_SIZE = 16;
+    static final int MAX_PAYLOAD_SIZE = 64;
+
+    private final Path dir;
+    private final MessageLogReader reader;
+    private final MsgPackProtocolView view = new MsgPackProtocolView();
+    private final Index uuids = new Index("uuid");
+    private final Index signatures = new Index("signature");
+    private final Index payloads = new Index("payload");
+
+    // the base of the segment indexed in memory and the next record to index
+    private long tailBase;
+    private long tailRecord;
+    private MessageLogReader.Cursor cursor;
+
+    private MessageIndex(Path dir) throws IOException {
+        this.dir = dir;
+        this.reader = MessageLogReader.open(dir);
+    }
+
+    /**
+     * Open the indexes of a message log and index the messages not indexed yet. Missing index files are
+     * created, which requires a scan of the segments.
+     *
+     * @param dir the directory of the log
+     * @return the index
+     * @throws IOException if reading the log or writing an index file fails
+     */
+    public static MessageIndex open(Path dir) throws IOException {
+        MessageIndex index = new MessageIndex(dir);
+        try {
+            index.update();
+            return index;
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Index the messages appended since the last update. If segments have been rolled, their index files are
+     * written.
+     *
+     * @throws IOException if reading the log or writing an index file fails
+     */
+    public synchronized void update() throws IOException {
+        List<Long> bases = LogSegment.list(dir);
+        for (int i = 0; i < bases.size(); i++) {
+            long base = bases.get(i);
+            if (base < tailBase) {
+                continue;
+            }
+            boolean sealed = i < bases.size() - 1;
+            long end = sealed ? bases.get(i + 1) : Long.MAX_VALUE;
+            if (sealed && tailRecord == base && uuids.exists(base) && signatures.exists(base) && payloads.exists(base)) {
+                load(base);
+                tailBase = tailRecord = end;
+                cursor = null;
+                continue;
+            }
+            if (cursor == null) {
+                cursor = reader.cursor(tailRecord);
+            }
+            byte[] message;
+            while (tailRecord < end && (message = cursor.next()) != null) {
+                add(message, (int) (tailRecord - base));
+                tailRecord++;
+            }
+            if (sealed) {
+                if (tailRecord != end) {
+                    throw new IOException(String.format("corrupt record %d in segment %020d", tailRecord, base));
+                }
+                uuids.write(base);
+                signatures.write(base);
+                payloads.write(base);
+                load(base);
+                tailBase = end;
+            }
+        }
+    }
+
+    private void add(byte[] message, int record) {
+        try {
+            view.wrap(message);
+        } catch (ProtocolException e) {
+            return;
+        }
+        uuids.tail.add(view.getUUIDMostSignificantBits(), view.getUUIDLeastSignificantBits(), record);
+        signatures.tail.add(getLong(message, view.getSignatureOffset(), view.getSignatureLength()),
+                getLong(message, view.getSignatureOffset() + 8, view.getSignatureLength() - 8), record);
+        int length = payloadLength(view);
+        if (length >= MIN_PAYLOAD_SIZE && length <= MAX_PAYLOAD_SIZE) {
+            int offset = view.getPayloadOffset() + view.getPayloadLength() - length;
+            payloads.tail.add(getLong(message, offset, length), getLong(message, offset + 8, length - 8), record);
+        }
+    }
+
+    private void load(long base) throws IOException {
+        uuids.load(base);
+        signatures.load(base);
+        payloads.load(base);
+    }
+
+    /**
+     * Find the messages of a uuid.
+     *
+     * @param uuid the uuid
+     * @return the record numbers of the messages, in ascending order
+     */
+    public synchronized long[] findByUUID(UUID uuid) {
+        return uuids.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Find the messages with a signature.
+     *
+     * @param signature the signature
+     * @return the record numbers of the messages, in ascending order
+     * @throws IOException if reading a message fails
+     */
+    public synchronized long[] findBySignature(byte[] signature) throws IOException {
+        long[] candidates = signatures.find(getLong(signature, 0, signature.length),
+                getLong(signature, 8, signature.length - 8));
+        int found = 0;
+        for (long record : candidates) {
+            byte[] message = reader.read(record);
+            if (message != null && wrap(message)
+                    && regionEquals(signature, message, view.getSignatureOffset(), view.getSignatureLength())) {
+                candidates[found++] = record;
+            }
+        }
+        return Arrays.copyOf(candidates, found);
+    }
+
+    /**
+     * Find the messages with a binary payload, e.g. the hash of the anchored data.
+     *
+     * @param payload the payload data, without the msgpack header
+     * @return the record numbers of the messages, in ascending order
+     * @throws IOException if reading a message fails
+     */
+    public synchronized long[] findByPayload(byte[] payload) throws IOException {
+        if (payload.length < MIN_PAYLOAD_SIZE || payload.length > MAX_PAYLOAD_SIZE) {
+            return new long[0];
+        }
+        long[] candidates = payloads.find(getLong(payload, 0, payload.length), getLong(payload, 8, payload.length - 8));
+        int found = 0;
+        for (long record : candidates) {
+            byte[] message = reader.read(record);
+            if (message != null && wrap(message)) {
+                int length = payloadLength(view);
+                if (regionEquals(payload, message, view.getPayloadOffset() + view.getPayloadLength() - length, length)) {
+                    candidates[found++] = record;
+                }
+            }
+        }
+        return Arrays.copyOf(candidates, found);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean wrap(byte[] message) {
+        try {
+            view.wrap(message);
+            return true;
+        } catch (ProtocolException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the length of the data of a binary or raw string payload, -1 for other payloads
+     */
+    private static int payloadLength(MsgPackProtocolView view) {
+        byte[] buffer = view.getBuffer();
+        int offset = view.getPayloadOffset();
+        int type = buffer[offset] & 0xFF;
+        int length;
+        if (type == 0xC4 || type == 0xD9) {
+            length = buffer[offset + 1] & 0xFF;
+        } else if (type == 0xC5 || type == 0xDA) {
+            length = (buffer[offset + 1] & 0xFF) << 8 | buffer[offset + 2] & 0xFF;
+        } else if ((type & 0xE0) == 0xA0) {
+            length = type & 0x1F;
+        } else {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Read up to 8 bytes as a big endian long, missing bytes are zero.
+     */
+    private static long getLong(byte[] data, int offset, int length) {
+        if (length >= 8) {
+            return UUIDUtil.getLong(data, offset);
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (i < length ? data[offset + i] & 0xFF : 0);
+        }
+        return value;
+    }
+
+    private static boolean regionEquals(byte[] expected, byte[] data, int offset, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One of the indexes, with the files of the rolled segments and the entries of the last segment.
+     */
+    private final class Index {
+        private final String suffix;
+        private final List<IndexFile> files = new ArrayList<>();
+        private final IndexEntries tail = new IndexEntries();
+
+        Index(String suffix) {
+            this.suffix = suffix;
+        }
+
+        private Path file(long base) {
+            return dir.resolve(String.format("%020d.%s", base, suffix));
+        }
+
+        boolean exists(long base) {
+            return Files.exists(file(base));
+        }
+
+        void write(long base) throws IOException {
+            IndexFile.write(file(base), base, tail);
+            tail.clear();
+        }
+
+        void load(long base) throws IOException {
+            files.add(IndexFile.open(file(base), base));
+        }
+
+        long[] find(long keyHi, long keyLo) {
+            long[] found = new long[0];
+            for (IndexFile file : files) {
+                found = append(found, file.getBase(), file.find(keyHi, keyLo));
+            }
+            return append(found, tailBase, tail.find(keyHi, keyLo));
+        }
+
+        private long[] append(long[] found, long base, int[] records) {
+            if (records.length == 0) {
+                return found;
+            }
+            long[] result = Arrays.copyOf(found, found.length + records.length);
+            for (int i = 0; i < records.length; i++) {
+                result[found.length + i] = base + records[i];
+            }
+            return result;
+        }
+    }
+}
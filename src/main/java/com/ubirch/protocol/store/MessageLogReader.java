@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the messages of a message log written by a {@link MessageLogWriter}, sequentially with a {@link Cursor}
+ * or by record number. Reading sees the records the writer has written to the segment files so far, including
+ * records that have not been synced. A reader is not thread safe.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MessageLogReader implements Closeable {
+    private final Path dir;
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<>();
+
+    private MessageLogReader(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Open a message log for reading.
+     *
+     * @param dir the directory of the log
+     * @return a new reader
+     * @throws IOException if the log can't be read
+     */
+    public static MessageLogReader open(Path dir) throws IOException {
+        MessageLogReader reader = new MessageLogReader(dir);
+        reader.refresh();
+        return reader;
+    }
+
+    /**
+     * Read a single message. The closest indexed record is looked up in the sparse index of the segment and
+     * the segment is scanned from there.
+     *
+     * @param record the record number
+     * @return the message or null if there is no such record
+     * @throws IOException if reading fails
+     */
+    public byte[] read(long record) throws IOException {
+        Cursor cursor = cursor(record);
+        return cursor.next();
+    }
+
+    /**
+     * Create a cursor to read the messages in order, starting with the record.
+     *
+     * @param record the record number of the first message to read
+     * @return a new cursor
+     * @throws IOException if reading fails
+     */
+    public Cursor cursor(long record) throws IOException {
+        Cursor cursor = open(record);
+        if (cursor.getRecord() != record) {
+            // the record may be in a segment created after opening
+            refresh();
+            cursor = open(record);
+        }
+        return cursor;
+    }
+
+    private Cursor open(long record) throws IOException {
+        Cursor cursor = new Cursor();
+        Map.Entry<Long, LogSegment> segment = segments.floorEntry(record);
+        if (segment != null) {
+            cursor.open(segment.getValue(), record);
+        }
+        return cursor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        segments.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Open segments that have been created since the last refresh and reload the index of the last segment,
+     * as it may have grown. Open segments are kept, cursors may still read them.
+     */
+    private void refresh() throws IOException {
+        Long last = segments.isEmpty() ? null : segments.lastKey();
+        if (last != null) {
+            segments.get(last).loadIndex(dir);
+        }
+        for (long base : LogSegment.list(dir)) {
+            if (last == null || base > last) {
+                segments.put(base, LogSegment.read(dir, base));
+            }
+        }
+    }
+
+    /**
+     * Reads messages in order, moving from segment to segment.
+     */
+    public final class Cursor {
+        private LogSegment.Reader reader;
+        private long base;
+        private long record = -1;
+
+        private Cursor() {
+        }
+
+        private void open(LogSegment segment, long record) throws IOException {
+            base = segment.getBase();
+            reader = segment.seek((int) (record - base));
+            while (base + reader.getRecord() < record && reader.next() != null) {
+                // skip to the record
+            }
+            this.record = base + reader.getRecord();
+        }
+
+        /**
+         * @return the record number of the next message
+         */
+        public long getRecord() {
+            return record;
+        }
+
+        /**
+         * Read the next message.
+         *
+         * @return the message or null if there are no more messages, more messages may be appended later
+         * @throws IOException if reading fails or a segment, other than the last, is corrupt
+         */
+        public byte[] next() throws IOException {
+            if (reader == null) {
+                return null;
+            }
+            byte[] message = reader.next();
+            if (message == null) {
+                Map.Entry<Long, LogSegment> next = segments.higherEntry(base);
+                if (next == null) {
+                    refresh();
+                    next = segments.higherEntry(base);
+                }
+                if (next == null || next.getKey() != base + reader.getRecord()) {
+                    if (next != null) {
+                        throw new IOException(String.format("corrupt record %d in segment %020d", base + reader.getRecord(), base));
+                    }
+                    return null;
+                }
+                open(next.getValue(), next.getKey());
+                message = reader.next();
+                if (message == null) {
+                    return null;
+                }
+            }
+            record = base + reader.getRecord();
+            return message;
+        }
+    }
+}
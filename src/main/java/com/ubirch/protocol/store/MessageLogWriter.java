@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Appends messages, i.e. the raw values returned by {@code Protocol.encodeSign()}, to a message log.
+ * <p>
+ * A message log is a directory of segment files. Each message is stored as a record with its length and
+ * checksum and gets a record number, starting with 0 and counting up over all segments. When a segment
+ * reaches its maximum size, a new segment is started. Records are buffered and written to the segment file
+ * in large blocks.
+ * <p>
+ * Appending does not wait for the storage device. {@link #sync(long)} makes a record durable, and all records
+ * appended before it. Threads calling sync at the same time share a single {@link java.nio.channels.FileChannel#force(boolean)},
+ * while other threads continue to append (group commit). With {@code syncInterval} the writer syncs on its own
+ * every n records. After a crash, records that have not been synced may be lost, a partially written record at
+ * the end of the log is removed when the log is opened again.
+ *
+ * @author Matthias L. Jugel
+ */
+public class MessageLogWriter implements Closeable {
+    /**
+     * the default maximum segment size
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    private final Path dir;
+    private final long segmentSize;
+    private final int syncInterval;
+    private final Object syncLock = new Object();
+
+    private LogSegment active;
+    private long nextRecord;
+    private int unsynced;
+    // all records before this one are durable
+    private volatile long durableRecord;
+
+    private MessageLogWriter(Path dir, long segmentSize, int syncInterval, LogSegment active) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncInterval = syncInterval;
+        this.active = active;
+        this.nextRecord = active.getBase() + active.getRecords();
+        this.durableRecord = nextRecord;
+    }
+
+    /**
+     * Open a message log for appending with the default segment size, syncing only when requested.
+     *
+     * @param dir the directory of the log, created if it does not exist
+     * @return a new writer
+     * @throws IOException if the log can't be opened
+     */
+    public static MessageLogWriter open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_SIZE, 0);
+    }
+
+    /**
+     * Open a message log for appending. Only a single writer must append to a log at any time.
+     *
+     * @param dir          the directory of the log, created if it does not exist
+     * @param segmentSize  the maximum size of a segment file
+     * @param syncInterval sync after this number of records, 0 to sync only when requested
+     * @return a new writer
+     * @throws IOException if the log can't be opened
+     */
+    public static MessageLogWriter open(Path dir, long segmentSize, int syncInterval) throws IOException {
+        if (segmentSize <= LogSegment.HEADER_SIZE || segmentSize > Integer.MAX_VALUE || syncInterval < 0) {
+            throw new IllegalArgumentException("segment size must be within (16, 2GB], sync interval must not be negative");
+        }
+        Files.createDirectories(dir);
+        List<Long> segments = LogSegment.list(dir);
+        LogSegment active = segments.isEmpty()
+                ? LogSegment.create(dir, 0)
+                : LogSegment.recover(dir, segments.get(segments.size() - 1));
+        return new MessageLogWriter(dir, segmentSize, syncInterval, active);
+    }
+
+    /**
+     * Append a message.
+     *
+     * @param message the message
+     * @return the record number of the message
+     * @throws IOException if writing fails
+     */
+    public long append(byte[] message) throws IOException {
+        return append(message, 0, message.length);
+    }
+
+    /**
+     * Append a message.
+     *
+     * @param data   the buffer containing the message
+     * @param offset the offset of the message
+     * @param length the length of the message
+     * @return the record number of the message
+     * @throws IOException if writing fails
+     */
+    public long append(byte[] data, int offset, int length) throws IOException {
+        if (length > LogSegment.MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException(String.format("message exceeds %d bytes", LogSegment.MAX_RECORD_SIZE));
+        }
+        long record;
+        synchronized (this) {
+            if (active.getRecords() > 0 && active.size() + LogSegment.RECORD_HEADER_SIZE + length > segmentSize) {
+                roll();
+            }
+            active.append(data, offset, length);
+            record = nextRecord++;
+            unsynced++;
+        }
+        if (syncInterval > 0 && unsynced >= syncInterval) {
+            sync(record);
+        }
+        return record;
+    }
+
+    /**
+     * Make all appended records durable.
+     *
+     * @throws IOException if writing fails
+     */
+    public void sync() throws IOException {
+        long record;
+        synchronized (this) {
+            record = nextRecord - 1;
+        }
+        sync(record);
+    }
+
+    /**
+     * Make the record and all records before it durable. If another thread is syncing, the call waits for it
+     * and only syncs again if the record has not been covered.
+     *
+     * @param record the record number
+     * @throws IOException if writing fails
+     */
+    public void sync(long record) throws IOException {
+        if (record < durableRecord) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (record < durableRecord) {
+                return;
+            }
+            LogSegment segment;
+            long target;
+            synchronized (this) {
+                segment = active;
+                segment.flush();
+                segment.writeIndex();
+                target = nextRecord;
+                unsynced = 0;
+            }
+            try {
+                segment.force();
+            } catch (ClosedChannelException e) {
+                // the segment has been rolled and forced in the meantime
+            }
+            advanceDurableRecord(target);
+        }
+    }
+
+    /**
+     * @return the record number of the next message
+     */
+    public synchronized long getNextRecord() {
+        return nextRecord;
+    }
+
+    /**
+     * @return the directory of the log
+     */
+    public Path getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Sync and close the log.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (this) {
+            active.close();
+        }
+    }
+
+    private void roll() throws IOException {
+        active.flush();
+        active.writeIndex();
+        active.force();
+        active.close();
+        active = LogSegment.create(dir, nextRecord);
+        advanceDurableRecord(nextRecord);
+        unsynced = 0;
+    }
+
+    private synchronized void advanceDurableRecord(long record) {
+        if (durableRecord < record) {
+            durableRecord = record;
+        }
+    }
+}
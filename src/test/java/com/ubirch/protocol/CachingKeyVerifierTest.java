@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link CachingKeyVerifier}.
+ *
+ * @author Matthias L. Jugel
+ */
+class CachingKeyVerifierTest extends ProtocolFixtures {
+
+    private static class TestVerifier extends CachingKeyVerifier<String> {
+        TestVerifier(KeyResolver<String> resolver, int maxSize, Executor executor, AtomicLong clock) {
+            super(resolver, maxSize, 10, 20, TimeUnit.NANOSECONDS, executor, clock::get);
+        }
+
+        @Override
+        protected boolean verify(String key, byte[] data, int offset, int len, byte[] signature) {
+            return key.equals(new String(data, offset, len));
+        }
+    }
+
+    @Test
+    void testKeyIsCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        TestVerifier verifier = new TestVerifier(uuid -> {
+            calls.incrementAndGet();
+            return uuid.toString();
+        }, 10, Runnable::run, new AtomicLong());
+
+        byte[] data = testUUID.toString().getBytes();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(verifier.verify(testUUID, data, 0, data.length, new byte[64]));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, verifier.size());
+    }
+
+    @Test
+    void testConcurrentLookupsAreCoalesced() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TestVerifier verifier = new TestVerifier(uuid -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InvalidKeyException(e);
+            }
+            return uuid.toString();
+        }, 10, Runnable::run, new AtomicLong());
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> keys = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                keys.add(pool.submit(() -> verifier.getKey(testUUID)));
+            }
+            // give all lookups a chance to queue up behind the first one
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> key : keys) {
+                assertEquals(testUUID.toString(), key.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testRefreshAndExpiry() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong clock = new AtomicLong();
+        List<Runnable> refreshes = new ArrayList<>();
+        TestVerifier verifier = new TestVerifier(uuid -> "key-" + calls.incrementAndGet(), 10, refreshes::add, clock);
+
+        assertEquals("key-1", verifier.getKey(testUUID));
+
+        // stale keys are still used while the refresh is pending
+        clock.set(10);
+        assertEquals("key-1", verifier.getKey(testUUID));
+        assertEquals("key-1", verifier.getKey(testUUID));
+        assertEquals(1, refreshes.size());
+        refreshes.get(0).run();
+        assertEquals("key-2", verifier.getKey(testUUID));
+
+        // expired keys are resolved again by the caller
+        clock.set(40);
+        assertEquals("key-3", verifier.getKey(testUUID));
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    void testRejectedRefreshIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong clock = new AtomicLong();
+        List<Runnable> refreshes = new ArrayList<>();
+        AtomicInteger rejections = new AtomicInteger(1);
+        TestVerifier verifier = new TestVerifier(uuid -> "key-" + calls.incrementAndGet(), 10, command -> {
+            if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException("saturated");
+            }
+            refreshes.add(command);
+        }, clock);
+
+        assertEquals("key-1", verifier.getKey(testUUID));
+        clock.set(10);
+        // the rejected refresh keeps the stale key, the next lookup submits the refresh again
+        assertEquals("key-1", verifier.getKey(testUUID));
+        assertEquals("key-1", verifier.getKey(testUUID));
+        assertEquals(1, refreshes.size());
+        refreshes.get(0).run();
+        assertEquals("key-2", verifier.getKey(testUUID));
+    }
+
+    @Test
+    void testFailedRefreshIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong clock = new AtomicLong();
+        List<Runnable> refreshes = new ArrayList<>();
+        TestVerifier verifier = new TestVerifier(uuid -> {
+            if (calls.incrementAndGet() == 2) {
+                throw new StackOverflowError();
+            }
+            return "key-" + calls.get();
+        }, 10, refreshes::add, clock);
+
+        assertEquals("key-1", verifier.getKey(testUUID));
+        clock.set(10);
+        assertEquals("key-1", verifier.getKey(testUUID));
+        assertThrows(StackOverflowError.class, () -> refreshes.get(0).run());
+        // the stale key is kept and refreshed again
+        assertEquals("key-1", verifier.getKey(testUUID));
+        assertEquals(2, refreshes.size());
+        refreshes.get(1).run();
+        assertEquals("key-3", verifier.getKey(testUUID));
+    }
+
+    @Test
+    void testUnknownAndFailedKeysAreNotCached() {
+        AtomicInteger calls = new AtomicInteger();
+        UUID unknown = new UUID(0, 0);
+        TestVerifier verifier = new TestVerifier(uuid -> {
+            calls.incrementAndGet();
+            if (uuid.equals(unknown)) return null;
+            throw new InvalidKeyException("key service unavailable");
+        }, 10, Runnable::run, new AtomicLong());
+
+        byte[] data = new byte[1];
+        assertThrows(InvalidKeyException.class, () -> verifier.verify(unknown, data, 0, 1, new byte[64]));
+        assertThrows(InvalidKeyException.class, () -> verifier.verify(unknown, data, 0, 1, new byte[64]));
+        assertThrows(InvalidKeyException.class, () -> verifier.getKey(testUUID));
+        assertEquals(3, calls.get());
+        assertEquals(0, verifier.size());
+    }
+
+    @Test
+    void testResolverErrorReleasesWaiters() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TestVerifier verifier = new TestVerifier(uuid -> {
+            if (calls.incrementAndGet() == 1) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InvalidKeyException(e);
+                }
+                throw new StackOverflowError();
+            }
+            return uuid.toString();
+        }, 10, Runnable::run, new AtomicLong());
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> loader = pool.submit(() -> verifier.getKey(testUUID));
+            Thread.sleep(100);
+            Future<String> waiter = pool.submit(() -> verifier.getKey(testUUID));
+            Thread.sleep(100);
+            release.countDown();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> loader.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof StackOverflowError);
+            e = assertThrows(ExecutionException.class, () -> waiter.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof InvalidKeyException);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, verifier.size());
+        assertEquals(testUUID.toString(), verifier.getKey(testUUID));
+    }
+
+    @Test
+    void testLeastRecentlyUsedKeyIsEvicted() throws InvalidKeyException {
+        AtomicInteger calls = new AtomicInteger();
+        TestVerifier verifier = new TestVerifier(uuid -> {
+            calls.incrementAndGet();
+            return uuid.toString();
+        }, 2, Runnable::run, new AtomicLong());
+
+        UUID a = new UUID(0, 1), b = new UUID(0, 2), c = new UUID(0, 3);
+        verifier.getKey(a);
+        verifier.getKey(b);
+        verifier.getKey(a);
+        verifier.getKey(c);
+        assertEquals(2, verifier.size());
+        verifier.getKey(a);
+        assertEquals(3, calls.get());
+        verifier.getKey(b);
+        assertEquals(4, calls.get());
+    }
+}
@@ -114,7 +114,7 @@ public class ProtocolFixtures {
         private MessageDigest sha512;
         private Map<UUID, byte[]> signatures = new HashMap<>();
 
-        TestProtocol() throws NoSuchAlgorithmException, InvalidKeyException {
+        public TestProtocol() throws NoSuchAlgorithmException, InvalidKeyException {
             super();
             privateKey = GeneratorKeyFactory.getPrivKey(EdDSAKeyPrivatePart, Curve.Ed25519);
             publicKey = GeneratorKeyFactory.getPubKey(EdDSAKeyPublicPart, Curve.Ed25519);
@@ -175,4 +175,34 @@ public class ProtocolFixtures {
             return signatures.getOrDefault(uuid, zeroSignature);
         }
     }
+
+    /**
+     * The {@link TestProtocol} signing and verifying the digests computed by the codecs.
+     */
+    protected class DigestTestProtocol extends TestProtocol implements DigestSigner, DigestVerifier {
+        public DigestTestProtocol() throws NoSuchAlgorithmException, InvalidKeyException {
+            super();
+        }
+
+        @Override
+        public String getDigestAlgorithm() {
+            return "SHA-512";
+        }
+
+        @Override
+        public byte[] signDigest(UUID uuid, byte[] digest) throws InvalidKeyException, SignatureException {
+            byte[] signature = super.privateKey.sign(digest);
+            super.signatures.put(uuid, signature);
+            return signature;
+        }
+
+        @Override
+        public boolean verifyDigest(UUID uuid, byte[] digest, byte[] signature) throws SignatureException, InvalidKeyException {
+            try {
+                return super.publicKey.verify(digest, signature);
+            } catch (NoSuchAlgorithmException | IOException e) {
+                throw new SignatureException(e);
+            }
+        }
+    }
 }
@@ -154,4 +154,14 @@ class ProtocolMessageTest extends ProtocolFixtures {
         assertNull(pm.signed);
     }
 
+    @Test
+    void testToStringDoesNotDecodeRawPayload() {
+        ProtocolMessage pm = new ProtocolMessage();
+        pm.setRawPayload(new byte[]{0x00, (byte) 0xc1, 0x00}, 1, 1, (data, offset, length) -> {
+            throw new IOException("corrupt payload");
+        });
+        assertTrue(pm.toString().contains(",raw=wQ=="), pm.toString());
+        assertThrows(IllegalStateException.class, pm::getPayload);
+    }
+
 }
@@ -25,10 +25,27 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.ubirch.protocol.ProtocolMessage.CHAINED;
 import static com.ubirch.protocol.ProtocolMessage.SIGNED;
@@ -64,6 +81,59 @@ public class ProtocolTest extends ProtocolFixtures {
         assertArrayEquals(expectedSignedMessage, message);
     }
 
+    @Test
+    void testSignedBase64PayloadTampered() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+
+        // base64 text payloads are packed as binary and must be covered by the signature
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, "AAECAwQ=");
+        byte[] message = p.encodeSign(pm, Protocol.Format.MSGPACK_V1);
+        assertNotNull(p.decodeVerify(message, Protocol.Format.MSGPACK_V1));
+
+        // the last payload byte comes right before the signature and its header
+        byte[] tampered = message.clone();
+        tampered[message.length - 67] ^= 0x01;
+        assertThrows(SignatureException.class, () -> p.decodeVerify(tampered, Protocol.Format.MSGPACK_V1));
+    }
+
+    @Test
+    void testCreateSignedMessageIntoTargets() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+
+        ByteBuffer buffer = ByteBuffer.allocate(expectedSignedMessage.length + 1);
+        buffer.put((byte) 0xFF);
+        assertEquals(expectedSignedMessage.length,
+                p.encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.MSGPACK_V1, buffer));
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(expectedSignedMessage, Arrays.copyOfRange(buffer.array(), 1, buffer.capacity()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expectedSignedMessage.length,
+                p.encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.MSGPACK_V1, out));
+        assertArrayEquals(expectedSignedMessage, out.toByteArray());
+
+        out.reset();
+        assertEquals(expectedSignedMessage.length,
+                p.encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.MSGPACK_V1, Channels.newChannel(out)));
+        assertArrayEquals(expectedSignedMessage, out.toByteArray());
+
+        out.reset();
+        byte[] json = p.encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.JSON_V1);
+        assertEquals(json.length,
+                p.encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.JSON_V1, out));
+        assertArrayEquals(json, out.toByteArray());
+    }
+
+    @Test
+    void testCreateSignedMessageTargetTooSmall() throws NoSuchAlgorithmException, InvalidKeyException {
+        Protocol p = new TestProtocol();
+        ByteBuffer buffer = ByteBuffer.allocate(expectedSignedMessage.length - 1);
+
+        assertThrows(ProtocolException.class, () ->
+                p.encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.MSGPACK_V1, buffer));
+        assertEquals(0, buffer.position());
+    }
+
     @Test
     void testCreateSignedMessageWithHash() throws IOException, GeneralSecurityException {
         Protocol p = new TestProtocol();
@@ -90,6 +160,44 @@ public class ProtocolTest extends ProtocolFixtures {
         }
     }
 
+    @Test
+    void testCreateMessageBatch() throws IOException, GeneralSecurityException {
+        List<Integer> batchSizes = new ArrayList<>();
+        Protocol p = new TestProtocol() {
+            @Override
+            public List<byte[]> signBatch(List<SignRequest> requests) throws SignatureException, InvalidKeyException {
+                batchSizes.add(requests.size());
+                return super.signBatch(requests);
+            }
+        };
+
+        // the signed messages use another uuid, they would otherwise become part of the chain
+        UUID otherUUID = UUID.randomUUID();
+        List<ProtocolMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEE, i + 1));
+            messages.add(new ProtocolMessage(ProtocolMessage.SIGNED, otherUUID, 0xEF, i));
+        }
+
+        List<byte[]> encoded = p.encodeSignBatch(messages, Protocol.Format.MSGPACK_V1);
+        assertEquals(messages.size(), encoded.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(expectedChainedMessages.get(i), encoded.get(2 * i), String.format("message %d failed", i + 1));
+            assertArrayEquals(new TestProtocol().encodeSign(new ProtocolMessage(ProtocolMessage.SIGNED, otherUUID, 0xEF, i),
+                    Protocol.Format.MSGPACK_V1), encoded.get(2 * i + 1));
+        }
+        // all signed messages and the first chained message are signed in the first round
+        assertEquals(Arrays.asList(4, 1, 1), batchSizes);
+    }
+
+    @Test
+    void testCreateMessageBatchJson() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        List<byte[]> encoded = p.encodeSignBatch(
+                Collections.singletonList(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1)), Protocol.Format.JSON_V1);
+        assertEquals(expectedSignedMessageJson, new String(encoded.get(0), StandardCharsets.UTF_8));
+    }
+
     @Test
     void testCreateChainedMessageWithHash() throws IOException, GeneralSecurityException {
         Protocol p = new TestProtocol();
@@ -119,6 +227,287 @@ public class ProtocolTest extends ProtocolFixtures {
         });
     }
 
+    @Test
+    void testVerifySignedMessageLazy() throws NoSuchAlgorithmException, InvalidKeyException {
+        Protocol p = new TestProtocol();
+
+        assertDoesNotThrow(() -> {
+            ProtocolMessage pm = p.decodeVerifyLazy(expectedSignedMessage, Protocol.Format.MSGPACK_V1);
+            assertNull(pm.payload);
+            assertEquals(testUUID, pm.uuid);
+            assertEquals(1, pm.getPayload().asInt());
+
+            ProtocolMessage jsonPm = p.decodeVerifyLazy(expectedSignedMessageJson.getBytes(StandardCharsets.UTF_8), Protocol.Format.JSON_V1);
+            assertEquals(1, jsonPm.payload.asInt());
+        });
+    }
+
+    @Test
+    void testVerifySignedMessageByteBuffer() throws NoSuchAlgorithmException, InvalidKeyException {
+        Protocol p = new TestProtocol();
+
+        assertDoesNotThrow(() -> {
+            ByteBuffer direct = ByteBuffer.allocateDirect(expectedSignedMessage.length);
+            direct.put(expectedSignedMessage).flip();
+            assertEquals(1, p.decodeVerify(direct, Protocol.Format.MSGPACK_V1).getPayload().asInt());
+
+            ByteBuffer json = ByteBuffer.wrap(expectedSignedMessageJson.getBytes(StandardCharsets.UTF_8));
+            assertEquals(1, p.decodeVerify(json, Protocol.Format.JSON_V1).getPayload().asInt());
+            assertEquals(0, json.position());
+        });
+    }
+
+    @Test
+    void testVerifyOnly() throws NoSuchAlgorithmException, InvalidKeyException {
+        Protocol p = new TestProtocol();
+
+        assertDoesNotThrow(() -> {
+            VerifyResult result = p.verifyOnly(expectedSignedMessage, Protocol.Format.MSGPACK_V1);
+            assertTrue(result.isValid());
+            assertEquals(SIGNED, result.getVersion());
+            assertEquals(testUUID, result.getUUID());
+            assertEquals(0xEF, result.getHint());
+
+            for (byte[] message : expectedChainedMessages) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+                direct.put(message).flip();
+                assertTrue(p.verifyOnly(direct, Protocol.Format.MSGPACK_V2).isValid());
+                assertEquals(0, direct.position());
+            }
+
+            VerifyResult json = p.verifyOnly(expectedSignedMessageJson.getBytes(StandardCharsets.UTF_8), Protocol.Format.JSON_V1);
+            assertTrue(json.isValid());
+            assertEquals(testUUID, json.getUUID());
+        });
+
+        byte[] hackedSignedMessage = expectedSignedMessage.clone();
+        hackedSignedMessage[hackedSignedMessage.length - 10] ^= 0x01;
+        assertDoesNotThrow(() -> assertFalse(p.verifyOnly(hackedSignedMessage, Protocol.Format.MSGPACK_V1).isValid()));
+        assertThrows(ProtocolException.class, () -> p.verifyOnly(new byte[]{(byte) 0x91, 0x01}, Protocol.Format.MSGPACK_V1));
+    }
+
+    @Test
+    void testVerifyMessageBatch() throws NoSuchAlgorithmException, InvalidKeyException, ProtocolException {
+        AtomicInteger verifications = new AtomicInteger();
+        Protocol p = new TestProtocol() {
+            @Override
+            public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) throws SignatureException {
+                verifications.incrementAndGet();
+                return super.verify(uuid, data, offset, len, signature);
+            }
+        };
+
+        List<DecodeResult> results = p.decodeVerifyBatch(batchMessages(), Protocol.Format.MSGPACK_V1);
+        assertBatchResults(results);
+        // five decoded messages, each verified exactly once
+        assertEquals(5, verifications.get());
+    }
+
+    @Test
+    void testVerifyMessageBatchVerifier() throws NoSuchAlgorithmException, InvalidKeyException, ProtocolException {
+        AtomicInteger batches = new AtomicInteger();
+        Protocol p = new TestProtocol() {
+            @Override
+            public boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+                batches.incrementAndGet();
+                return super.verifyBatch(requests);
+            }
+
+            @Override
+            public boolean hasBatchVerification() {
+                return true;
+            }
+        };
+
+        List<DecodeResult> results = p.decodeVerifyBatch(batchMessages(), Protocol.Format.MSGPACK_V1);
+        assertBatchResults(results);
+        assertEquals(1, batches.get());
+    }
+
+    @Test
+    void testVerifyMessageBatchVerifierThrows() throws NoSuchAlgorithmException, InvalidKeyException, ProtocolException {
+        AtomicInteger batches = new AtomicInteger();
+        Protocol p = new TestProtocol() {
+            @Override
+            public boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+                batches.incrementAndGet();
+                boolean[] results = super.verifyBatch(requests);
+                for (boolean valid : results) {
+                    if (!valid) {
+                        throw new SignatureException("batch verification failed");
+                    }
+                }
+                return results;
+            }
+
+            @Override
+            public boolean hasBatchVerification() {
+                return true;
+            }
+        };
+
+        List<DecodeResult> results = p.decodeVerifyBatch(batchMessages(), Protocol.Format.MSGPACK_V1);
+        assertBatchResults(results);
+        // five decoded messages: [5] throws, [2] ok, [3] throws, [1] ok, [2] throws, [1] ok, [1] throws
+        assertEquals(7, batches.get());
+    }
+
+    @Test
+    void testVerifyMessageBatchVerifierShortResult() throws NoSuchAlgorithmException, InvalidKeyException, ProtocolException {
+        Protocol p = new TestProtocol() {
+            @Override
+            public boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+                boolean[] results = super.verifyBatch(requests);
+                // drop the last result of every multi-message batch
+                return requests.size() > 1 ? Arrays.copyOf(results, results.length - 1) : results;
+            }
+
+            @Override
+            public boolean hasBatchVerification() {
+                return true;
+            }
+        };
+
+        // a short result is treated like a failed batch and bisected down to single messages
+        assertBatchResults(p.decodeVerifyBatch(batchMessages(), Protocol.Format.MSGPACK_V1));
+    }
+
+    private List<byte[]> batchMessages() {
+
+        byte[] brokenSignature = expectedSignedMessage.clone();
+        brokenSignature[brokenSignature.length - 1] ^= 0x01;
+        List<byte[]> messages = new ArrayList<>(expectedChainedMessages);
+        messages.add(expectedSignedMessage);
+        messages.add(new byte[]{(byte) 0x91, 0x01});
+        messages.add(brokenSignature);
+        return messages;
+    }
+
+    private void assertBatchResults(List<DecodeResult> results) {
+        List<byte[]> messages = batchMessages();
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(results.get(i).isValid(), results.get(i).toString());
+            assertArrayEquals(Arrays.copyOfRange(messages.get(i), messages.get(i).length - 64, messages.get(i).length),
+                    results.get(i).getMessage().getSignature());
+        }
+        assertNull(results.get(4).getMessage());
+        assertTrue(results.get(4).getError() instanceof ProtocolException);
+        assertNotNull(results.get(5).getMessage());
+        assertTrue(results.get(5).getError() instanceof SignatureException);
+    }
+
+    @Test
+    void testVerifyMessageBatchValid() throws NoSuchAlgorithmException, InvalidKeyException, ProtocolException {
+        Protocol p = new TestProtocol();
+
+        List<DecodeResult> results = p.decodeVerifyBatch(
+                Collections.singletonList(expectedSignedMessageJson.getBytes(StandardCharsets.UTF_8)), Protocol.Format.JSON_V1);
+        assertTrue(results.get(0).isValid());
+        assertEquals(1, results.get(0).getMessage().getPayload().asInt());
+    }
+
+    @Test
+    void testVerifyAllParallel() throws NoSuchAlgorithmException, InvalidKeyException, InterruptedException {
+        Protocol p = new TestProtocol();
+        byte[] brokenSignature = expectedSignedMessage.clone();
+        brokenSignature[brokenSignature.length - 1] ^= 0x01;
+
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            messages.add(i % 7 == 0 ? brokenSignature : expectedChainedMessages.get(i % 3));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<DecodeResult> results = p.decodeVerifyAll(messages, Protocol.Format.MSGPACK_V1, executor);
+            assertEquals(messages.size(), results.size());
+            for (int i = 0; i < messages.size(); i++) {
+                DecodeResult result = results.get(i);
+                if (i % 7 == 0) {
+                    assertTrue(result.getError() instanceof SignatureException, result.toString());
+                } else {
+                    assertTrue(result.isValid(), result.toString());
+                    assertEquals(i % 3 + 1, result.getMessage().getPayload().asInt());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(p.decodeVerifyAll(Collections.emptyList(), Protocol.Format.MSGPACK_V1).isEmpty());
+    }
+
+    @Test
+    void testCreateAndVerifyAsync() throws Exception {
+        ScheduledExecutorService crypto = Executors.newSingleThreadScheduledExecutor();
+        class AsyncTestProtocol extends TestProtocol implements AsyncProtocolSigner, AsyncProtocolVerifier {
+            AsyncTestProtocol() throws NoSuchAlgorithmException, InvalidKeyException {
+            }
+
+            @Override
+            public CompletableFuture<byte[]> signAsync(UUID uuid, byte[] data, int offset, int len) {
+                CompletableFuture<byte[]> future = new CompletableFuture<>();
+                crypto.schedule(() -> {
+                    try {
+                        future.complete(sign(uuid, data, offset, len));
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                }, 1, TimeUnit.MILLISECONDS);
+                return future;
+            }
+
+            @Override
+            public CompletableFuture<Boolean> verifyAsync(UUID uuid, byte[] data, int offset, int len, byte[] signature) {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return verify(uuid, data, offset, len, signature);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, crypto);
+            }
+        }
+
+        try {
+            Protocol p = new AsyncTestProtocol();
+            UUID otherUUID = UUID.randomUUID();
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(p.encodeSignAsync(new ProtocolMessage(ProtocolMessage.CHAINED, i % 2 == 0 ? testUUID : otherUUID, 0xEE, i), Protocol.Format.MSGPACK_V1));
+            }
+
+            // the chain of each uuid follows the order of the requests
+            Map<UUID, byte[]> lastSignatures = new HashMap<>();
+            for (int i = 0; i < futures.size(); i++) {
+                ProtocolMessage pm = p.decodeVerifyAsync(futures.get(i).get(10, TimeUnit.SECONDS), Protocol.Format.MSGPACK_V1)
+                        .get(10, TimeUnit.SECONDS);
+                assertEquals(i, pm.getPayload().asInt());
+                assertArrayEquals(lastSignatures.getOrDefault(pm.getUUID(), new byte[64]), pm.getChain());
+                lastSignatures.put(pm.getUUID(), pm.getSignature());
+            }
+
+            byte[] brokenSignature = expectedSignedMessage.clone();
+            brokenSignature[brokenSignature.length - 1] ^= 0x01;
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> p.decodeVerifyAsync(brokenSignature, Protocol.Format.MSGPACK_V1).get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof SignatureException);
+        } finally {
+            crypto.shutdown();
+        }
+    }
+
+    @Test
+    void testCreateAndVerifyAsyncWithBlockingProtocol() throws Exception {
+        Protocol p = new TestProtocol();
+        byte[] message = p.encodeSignAsync(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), Protocol.Format.MSGPACK_V1).get();
+        assertArrayEquals(expectedSignedMessage, message);
+        assertEquals(testUUID, p.decodeVerifyAsync(message, Protocol.Format.MSGPACK_V1).get().getUUID());
+        assertThrows(ExecutionException.class, () -> p.decodeVerifyAsync(new byte[]{(byte) 0x91, 0x01}, Protocol.Format.MSGPACK_V1).get());
+    }
+
     @Test
     void testVerifySignedMessageFailsWithBrokenMessage() throws NoSuchAlgorithmException, InvalidKeyException {
         Protocol p = new TestProtocol();
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol;
+
+import com.ubirch.protocol.codec.MsgPackProtocolDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link VerificationCache}.
+ *
+ * @author Matthias L. Jugel
+ */
+class VerificationCacheTest extends ProtocolFixtures {
+    private final byte[] signed = Arrays.copyOfRange(expectedSignedMessage, 0, expectedSignedMessage.length - 66);
+    private final byte[] signature = Arrays.copyOfRange(expectedSignedMessage, expectedSignedMessage.length - 64, expectedSignedMessage.length);
+
+    @Test
+    void testCacheHit() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Protocol p = new TestProtocol();
+        VerificationCache cache = new VerificationCache((uuid, data, offset, len, sig) -> {
+            calls.incrementAndGet();
+            return p.verify(uuid, data, offset, len, sig);
+        }, 10, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.verify(testUUID, signed, 0, signed.length, signature));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testFailuresAreNotCached() throws SignatureException, InvalidKeyException {
+        AtomicInteger calls = new AtomicInteger();
+        VerificationCache cache = new VerificationCache((uuid, data, offset, len, sig) -> calls.incrementAndGet() < 0,
+                10, 1, TimeUnit.MINUTES);
+
+        assertFalse(cache.verify(testUUID, signed, 0, signed.length, signature));
+        assertFalse(cache.verify(testUUID, signed, 0, signed.length, signature));
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testKeyCoversAllInputs() throws SignatureException, InvalidKeyException {
+        AtomicInteger calls = new AtomicInteger();
+        VerificationCache cache = new VerificationCache((uuid, data, offset, len, sig) -> calls.incrementAndGet() > 0,
+                10, 1, TimeUnit.MINUTES);
+
+        byte[] otherSignature = signature.clone();
+        otherSignature[0] ^= 0x01;
+        cache.verify(testUUID, signed, 0, signed.length, signature);
+        cache.verify(testUUID, signed, 0, signed.length, otherSignature);
+        cache.verify(testUUID, signed, 1, signed.length - 1, signature);
+        cache.verify(new UUID(0, 0), signed, 0, signed.length, signature);
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void testSizeAndTimeEviction() throws SignatureException, InvalidKeyException {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger calls = new AtomicInteger();
+        VerificationCache cache = new VerificationCache((uuid, data, offset, len, sig) -> calls.incrementAndGet() > 0,
+                2, 10, TimeUnit.NANOSECONDS, now::get);
+
+        for (int i = 0; i < 3; i++) {
+            cache.verify(testUUID, signed, i, signed.length - i, signature);
+        }
+        assertEquals(2, cache.size());
+        // the first entry was evicted, the last one is still cached
+        cache.verify(testUUID, signed, 0, signed.length, signature);
+        cache.verify(testUUID, signed, 2, signed.length - 2, signature);
+        assertEquals(4, calls.get());
+
+        now.addAndGet(10);
+        cache.verify(testUUID, signed, 2, signed.length - 2, signature);
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    void testBatchPassesOnlyMisses() throws SignatureException, InvalidKeyException {
+        List<Integer> batchSizes = new ArrayList<>();
+        VerificationCache cache = new VerificationCache(new ProtocolVerifier() {
+            @Override
+            public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] sig) {
+                // only the odd offsets verify
+                return offset % 2 == 1;
+            }
+
+            @Override
+            public boolean[] verifyBatch(List<VerifyRequest> requests) throws SignatureException, InvalidKeyException {
+                batchSizes.add(requests.size());
+                return ProtocolVerifier.super.verifyBatch(requests);
+            }
+
+            @Override
+            public boolean hasBatchVerification() {
+                return true;
+            }
+        }, 10, 1, TimeUnit.MINUTES);
+        assertTrue(cache.hasBatchVerification());
+
+        List<VerifyRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(new VerifyRequest(testUUID, signed, i, signed.length - i, signature));
+        }
+        assertTrue(cache.verify(testUUID, signed, 1, signed.length - 1, signature));
+        assertArrayEquals(new boolean[]{false, true, false, true}, cache.verifyBatch(requests));
+        // the cached request is answered from the cache, the successful one of the batch is cached
+        assertArrayEquals(new boolean[]{false, true, false, true}, cache.verifyBatch(requests));
+        assertEquals(Arrays.asList(3, 2), batchSizes);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(6, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testStripedCacheSize() throws SignatureException, InvalidKeyException {
+        VerificationCache cache = new VerificationCache((uuid, data, offset, len, sig) -> true, 2000, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 3000; i++) {
+            cache.verify(new UUID(0, i), signed, 0, signed.length, signature);
+        }
+        // evicted per stripe, but never more entries than the maximum size
+        assertTrue(cache.size() <= 2000 && cache.size() > 1500, String.valueOf(cache.size()));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testDecodeWithCache() throws Exception {
+        Protocol p = new TestProtocol();
+        VerificationCache cache = new VerificationCache(p, 10, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(testUUID, MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage, cache).getUUID());
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.chain;
+
+import com.ubirch.protocol.AsyncProtocolSigner;
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.ubirch.protocol.Protocol.Format.MSGPACK;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link ChainState} and its use by the {@link Protocol}.
+ *
+ * @author Matthias L. Jugel
+ */
+class ChainStateTest extends ProtocolFixtures {
+
+    /**
+     * A protocol "signing" with a SHA-512 digest, keeping the chain in the chain state.
+     */
+    private static class DigestProtocol extends Protocol {
+        DigestProtocol(ChainState chainState) {
+            super(chainState);
+        }
+
+        @Override
+        public byte[] sign(UUID uuid, byte[] data, int offset, int len) throws SignatureException {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-512");
+                md.update(data, offset, len);
+                return md.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new SignatureException(e);
+            }
+        }
+
+        @Override
+        public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) throws SignatureException {
+            return Arrays.equals(sign(uuid, data, offset, len), signature);
+        }
+
+        @Override
+        protected byte[] getLastSignature(UUID uuid) {
+            return getChainState().getLastSignature(uuid);
+        }
+    }
+
+    @Test
+    void testCompareAndSet() {
+        ChainState state = new ChainState();
+        byte[] first = new byte[]{1};
+        byte[] second = new byte[]{2};
+
+        assertNull(state.getLastSignature(testUUID));
+        assertFalse(state.compareAndSet(testUUID, first, second));
+        assertTrue(state.compareAndSet(testUUID, null, first));
+        assertTrue(state.compareAndSet(testUUID, first.clone(), second));
+        assertFalse(state.compareAndSet(testUUID, first, second));
+        assertArrayEquals(second, state.getLastSignature(testUUID));
+    }
+
+    @Test
+    void testLockStripes() {
+        ChainState state = new ChainState(new InMemoryChainStore(), 3);
+        Set<Object> locks = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            assertSame(state.getLock(uuid), state.getLock(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())));
+            locks.add(state.getLock(uuid));
+        }
+        assertEquals(4, locks.size());
+        assertThrows(IllegalArgumentException.class, () -> new ChainState(new InMemoryChainStore(), 0));
+    }
+
+    @Test
+    void testProtocolChainFromChainState() throws Exception {
+        ChainState state = new ChainState();
+        Protocol p = new DigestProtocol(state);
+        assertSame(state, p.getChainState());
+
+        byte[] last = new byte[64];
+        last[0] = 1;
+        state.setLastSignature(testUUID, last);
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEF, 1);
+        p.encodeSign(pm, MSGPACK);
+        assertArrayEquals(last, pm.getChain());
+        assertArrayEquals(pm.getSignature(), state.getLastSignature(testUUID));
+    }
+
+    @Test
+    void testConcurrentChainedEncoding() throws Exception {
+        ChainState state = new ChainState();
+        Protocol p = new DigestProtocol(state);
+        UUID other = UUID.randomUUID();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<ProtocolMessage>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                UUID uuid = i % 2 == 0 ? testUUID : other;
+                int payload = i;
+                futures.add(pool.submit(() -> {
+                    ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.CHAINED, uuid, 0xEF, payload);
+                    return p.decodeVerify(p.encodeSign(pm, MSGPACK), MSGPACK);
+                }));
+            }
+            for (Future<ProtocolMessage> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // each chain must be linear: every signature is the chain of exactly one other message
+        for (UUID uuid : new UUID[]{testUUID, other}) {
+            Map<String, String> links = new HashMap<>();
+            for (Future<ProtocolMessage> future : futures) {
+                ProtocolMessage pm = future.get();
+                if (pm.getUUID().equals(uuid)) {
+                    String previous = Base64.getEncoder().encodeToString(pm.getChain());
+                    assertNull(links.put(previous, Base64.getEncoder().encodeToString(pm.getSignature())), "chain forked");
+                }
+            }
+            assertEquals(50, links.size());
+            String signature = Base64.getEncoder().encodeToString(new byte[64]);
+            for (int i = 0; i < 50; i++) {
+                signature = links.get(signature);
+                assertNotNull(signature, "chain broken");
+            }
+            assertEquals(signature, Base64.getEncoder().encodeToString(state.getLastSignature(uuid)));
+        }
+    }
+
+    @Test
+    void testConcurrentExtensionIsDetected() throws Exception {
+        ChainState state = new ChainState();
+        Protocol p = new DigestProtocol(state);
+
+        CompletableFuture<byte[]> pending = new CompletableFuture<>();
+        Protocol async = new AsyncDigestProtocol(state, pending);
+        CompletableFuture<byte[]> message = async.encodeSignAsync(
+                new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEF, 1), MSGPACK);
+        p.encodeSign(new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEF, 2), MSGPACK);
+        pending.complete(new byte[64]);
+
+        ExecutionException e = assertThrows(ExecutionException.class, message::get);
+        assertTrue(e.getCause() instanceof ProtocolException);
+    }
+
+    private static class AsyncDigestProtocol extends DigestProtocol implements AsyncProtocolSigner {
+        private final CompletableFuture<byte[]> signature;
+
+        AsyncDigestProtocol(ChainState chainState, CompletableFuture<byte[]> signature) {
+            super(chainState);
+            this.signature = signature;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> signAsync(UUID uuid, byte[] data, int offset, int len) {
+            return signature;
+        }
+    }
+}
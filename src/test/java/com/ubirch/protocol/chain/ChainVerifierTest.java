@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.chain;
+
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link ChainVerifier}.
+ *
+ * @author Matthias L. Jugel
+ */
+class ChainVerifierTest extends ProtocolFixtures {
+
+    @Test
+    void testUnbrokenChain() throws Exception {
+        ChainVerifier verifier = new ChainVerifier(new TestProtocol());
+        ChainReport report = verifier.verify(expectedChainedMessages.iterator());
+        assertTrue(report.isValid(), report.getIssues().toString());
+        assertEquals(3, report.getMessageCount());
+        assertEquals(1, report.getChainCount());
+        byte[] last = expectedChainedMessages.get(2);
+        assertArrayEquals(Arrays.copyOfRange(last, last.length - 64, last.length), report.getLastSignature(testUUID));
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(expectedSignedMessage);
+        for (byte[] message : expectedChainedMessages) {
+            archive.write(message);
+        }
+        report = verifier.verify(new ByteArrayInputStream(archive.toByteArray()));
+        assertTrue(report.isValid(), report.getIssues().toString());
+        assertEquals(4, report.getMessageCount());
+    }
+
+    @Test
+    void testGap() throws Exception {
+        List<byte[]> messages = Arrays.asList(expectedChainedMessages.get(0), expectedChainedMessages.get(2));
+        ChainReport report = new ChainVerifier(new TestProtocol(), Runnable::run, 1).verify(messages.iterator());
+
+        assertFalse(report.isValid());
+        ChainIssue issue = report.getFirstBrokenLink();
+        assertEquals(ChainIssue.Type.GAP, issue.getType());
+        assertEquals(1, issue.getIndex());
+        assertEquals(testUUID, issue.getUUID());
+    }
+
+    @Test
+    void testFork() throws Exception {
+        Protocol p = new TestProtocol();
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(p.encodeSign(new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEE, i), Protocol.Format.MSGPACK));
+        }
+        // a second message continuing the second message, like the third message
+        ProtocolMessage third = p.decodeVerify(messages.get(2), Protocol.Format.MSGPACK);
+        ProtocolMessage fork = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, third.getChain(), 0xEE, 42);
+        messages.add(MsgPackProtocolEncoder.getEncoder().encode(fork, p));
+
+        ChainReport report = new ChainVerifier(p).verify(messages.iterator());
+        assertEquals(1, report.getIssues().size());
+        assertEquals(ChainIssue.Type.FORK, report.getFirstIssue().getType());
+        assertEquals(3, report.getFirstIssue().getIndex());
+    }
+
+    @Test
+    void testBrokenMessages() throws Exception {
+        byte[] tampered = expectedChainedMessages.get(1).clone();
+        tampered[tampered.length - 70] ^= 0x01;
+        List<byte[]> messages = Arrays.asList(new byte[]{(byte) 0x91, 0x01},
+                expectedChainedMessages.get(0), tampered, expectedChainedMessages.get(2));
+
+        ChainReport report = new ChainVerifier(new TestProtocol()).verify(messages.iterator());
+        assertEquals(3, report.getIssues().size());
+        assertEquals(ChainIssue.Type.DECODE_ERROR, report.getIssues().get(0).getType());
+        assertNull(report.getIssues().get(0).getUUID());
+        assertEquals(ChainIssue.Type.INVALID_SIGNATURE, report.getIssues().get(1).getType());
+        assertEquals(2, report.getIssues().get(1).getIndex());
+        // the tampered message does not extend the chain
+        assertEquals(ChainIssue.Type.GAP, report.getIssues().get(2).getType());
+        assertSame(report.getIssues().get(2), report.getFirstBrokenLink());
+    }
+
+    @Test
+    void testTruncatedStream() {
+        byte[] message = expectedChainedMessages.get(0);
+        ChainVerifier verifier = new ChainVerifier((uuid, data, offset, len, signature) -> true);
+        assertThrows(IOException.class,
+                () -> verifier.verify(new ByteArrayInputStream(Arrays.copyOf(message, message.length - 1))));
+    }
+}
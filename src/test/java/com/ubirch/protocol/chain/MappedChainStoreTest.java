@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.chain;
+
+import com.ubirch.protocol.ProtocolFixtures;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MappedChainStore}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MappedChainStoreTest extends ProtocolFixtures {
+    @TempDir
+    Path dir;
+
+    private static byte[] signature(int n) {
+        byte[] signature = new byte[64];
+        Arrays.fill(signature, (byte) n);
+        return signature;
+    }
+
+    @Test
+    void testPutGetAndReopen() throws IOException {
+        Path file = dir.resolve("chain.db");
+        UUID other = UUID.randomUUID();
+        try (MappedChainStore store = MappedChainStore.open(file, 100)) {
+            assertNull(store.get(testUUID));
+            store.put(testUUID, signature(1));
+            store.put(other, signature(2));
+            store.put(testUUID, signature(3));
+            store.put(testUUID, signature(4));
+            assertArrayEquals(signature(4), store.get(testUUID));
+            assertArrayEquals(signature(2), store.get(other));
+        }
+
+        try (MappedChainStore store = MappedChainStore.open(file, 1)) {
+            assertEquals(134, store.getCapacity());
+            assertArrayEquals(signature(4), store.get(testUUID));
+            assertArrayEquals(signature(2), store.get(other));
+        }
+    }
+
+    @Test
+    void testTornUpdateKeepsPreviousSignature() throws IOException {
+        Path file = dir.resolve("chain.db");
+        try (MappedChainStore store = MappedChainStore.open(file, 1)) {
+            store.put(testUUID, signature(1));
+            store.put(testUUID, signature(2));
+        }
+
+        // find the record and damage the newest signature slot, as an interrupted update would
+        byte[] data = Files.readAllBytes(file);
+        int slot = -1;
+        for (int i = 64; i < data.length; i++) {
+            if (data[i] == 2 && data[i + 63] == 2) {
+                slot = i;
+                break;
+            }
+        }
+        assertTrue(slot > 0);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(slot + 10);
+            raf.write(7);
+        }
+
+        try (MappedChainStore store = MappedChainStore.open(file, 1)) {
+            assertArrayEquals(signature(1), store.get(testUUID));
+            // the next update replaces the damaged slot
+            store.put(testUUID, signature(3));
+            assertArrayEquals(signature(3), store.get(testUUID));
+        }
+    }
+
+    @Test
+    void testCollisionsAndFullStore() throws IOException {
+        try (MappedChainStore store = MappedChainStore.open(dir.resolve("chain.db"), 3)) {
+            UUID[] uuids = new UUID[(int) store.getCapacity()];
+            for (int i = 0; i < uuids.length; i++) {
+                uuids[i] = new UUID(i + 1, i);
+                store.put(uuids[i], signature(i));
+            }
+            for (int i = 0; i < uuids.length; i++) {
+                assertArrayEquals(signature(i), store.get(uuids[i]));
+            }
+            assertNull(store.get(testUUID));
+            assertThrows(IllegalStateException.class, () -> store.put(testUUID, signature(1)));
+            assertThrows(IllegalArgumentException.class, () -> store.put(new UUID(0, 0), signature(1)));
+            assertThrows(IllegalArgumentException.class, () -> store.put(uuids[0], new byte[10]));
+        }
+    }
+
+    @Test
+    void testNotAChainStore() throws IOException {
+        Path file = dir.resolve("other.db");
+        Files.write(file, "this is not a chain store".getBytes());
+        assertThrows(IOException.class, () -> MappedChainStore.open(file, 10));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.ubirch.protocol.DigestSigner;
+import com.ubirch.protocol.DigestVerifier;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test that the msgpack codecs feed the digest of {@link DigestSigner}s and {@link DigestVerifier}s correctly.
+ *
+ * @author Matthias L. Jugel
+ */
+class DigestSigningTest extends ProtocolFixtures {
+
+    private static class RecordingDigestSigner implements DigestSigner, DigestVerifier {
+        byte[] digest;
+
+        @Override
+        public String getDigestAlgorithm() {
+            return "SHA-512";
+        }
+
+        @Override
+        public byte[] signDigest(UUID uuid, byte[] digest) {
+            this.digest = digest;
+            return new byte[64];
+        }
+
+        @Override
+        public boolean verifyDigest(UUID uuid, byte[] digest, byte[] signature) {
+            this.digest = digest;
+            return true;
+        }
+    }
+
+    private static byte[] sha512(byte[] data) throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-512").digest(data);
+    }
+
+    @Test
+    void testEncodeFeedsDigest() throws IOException, GeneralSecurityException {
+        ObjectMapper mapper = new ObjectMapper();
+        // larger than the packer buffer, so that part of it is flushed before falling back to the generator
+        ArrayNode large = mapper.createArrayNode();
+        for (int i = 0; i < 2000; i++) {
+            large.add("value " + i);
+        }
+        ArrayNode fallback = large.deepCopy().add(new BigDecimal("1.25"));
+        Object[] payloads = {1, TextNode.valueOf("AAECAwQ="), new byte[64], large, fallback};
+
+        RecordingDigestSigner signer = new RecordingDigestSigner();
+        for (Object payload : payloads) {
+            ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEF, payload);
+            MsgPackProtocolEncoder.getEncoder().encode(pm, signer);
+            assertArrayEquals(sha512(pm.getSigned()), signer.digest);
+
+            pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEF, payload);
+            new MsgPackProtocolEmitter(testUUID, ProtocolMessage.CHAINED).emit(pm, signer);
+            assertArrayEquals(sha512(pm.getSigned()), signer.digest);
+
+            pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0xEF, payload);
+            new MsgPackProtocolSigning().sign(pm, signer);
+            assertArrayEquals(sha512(pm.getSigned()), signer.digest);
+        }
+    }
+
+    @Test
+    void testDecodeVerifiesDigest() throws GeneralSecurityException, ProtocolException {
+        RecordingDigestSigner verifier = new RecordingDigestSigner();
+        byte[] expected = sha512(MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage).getSigned());
+
+        MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage, verifier);
+        assertArrayEquals(expected, verifier.digest);
+        verifier.digest = null;
+        MsgPackProtocolDecoder.getDecoder().decodeLazy(expectedSignedMessage, verifier);
+        assertArrayEquals(expected, verifier.digest);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(expectedSignedMessage.length);
+        direct.put(expectedSignedMessage).flip();
+        verifier.digest = null;
+        MsgPackProtocolDecoder.getDecoder().decode(direct, verifier);
+        assertArrayEquals(expected, verifier.digest);
+        verifier.digest = null;
+        assertTrue(MsgPackProtocolDecoder.getDecoder().verifyOnly(direct, verifier).isValid());
+        assertArrayEquals(expected, verifier.digest);
+    }
+
+    @Test
+    void testDecodeFeedsDigest() throws IOException, GeneralSecurityException {
+        // the data verify methods must not be used, the decoder feeds the digest while parsing
+        RecordingDigestSigner verifier = new RecordingDigestSigner() {
+            @Override
+            public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) {
+                throw new AssertionError("signed data hashed after decoding");
+            }
+
+            @Override
+            public boolean verify(UUID uuid, ByteBuffer data, byte[] signature) {
+                throw new AssertionError("signed data hashed after decoding");
+            }
+        };
+        byte[][] messages = {expectedSignedMessage, expectedChainedMessages.get(1),
+                getBinaryFixture("msgpack/v1.0-register.mpack")};
+        for (byte[] message : messages) {
+            byte[] expected = sha512(MsgPackProtocolDecoder.getDecoder().decode(message).getSigned());
+
+            verifier.digest = null;
+            MsgPackProtocolDecoder.getDecoder().decode(message, verifier);
+            assertArrayEquals(expected, verifier.digest);
+            verifier.digest = null;
+            MsgPackProtocolDecoder.getDecoder().decodeLazy(message, verifier);
+            assertArrayEquals(expected, verifier.digest);
+
+            // the message at an offset in a direct buffer
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length + 3);
+            direct.put(new byte[3]).put(message).flip().position(3);
+            verifier.digest = null;
+            MsgPackProtocolDecoder.getDecoder().decode(direct, verifier);
+            assertArrayEquals(expected, verifier.digest);
+            assertEquals(3, direct.position());
+        }
+    }
+
+    @Test
+    void testDigestProtocolFixtures() throws IOException, GeneralSecurityException {
+        DigestTestProtocol p = new DigestTestProtocol();
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        assertArrayEquals(expectedSignedMessage, MsgPackProtocolEncoder.getEncoder().encode(pm, p));
+
+        MsgPackProtocolEmitter emitter = new MsgPackProtocolEmitter(testUUID, ProtocolMessage.CHAINED);
+        for (byte[] expected : expectedChainedMessages) {
+            ProtocolMessage decoded = MsgPackProtocolDecoder.getDecoder().decode(expected, p);
+            pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, decoded.getChain(), decoded.getHint(), decoded.getPayload());
+            assertArrayEquals(expected, emitter.emit(pm, p));
+        }
+    }
+
+    @Test
+    void testDigestVerificationFails() {
+        DigestVerifier verifier = new RecordingDigestSigner() {
+            @Override
+            public boolean verifyDigest(UUID uuid, byte[] digest, byte[] signature) {
+                return false;
+            }
+        };
+        assertThrows(SignatureException.class, () -> MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage, verifier));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MsgPackArchiveReader}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MsgPackArchiveReaderTest extends ProtocolFixtures {
+    @TempDir
+    Path dir;
+
+    private Path archive;
+    private final List<Long> positions = new ArrayList<>();
+
+    @BeforeEach
+    void createArchive() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        List<byte[]> templates = new ArrayList<>(expectedChainedMessages);
+        templates.add(expectedSignedMessage);
+        templates.add(getBinaryFixture("msgpack/v1.0-register.mpack"));
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("data", new byte[300]);
+        payload.put("values", Arrays.asList(1, -1, 1.5, "text", null, true, BigInteger.ONE.shiftLeft(63)));
+        templates.add(p.encodeSign(new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0x00, payload), Protocol.Format.MSGPACK));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            positions.add((long) out.size());
+            out.write(templates.get(i % templates.size()));
+        }
+        archive = dir.resolve("archive.mpack");
+        Files.write(archive, out.toByteArray());
+    }
+
+    @Test
+    void testSplitAndScan() throws IOException, GeneralSecurityException {
+        try (MsgPackArchiveReader reader = MsgPackArchiveReader.open(archive)) {
+            for (int count = 1; count < 10; count++) {
+                List<MsgPackArchiveReader.Segment> segments = reader.split(count);
+                assertEquals(count, segments.size());
+                assertEquals(0, segments.get(0).getStart());
+                assertEquals(reader.size(), segments.get(count - 1).getEnd());
+                for (int i = 1; i < count; i++) {
+                    assertEquals(segments.get(i - 1).getEnd(), segments.get(i).getStart());
+                    assertTrue(positions.contains(segments.get(i).getStart()));
+                }
+
+                Set<Long> seen = ConcurrentHashMap.newKeySet();
+                long messages = reader.scanAll(segments, ForkJoinPool.commonPool(), (position, view) -> {
+                    seen.add(position);
+                });
+                assertEquals(positions.size(), messages);
+                assertEquals(new HashSet<>(positions), seen);
+            }
+        }
+    }
+
+    @Test
+    void testScanAllVerifies() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        try (MsgPackArchiveReader reader = MsgPackArchiveReader.open(archive)) {
+            AtomicInteger verified = new AtomicInteger();
+            long messages = reader.scanAll((position, view) -> {
+                // the legacy fixture is signed with a different key
+                if (view.getUUID().equals(testUUID)) {
+                    if (!view.verify(p)) {
+                        throw new ProtocolException(String.format("invalid message at %d", position));
+                    }
+                    verified.incrementAndGet();
+                }
+            });
+            assertEquals(positions.size(), messages);
+            assertEquals(positions.size() - positions.size() / 6, verified.get());
+        }
+    }
+
+    @Test
+    void testScanVerifiesMappedData() throws IOException, GeneralSecurityException {
+        // the digest verifier must hash the mapped data, the messages are never copied into an array
+        Protocol p = new DigestTestProtocol() {
+            @Override
+            public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) {
+                throw new AssertionError("message copied from the mapped file");
+            }
+        };
+        try (MsgPackArchiveReader reader = MsgPackArchiveReader.open(archive)) {
+            AtomicInteger verified = new AtomicInteger();
+            long messages = reader.scan(reader.split(1).get(0), (position, view) -> {
+                assertTrue(view.getByteBuffer().isDirect());
+                assertThrows(IllegalStateException.class, view::getBuffer);
+                if (view.getUUID().equals(testUUID)) {
+                    if (!view.verify(p)) {
+                        throw new ProtocolException(String.format("invalid message at %d", position));
+                    }
+                    verified.incrementAndGet();
+                }
+            });
+            assertEquals(positions.size(), messages);
+            assertEquals(positions.size() - positions.size() / 6, verified.get());
+        }
+    }
+
+    @Test
+    void testBrokenArchive() throws IOException {
+        byte[] data = Files.readAllBytes(archive);
+        Files.write(archive, Arrays.copyOf(data, data.length - 1));
+        try (MsgPackArchiveReader reader = MsgPackArchiveReader.open(archive)) {
+            assertThrows(ProtocolException.class, () -> reader.scanAll(reader.split(3), Runnable::run, (position, view) -> {
+            }));
+        }
+    }
+
+    @Test
+    void testEnvelopeScannerSkip() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(2).packString("a").packArrayHeader(3).packInt(1).packLong(Long.MIN_VALUE).packDouble(0.5);
+        packer.packBinaryHeader(70000).writePayload(new byte[70000]);
+        packer.packExtensionTypeHeader((byte) 1, 3).writePayload(new byte[3]);
+        packer.packExtensionTypeHeader((byte) 1, 16).writePayload(new byte[16]);
+        packer.packExtensionTypeHeader((byte) 1, 300).writePayload(new byte[300]);
+        packer.packString(new String(new char[40000]).replace('\0', 'x'));
+        packer.packArrayHeader(20).packNil().packBoolean(true).packFloat(1.0f).packBigInteger(BigInteger.ONE.shiftLeft(63));
+        for (int i = 0; i < 16; i++) {
+            packer.packInt(-i * 1000);
+        }
+        byte[] data = packer.toByteArray();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data);
+        int position = 0;
+        while (unpacker.hasNext()) {
+            unpacker.skipValue();
+            position = EnvelopeScanner.skip(buffer, position, data.length);
+            assertEquals(unpacker.getTotalReadBytes(), position);
+        }
+        assertEquals(EnvelopeScanner.INCOMPLETE, EnvelopeScanner.skip(buffer, 0, 10));
+        assertEquals(EnvelopeScanner.INVALID, EnvelopeScanner.skip(ByteBuffer.wrap(new byte[]{(byte) 0xc1}), 0, 1));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MsgPackHashProtocolCodec}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MsgPackHashProtocolCodecTest extends ProtocolFixtures {
+    private final MsgPackHashProtocolCodec codec = MsgPackHashProtocolCodec.getCodec();
+
+    private static void assertSameMessage(ProtocolMessage expected, ProtocolMessage actual) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getUUID(), actual.getUUID());
+        assertArrayEquals(expected.getChain(), actual.getChain());
+        assertEquals(expected.getHint(), actual.getHint());
+        assertEquals(expected.getPayload(), actual.getPayload());
+        assertArrayEquals(expected.getSigned(), actual.getSigned());
+        assertArrayEquals(expected.getSignature(), actual.getSignature());
+    }
+
+    @Test
+    void testDecodeHashMessages() throws IOException, GeneralSecurityException {
+        for (byte[] message : Arrays.asList(expectedSignedMessageWithHash, expectedChainedMessageWithHash)) {
+            assertTrue(MsgPackHashProtocolCodec.signedLength(message) > 0);
+            ProtocolMessage pm = codec.decode(message, new TestProtocol());
+            assertSameMessage(MsgPackProtocolDecoder.getDecoder().decode(message), pm);
+            assertTrue(pm.getPayload().isBinary());
+            assertEquals(64, pm.getPayload().binaryValue().length);
+        }
+    }
+
+    @Test
+    void testEncodeHashMessages() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        byte[] hash = MsgPackProtocolDecoder.getDecoder().decode(expectedChainedMessageWithHash).getPayload().binaryValue();
+        for (int version : new int[]{ProtocolMessage.SIGNED, ProtocolMessage.CHAINED}) {
+            for (int hint : new int[]{0x00, 0x7F, 0xEF}) {
+                for (byte[] payload : Arrays.asList(hash, Arrays.copyOf(hash, 32), new byte[0])) {
+                    byte[] chain = version == ProtocolMessage.CHAINED ? Arrays.copyOf(hash, 64) : null;
+                    ProtocolMessage expected = new ProtocolMessage(version, testUUID, chain, hint, BinaryNode.valueOf(payload));
+                    ProtocolMessage pm = new ProtocolMessage(version, testUUID, chain, hint, BinaryNode.valueOf(payload));
+                    byte[] message = codec.encode(pm, p);
+                    assertArrayEquals(MsgPackProtocolEncoder.getEncoder().encode(expected, p), message);
+                    assertArrayEquals(expected.getSigned(), pm.getSigned());
+                    assertSameMessage(pm, codec.decode(message, p));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testEncodeUnsignedChain() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0x00, BinaryNode.valueOf(new byte[32]));
+        ProtocolMessage expected = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, 0x00, BinaryNode.valueOf(new byte[32]));
+        assertArrayEquals(MsgPackProtocolEncoder.getEncoder().encode(expected, p), codec.encode(pm, p));
+    }
+
+    @Test
+    void testFallbackToGenericCodec() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        byte[] legacy = getBinaryFixture("msgpack/v1.0-register.mpack");
+        for (byte[] message : Arrays.asList(expectedSignedMessage, expectedChainedMessages.get(0), legacy)) {
+            assertEquals(-1, MsgPackHashProtocolCodec.signedLength(message));
+            assertSameMessage(MsgPackProtocolDecoder.getDecoder().decode(message), codec.decode(message));
+        }
+        assertNotNull(codec.decode(expectedChainedMessages.get(1), p));
+
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        ProtocolMessage expected = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        assertArrayEquals(MsgPackProtocolEncoder.getEncoder().encode(expected, p), codec.encode(pm, p));
+        assertArrayEquals(expectedSignedMessage, codec.encode(pm, p));
+    }
+
+    @Test
+    void testBrokenMessages() throws ProtocolException, SignatureException {
+        byte[] message = expectedChainedMessageWithHash;
+        for (int length = 0; length < message.length; length++) {
+            byte[] truncated = Arrays.copyOf(message, length);
+            assertEquals(-1, MsgPackHashProtocolCodec.signedLength(truncated));
+            assertThrows(ProtocolException.class, () -> codec.decode(truncated));
+        }
+        byte[] broken = message.clone();
+        broken[broken.length - 10] ^= 0x01;
+        assertThrows(SignatureException.class, () -> codec.decode(broken, (uuid, data, offset, len, signature) -> false));
+        assertNotNull(codec.decode(message, (uuid, data, offset, len, signature) -> data == message && offset == 0));
+    }
+}
@@ -16,16 +16,30 @@
 
 package com.ubirch.protocol.codec;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolFixtures;
 import com.ubirch.protocol.ProtocolMessage;
 import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,6 +78,109 @@ class MsgPackProtocolDecoderTest extends ProtocolFixtures {
         assertArrayEquals(expectedSimpleSignature, pm.getSignature());
     }
 
+    @Test
+    void testMsgPackProtocolDecoderPayloadMatchesFullTree() throws IOException, SignatureException {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("int", Integer.MAX_VALUE);
+        payload.put("long", Long.MIN_VALUE);
+        payload.put("big", new BigInteger("18446744073709551615"));
+        payload.put("double", 1.5);
+        payload.put("text", "hello");
+        payload.put("bytes", new byte[]{1, 2, 3});
+        payload.put("list", Arrays.asList(1, "two", null, true));
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, new byte[64], 0xEE, payload);
+        byte[] message = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64]);
+
+        ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+        mapper.configure(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS, true);
+        assertEquals(mapper.readTree(message).get(4), MsgPackProtocolDecoder.getDecoder().decode(message).getPayload());
+    }
+
+    @Test
+    void testMsgPackProtocolDecoderLazyPayload() throws ProtocolException {
+        ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decodeLazy(expectedSignedMessage);
+        assertEquals(ProtocolMessage.SIGNED, pm.getVersion());
+        assertEquals(testUUID, pm.getUUID());
+        assertEquals(0xEF, pm.getHint());
+        assertArrayEquals(new byte[]{1}, pm.getRawPayload());
+        assertArrayEquals(expectedSimpleSignature, pm.getSignature());
+        assertArrayEquals(MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage).getSigned(), pm.getSigned());
+        assertEquals(1, pm.getPayload().asInt());
+    }
+
+    @Test
+    void testMsgPackProtocolDecoderLazyPayloadMatchesEager() throws IOException {
+        for (String fixture : new String[]{"msgpack/v1.0-register.mpack", "msgpack/v2.0-ecdsa-register.mpack"}) {
+            byte[] message = getBinaryFixture(fixture);
+            ProtocolMessage eager = MsgPackProtocolDecoder.getDecoder().decode(message);
+            ProtocolMessage lazy = MsgPackProtocolDecoder.getDecoder().decodeLazy(message);
+            assertEquals(eager.getPayload(), lazy.getPayload(), fixture);
+            assertEquals(eager.toString(), lazy.toString(), fixture);
+        }
+    }
+
+    @Test
+    void testMsgPackProtocolDecoderLazyPayloadVerify() {
+        MsgPackProtocolDecoder decoder = MsgPackProtocolDecoder.getDecoder();
+        assertDoesNotThrow(() -> decoder.decodeLazy(expectedSignedMessage, (uuid, data, offset, len, signature) -> true));
+        assertThrows(SignatureException.class, () ->
+                decoder.decodeLazy(expectedSignedMessage, (uuid, data, offset, len, signature) -> false));
+    }
+
+    @Test
+    void testMsgPackProtocolDecoderByteBuffer() throws ProtocolException {
+        ProtocolMessage expected = MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage);
+
+        ByteBuffer heap = ByteBuffer.allocate(expectedSignedMessage.length + 20);
+        heap.position(10);
+        heap.put(expectedSignedMessage).flip().position(10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(expectedSignedMessage.length);
+        direct.put(expectedSignedMessage).flip();
+
+        for (ByteBuffer buffer : new ByteBuffer[]{heap, heap.slice(), direct}) {
+            int position = buffer.position();
+            ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(buffer);
+            assertEquals(position, buffer.position());
+            assertEquals(expected.getUUID(), pm.getUUID());
+            assertEquals(expected.getPayload(), pm.getPayload());
+            assertArrayEquals(expected.getSigned(), pm.getSigned());
+            assertArrayEquals(expected.getSignature(), pm.getSignature());
+        }
+    }
+
+    @Test
+    void testMsgPackProtocolDecoderLargeDirectByteBuffer() throws IOException, SignatureException, InvalidKeyException {
+        // direct buffers may be read in 8k chunks, let the payload and the signature cross the chunk boundaries
+        for (int size = 8100; size < 24700; size += 97) {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("text", new String(new char[size / 2]).replace('\0', 't'));
+            payload.put("data", new byte[size - size / 2]);
+            byte[] signature = new byte[64];
+            Arrays.fill(signature, (byte) size);
+            byte[] message = MsgPackProtocolEncoder.getEncoder().encode(
+                    new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, payload), (uuid, data, offset, len) -> signature);
+
+            ProtocolMessage expected = MsgPackProtocolDecoder.getDecoder().decode(message);
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+            direct.put(message).flip();
+            ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(direct);
+            assertEquals(expected.getPayload(), pm.getPayload());
+            assertArrayEquals(expected.getSigned(), pm.getSigned());
+            assertArrayEquals(signature, pm.getSignature());
+        }
+    }
+
+    @Test
+    void testMsgPackProtocolDecoderDirectByteBufferChainedVerify() throws ProtocolException, SignatureException {
+        for (byte[] message : expectedChainedMessages) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+            direct.put(message).flip();
+            ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(direct, (uuid, data, offset, len, signature) ->
+                    Arrays.equals(Arrays.copyOfRange(message, 0, message.length - 66), Arrays.copyOfRange(data, offset, offset + len)));
+            assertArrayEquals(MsgPackProtocolDecoder.getDecoder().decode(message).getChain(), pm.getChain());
+        }
+    }
+
     @Test
     void testMsgPackProtocolDecoderSignedMessageFromParts() throws ProtocolException {
         ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage);
@@ -144,4 +261,33 @@ class MsgPackProtocolDecoderTest extends ProtocolFixtures {
                 decoder.decode(new byte[]{(byte) 0x91, 0x01}, (uuid, data, offset, len, signature) -> true));
     }
 
+    @Test
+    void testMsgPackProtocolCodecConcurrentUse() throws InterruptedException, ExecutionException {
+        // the codec singletons are shared by all threads
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int hint = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, hint, i);
+                        byte[] encoded = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) ->
+                                Arrays.copyOfRange(data, offset, offset + len));
+                        ProtocolMessage decoded = MsgPackProtocolDecoder.getDecoder().decode(encoded, (uuid, data, offset, len, signature) ->
+                                Arrays.equals(signature, Arrays.copyOfRange(data, offset, offset + len)));
+                        if (decoded.getHint() != hint || decoded.getPayload().asInt() != i) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.ubirch.protocol.Protocol;
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MsgPackProtocolEmitter}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MsgPackProtocolEmitterTest extends ProtocolFixtures {
+
+    @Test
+    void testEmitMatchesEncoder() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        ObjectNode nested = new ObjectMapper().createObjectNode();
+        nested.put("ts", 1234567890L).putArray("values").add(1).add(2.5).add("three");
+        Object[] payloads = {1, BinaryNode.valueOf(new byte[64]), TextNode.valueOf("AAECAwQ="), nested};
+
+        for (int version : new int[]{ProtocolMessage.SIGNED, ProtocolMessage.CHAINED}) {
+            MsgPackProtocolEmitter emitter = new MsgPackProtocolEmitter(testUUID, version);
+            assertEquals(testUUID, emitter.getUUID());
+            assertEquals(version, emitter.getVersion());
+            for (int hint : new int[]{0x00, 0x7F, 0xEF}) {
+                for (Object payload : payloads) {
+                    byte[] chain = version == ProtocolMessage.CHAINED ? new byte[64] : null;
+                    ProtocolMessage expected = new ProtocolMessage(version, testUUID, chain, hint, payload);
+                    ProtocolMessage pm = new ProtocolMessage(version, testUUID, chain, hint, payload);
+                    byte[] message = emitter.emit(pm, p);
+                    assertArrayEquals(MsgPackProtocolEncoder.getEncoder().encode(expected, p), message);
+                    assertArrayEquals(expected.getSigned(), pm.getSigned());
+                    assertArrayEquals(expected.getSignature(), pm.getSignature());
+                    assertNotNull(MsgPackProtocolDecoder.getDecoder().decode(message, p));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testEmitChained() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        MsgPackProtocolEmitter emitter = new MsgPackProtocolEmitter(testUUID, ProtocolMessage.CHAINED);
+        for (byte[] expected : expectedChainedMessages) {
+            ProtocolMessage decoded = MsgPackProtocolDecoder.getDecoder().decode(expected);
+            ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.CHAINED, testUUID,
+                    decoded.getChain(), decoded.getHint(), decoded.getPayload());
+            assertArrayEquals(expected, emitter.emit(pm, p));
+        }
+    }
+
+    @Test
+    void testEmitIntoTarget() throws IOException, GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        MsgPackProtocolEmitter emitter = new MsgPackProtocolEmitter(testUUID, ProtocolMessage.SIGNED);
+        byte[] target = new byte[expectedSignedMessage.length + 10];
+        int written = emitter.emit(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), p, target, 10);
+        assertEquals(expectedSignedMessage.length, written);
+        assertArrayEquals(expectedSignedMessage, Arrays.copyOfRange(target, 10, target.length));
+
+        assertThrows(ProtocolException.class, () -> emitter.emit(
+                new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), p, new byte[written - 1], 0));
+
+        AtomicInteger signatures = new AtomicInteger();
+        ProtocolSigner signer = (uuid, data, offset, len) -> {
+            signatures.incrementAndGet();
+            return new byte[64];
+        };
+        assertThrows(ProtocolException.class, () -> emitter.emit(
+                new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), signer, new byte[written - 1], 0));
+        assertEquals(0, signatures.get());
+    }
+
+    @Test
+    void testEmitMismatch() throws GeneralSecurityException {
+        Protocol p = new TestProtocol();
+        MsgPackProtocolEmitter emitter = new MsgPackProtocolEmitter(testUUID, ProtocolMessage.CHAINED);
+        assertThrows(ProtocolException.class, () -> emitter.emit(
+                new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), p));
+        assertThrows(ProtocolException.class, () -> emitter.emit(
+                new ProtocolMessage(ProtocolMessage.CHAINED, UUID.randomUUID(), 0xEF, 1), p));
+        assertThrows(ProtocolException.class, () -> emitter.emit(
+                new ProtocolMessage(ProtocolMessage.CHAINED, testUUID, new byte[32], 0xEF, 1), p));
+        assertThrows(IllegalArgumentException.class, () -> emitter.emit(null, p));
+        assertThrows(IllegalArgumentException.class, () -> new MsgPackProtocolEmitter(testUUID, 1));
+        assertThrows(IllegalArgumentException.class, () -> new MsgPackProtocolEmitter(null, ProtocolMessage.SIGNED));
+    }
+}
@@ -16,19 +16,34 @@
 
 package com.ubirch.protocol.codec;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.ubirch.protocol.ProtocolException;
 import com.ubirch.protocol.ProtocolFixtures;
 import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
 import org.junit.jupiter.api.Test;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageUnpacker;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -133,6 +148,162 @@ class MsgPackProtocolEncoderTest extends ProtocolFixtures {
         }
     }
 
+    @Test
+    void testMsgPackProtocolEncoderSignedRange() throws ProtocolException, SignatureException {
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        byte[] msg = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64]);
+
+        assertEquals(msg.length - 66, pm.getSigned().length);
+        assertArrayEquals(Arrays.copyOfRange(msg, 0, msg.length - 66), pm.getSigned());
+        assertArrayEquals(msg, MsgPackProtocolEncoder.getEncoder().encode(pm));
+
+        // base64 text payloads are written as binary and must be covered by the signature, too
+        pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, "AAECAwQ=");
+        msg = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64]);
+        assertEquals(msg.length - 66, pm.getSigned().length);
+        assertArrayEquals(Arrays.copyOfRange(msg, 0, msg.length - 66), pm.getSigned());
+    }
+
+    @Test
+    void testMsgPackProtocolEncoderPayloadMatchesGenerator() throws IOException, SignatureException {
+        ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+        ObjectNode payload = mapper.createObjectNode();
+        payload.put("int", 42).put("long", Long.MAX_VALUE).put("negative", -129)
+                .put("big", new BigInteger("18446744073709551615"))
+                .put("float", 1.5f).put("double", Math.PI).put("bool", true).putNull("null")
+                .put("unicode", "\u00e4\u00f6\u00fc\u20ac").put("binary", new byte[300]);
+        ArrayNode strings = payload.putArray("strings");
+        for (int length : new int[]{0, 31, 32, 255, 256, 65535, 65536}) {
+            strings.add(new String(new char[length]).replace('\0', 'x'));
+        }
+        payload.putObject("nested").putArray("array").add(1).add("two").addObject().put("three", 3.0);
+
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, payload);
+        byte[] msg = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64]);
+        ProtocolMessage decoded = MsgPackProtocolDecoder.getDecoder().decodeLazy(msg);
+        assertArrayEquals(mapper.writeValueAsBytes(pm.getPayload()), decoded.getRawPayload());
+
+        // payloads the direct packing does not handle fall back to the generator
+        pm.setPayload(mapper.createArrayNode().add(1).add(new BigDecimal("1.25")));
+        msg = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64]);
+        decoded = MsgPackProtocolDecoder.getDecoder().decodeLazy(msg);
+        assertArrayEquals(mapper.writeValueAsBytes(pm.getPayload()), decoded.getRawPayload());
+    }
+
+    @Test
+    void testMsgPackProtocolEncoderEncodeIntoTarget() throws ProtocolException, SignatureException {
+        byte[] expected = MsgPackProtocolEncoder.getEncoder().encode(
+                new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), (uuid, data, offset, len) -> new byte[64]);
+
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        byte[] target = new byte[expected.length + 10];
+        int written = MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64], target, 10);
+        assertEquals(expected.length, written);
+        assertArrayEquals(expected, Arrays.copyOfRange(target, 10, target.length));
+        assertNotNull(pm.getSignature());
+
+        assertThrows(ProtocolException.class, () -> MsgPackProtocolEncoder.getEncoder()
+                .encode(pm, (uuid, data, offset, len) -> new byte[64], new byte[expected.length - 1], 0));
+    }
+
+    @Test
+    void testMsgPackProtocolEncoderTargetTooSmallNotSigned() throws ProtocolException, SignatureException {
+        byte[] expected = MsgPackProtocolEncoder.getEncoder().encode(
+                new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), (uuid, data, offset, len) -> new byte[64]);
+
+        // a chain keeping signer must not record a signature for a message that is not written
+        AtomicInteger signatures = new AtomicInteger();
+        ProtocolSigner signer = (uuid, data, offset, len) -> {
+            signatures.incrementAndGet();
+            return new byte[64];
+        };
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        assertThrows(ProtocolException.class, () -> MsgPackProtocolEncoder.getEncoder()
+                .encode(pm, signer, new byte[expected.length - 1], 0));
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length - 1);
+        assertThrows(ProtocolException.class, () -> MsgPackProtocolEncoder.getEncoder().encode(pm, signer, buffer));
+        assertEquals(0, buffer.position());
+        assertEquals(0, signatures.get());
+
+        assertEquals(expected.length, MsgPackProtocolEncoder.getEncoder().encode(pm, signer, ByteBuffer.allocate(expected.length)));
+        assertEquals(1, signatures.get());
+
+        byte[] json = JSONProtocolEncoder.getEncoder().encode(pm, signer).getBytes(StandardCharsets.UTF_8);
+        assertEquals(2, signatures.get());
+        ByteBuffer jsonBuffer = ByteBuffer.allocate(json.length - 1);
+        assertThrows(ProtocolException.class, () -> JSONProtocolEncoder.getEncoder().encode(pm, signer, jsonBuffer));
+        assertEquals(0, jsonBuffer.position());
+        assertEquals(2, signatures.get());
+        assertEquals(json.length, JSONProtocolEncoder.getEncoder().encode(pm, signer, ByteBuffer.allocate(json.length)));
+        assertEquals(3, signatures.get());
+    }
+
+    @Test
+    void testMsgPackProtocolEncoderGatheringWrite() throws IOException, SignatureException {
+        byte[] expected = MsgPackProtocolEncoder.getEncoder().encode(
+                new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), (uuid, data, offset, len) -> new byte[64]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> writes = new ArrayList<>();
+        GatheringByteChannel channel = new GatheringByteChannel() {
+            @Override
+            public long write(ByteBuffer[] srcs, int offset, int length) {
+                long written = 0;
+                for (int i = offset; i < offset + length; i++) {
+                    written += write(srcs[i]);
+                }
+                writes.add(length);
+                return written;
+            }
+
+            @Override
+            public long write(ByteBuffer[] srcs) {
+                return write(srcs, 0, srcs.length);
+            }
+
+            @Override
+            public int write(ByteBuffer src) {
+                int length = src.remaining();
+                byte[] data = new byte[length];
+                src.get(data);
+                out.write(data, 0, length);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1);
+        assertEquals(expected.length, MsgPackProtocolEncoder.getEncoder().encode(pm, (uuid, data, offset, len) -> new byte[64], channel));
+        assertArrayEquals(expected, out.toByteArray());
+        assertEquals(Collections.singletonList(2), writes);
+    }
+
+    @Test
+    void testMsgPackProtocolEncoderNestedEncode() throws ProtocolException, SignatureException {
+        // a signer that encodes a message itself while signing must not corrupt the outer message
+        MsgPackProtocolEncoder encoder = MsgPackProtocolEncoder.getEncoder();
+        byte[] expected = encoder.encode(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1),
+                (uuid, data, offset, len) -> new byte[64]);
+        byte[] msg = encoder.encode(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0xEF, 1), (uuid, data, offset, len) -> {
+            try {
+                encoder.encode(new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 0x00, "nested"),
+                        (u, d, o, l) -> new byte[64]);
+            } catch (ProtocolException e) {
+                throw new SignatureException(e);
+            }
+            return new byte[64];
+        });
+        assertArrayEquals(expected, msg);
+    }
+
     @Test
     void testMsgPackProtocolEncoderInvalidKeyException() {
         ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, testUUID, 2, 3);
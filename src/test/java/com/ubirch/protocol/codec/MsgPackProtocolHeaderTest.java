@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MsgPackProtocolHeader}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MsgPackProtocolHeaderTest extends ProtocolFixtures {
+
+    @Test
+    void testPeekMatchesView() throws IOException {
+        MsgPackProtocolHeader header = new MsgPackProtocolHeader();
+        MsgPackProtocolView view = new MsgPackProtocolView();
+        for (byte[] message : Arrays.asList(expectedSignedMessage, expectedChainedMessages.get(1),
+                getBinaryFixture("msgpack/v1.0-register.mpack"))) {
+            view.wrap(message);
+            header.peek(message);
+            assertEquals(view.getVersion(), header.getVersion());
+            assertEquals(view.getUUIDMostSignificantBits(), header.getUUIDMostSignificantBits());
+            assertEquals(view.getUUIDLeastSignificantBits(), header.getUUIDLeastSignificantBits());
+            assertEquals(view.getUUID(), header.getUUID());
+            assertEquals(view.hasChain(), header.hasChain());
+            assertEquals(view.getChainOffset(), header.getChainOffset());
+            assertEquals(view.getChainLength(), header.getChainLength());
+            assertEquals(view.getHint(), header.getHint());
+            assertEquals(view.getPayloadOffset(), header.getPayloadOffset());
+            assertEquals(view.getPayloadOffset(), header.getHeaderLength());
+        }
+    }
+
+    @Test
+    void testPeekByteBuffer() throws ProtocolException {
+        byte[] message = expectedChainedMessages.get(0);
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.length + 10);
+        direct.position(10);
+        direct.put(message).position(10);
+        direct.order(ByteOrder.LITTLE_ENDIAN);
+
+        MsgPackProtocolHeader header = new MsgPackProtocolHeader().peek(direct);
+        assertEquals(10, direct.position());
+        assertEquals(ProtocolMessage.CHAINED, header.getVersion());
+        assertEquals(testUUID, header.getUUID());
+        assertEquals(10 + 22, header.getChainOffset());
+        assertEquals(new MsgPackProtocolView().wrap(message).getPayloadOffset() + 10, header.getPayloadOffset());
+        assertEquals(0xEE, header.getHint());
+    }
+
+    @Test
+    void testMatches() throws ProtocolException {
+        MsgPackProtocolHeader header = new MsgPackProtocolHeader();
+        long msb = testUUID.getMostSignificantBits();
+        long lsb = testUUID.getLeastSignificantBits();
+        assertTrue(header.matches(expectedSignedMessage, (v, m, l, h) -> m == msb && l == lsb && h == 0xEF));
+        assertFalse(header.matches(expectedSignedMessage, (v, m, l, h) -> v == ProtocolMessage.CHAINED));
+        assertTrue(header.matches(ByteBuffer.wrap(expectedChainedMessages.get(2)), (v, m, l, h) -> v == ProtocolMessage.CHAINED));
+    }
+
+    @Test
+    void testPeekTruncatedAndBroken() throws ProtocolException {
+        MsgPackProtocolHeader header = new MsgPackProtocolHeader();
+        // the payload and the signature are not read
+        byte[] prefix = Arrays.copyOf(expectedSignedMessage, 22);
+        assertEquals(0xEF, header.peek(prefix).getHint());
+        assertThrows(ProtocolException.class, () -> header.peek(Arrays.copyOf(expectedSignedMessage, 21)));
+        assertThrows(ProtocolException.class, () -> header.peek(Arrays.copyOf(expectedSignedMessage, 10)));
+        assertThrows(ProtocolException.class, () -> header.peek(new byte[]{(byte) 0x91, 0x01}));
+        assertThrows(ProtocolException.class, () -> header.peek(new byte[]{(byte) 0x95, 0x32}));
+        assertThrows(ProtocolException.class, () -> header.peek(new byte[]{(byte) 0x95, 0x22, (byte) 0xc4, 0x08}));
+        assertThrows(ProtocolException.class, () -> header.peek(new byte[0]));
+
+        // hints of the wider integer formats
+        byte[] wide = Arrays.copyOf(expectedSignedMessage, 29);
+        wide[20] = (byte) 0xd3;
+        Arrays.fill(wide, 21, 29, (byte) 0xff);
+        assertEquals(-1, header.peek(wide).getHint());
+        wide[20] = (byte) 0xcf;
+        assertThrows(ProtocolException.class, () -> header.peek(wide));
+        assertThrows(ProtocolException.class, () -> header.peek(Arrays.copyOf(wide, 28)));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MsgPackProtocolReader}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MsgPackProtocolReaderTest extends ProtocolFixtures {
+
+    private List<byte[]> readAll(MsgPackProtocolReader reader) throws IOException {
+        List<byte[]> messages = new ArrayList<>();
+        byte[] message;
+        while ((message = reader.next()) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Test
+    void testReadConcatenatedMessages() throws IOException {
+        List<byte[]> expected = new ArrayList<>(expectedChainedMessages);
+        expected.add(expectedSignedMessage);
+        expected.add(getBinaryFixture("msgpack/v1.0-register.mpack"));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        for (byte[] message : expected) {
+            archive.write(message);
+        }
+
+        // a stream returning a single byte per read
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(archive.toByteArray())) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(1, len));
+            }
+        };
+        MsgPackProtocolReader reader = new MsgPackProtocolReader(in);
+        List<byte[]> messages = readAll(reader);
+        assertEquals(expected.size(), messages.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), messages.get(i));
+        }
+        assertEquals(archive.size(), reader.getPosition());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void testReadFile(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("archive.mpack");
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            archive.write(expectedChainedMessages.get(i % 3));
+        }
+        Files.write(file, archive.toByteArray());
+
+        MsgPackProtocolView view = new MsgPackProtocolView();
+        int count = 0;
+        try (MsgPackProtocolReader reader = MsgPackProtocolReader.open(file)) {
+            while (reader.nextView(view) != null) {
+                byte[] expected = expectedChainedMessages.get(count++ % 3);
+                assertEquals(expected.length, view.getLength());
+                assertEquals(testUUID, view.getUUID());
+                assertArrayEquals(Arrays.copyOfRange(expected, expected.length - 64, expected.length), view.getSignature());
+            }
+            assertEquals(archive.size(), reader.getPosition());
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    void testReadMessagesWithGrowingBuffer() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        for (byte[] message : expectedChainedMessages) {
+            archive.write(message);
+        }
+
+        // the buffer is smaller than a single message
+        MsgPackProtocolReader reader = new MsgPackProtocolReader(
+                Channels.newChannel(new ByteArrayInputStream(archive.toByteArray())), 16);
+        for (byte[] expected : expectedChainedMessages) {
+            ProtocolMessage pm = reader.nextMessage();
+            assertEquals(MsgPackProtocolDecoder.getDecoder().decode(expected).toString(), pm.toString());
+        }
+        assertNull(reader.nextMessage());
+    }
+
+    @Test
+    void testBrokenStream() {
+        byte[] truncated = Arrays.copyOf(expectedSignedMessage, expectedSignedMessage.length - 1);
+        assertThrows(ProtocolException.class, () -> readAll(new MsgPackProtocolReader(new ByteArrayInputStream(truncated))));
+        assertThrows(ProtocolException.class, () -> readAll(new MsgPackProtocolReader(new ByteArrayInputStream(new byte[]{0x01}))));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ubirch.protocol.codec;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolVerifier;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MsgPackProtocolView}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MsgPackProtocolViewTest extends ProtocolFixtures {
+
+    @Test
+    void testViewSignedMessage() throws ProtocolException {
+        ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(expectedSignedMessage);
+        MsgPackProtocolView view = new MsgPackProtocolView().wrap(expectedSignedMessage);
+
+        assertSame(expectedSignedMessage, view.getBuffer());
+        assertEquals(expectedSignedMessage.length, view.getLength());
+        assertEquals(ProtocolMessage.SIGNED, view.getVersion());
+        assertEquals(testUUID.getMostSignificantBits(), view.getUUIDMostSignificantBits());
+        assertEquals(testUUID.getLeastSignificantBits(), view.getUUIDLeastSignificantBits());
+        assertFalse(view.hasChain());
+        assertNull(view.getChain());
+        assertEquals(0xEF, view.getHint());
+        assertEquals(1, view.getPayloadLength());
+        assertEquals(1, expectedSignedMessage[view.getPayloadOffset()]);
+        assertEquals(0, view.getSignedOffset());
+        assertArrayEquals(pm.getSigned(), Arrays.copyOfRange(expectedSignedMessage, 0, view.getSignedLength()));
+        assertEquals(64, view.getSignatureLength());
+        assertArrayEquals(pm.getSignature(), view.getSignature());
+    }
+
+    @Test
+    void testViewChainedMessages() throws ProtocolException {
+        MsgPackProtocolView view = new MsgPackProtocolView();
+        for (byte[] message : expectedChainedMessages) {
+            ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(message);
+            view.wrap(message);
+
+            assertEquals(ProtocolMessage.CHAINED, view.getVersion());
+            assertEquals(pm.getUUID(), view.getUUID());
+            assertTrue(view.hasChain());
+            assertEquals(64, view.getChainLength());
+            assertArrayEquals(pm.getChain(), view.getChain());
+            assertEquals(pm.getHint(), view.getHint());
+            assertEquals(pm.getSigned().length, view.getSignedLength());
+            assertArrayEquals(pm.getSignature(), view.getSignature());
+        }
+    }
+
+    @Test
+    void testViewWithOffset() throws ProtocolException {
+        byte[] buffer = new byte[expectedSignedMessage.length + 20];
+        System.arraycopy(expectedSignedMessage, 0, buffer, 10, expectedSignedMessage.length);
+
+        MsgPackProtocolView view = new MsgPackProtocolView().wrap(buffer, 10, buffer.length - 10);
+        assertEquals(expectedSignedMessage.length, view.getLength());
+        assertEquals(10, view.getSignedOffset());
+        assertEquals(testUUID, view.getUUID());
+        assertEquals(1, buffer[view.getPayloadOffset()]);
+        assertArrayEquals(Arrays.copyOfRange(expectedSignedMessage, expectedSignedMessage.length - 64, expectedSignedMessage.length),
+                view.getSignature());
+    }
+
+    @Test
+    void testViewByteBuffer() throws ProtocolException {
+        ByteBuffer direct = ByteBuffer.allocateDirect(expectedSignedMessage.length);
+        direct.put(expectedSignedMessage).flip();
+        ByteBuffer heap = ByteBuffer.wrap(expectedSignedMessage);
+
+        MsgPackProtocolView view = new MsgPackProtocolView();
+        for (ByteBuffer buffer : new ByteBuffer[]{heap, direct}) {
+            view.wrap(buffer);
+            assertEquals(0, buffer.position());
+            assertEquals(expectedSignedMessage.length, view.getLength());
+            assertEquals(testUUID, view.getUUID());
+            assertArrayEquals(Arrays.copyOfRange(expectedSignedMessage, expectedSignedMessage.length - 64, expectedSignedMessage.length),
+                    view.getSignature());
+        }
+        assertSame(expectedSignedMessage, view.wrap(heap).getBuffer());
+    }
+
+    @Test
+    void testViewDirectBufferInPlace() throws ProtocolException, SignatureException, InvalidKeyException {
+        ByteBuffer direct = ByteBuffer.allocateDirect(expectedSignedMessage.length + 10);
+        direct.position(10);
+        direct.put(expectedSignedMessage).position(10);
+
+        MsgPackProtocolView view = new MsgPackProtocolView().wrap(direct);
+        assertThrows(IllegalStateException.class, view::getBuffer);
+        assertEquals(10, view.getSignedOffset());
+        assertEquals(1, view.getByteBuffer().get(view.getPayloadOffset()));
+        assertTrue(view.verify(new ProtocolVerifier() {
+            @Override
+            public boolean verify(UUID uuid, byte[] data, int offset, int len, byte[] signature) {
+                throw new AssertionError("direct buffer copied");
+            }
+
+            @Override
+            public boolean verify(UUID uuid, ByteBuffer data, byte[] signature) {
+                return data.isDirect() && data.position() == 10 && data.remaining() == view.getSignedLength();
+            }
+        }));
+
+        // wrapping an array again after a direct buffer
+        assertSame(expectedSignedMessage, view.wrap(expectedSignedMessage).getBuffer());
+        assertEquals(testUUID, view.getUUID());
+    }
+
+    @Test
+    void testViewLegacyMessage() throws IOException {
+        byte[] message = getBinaryFixture("msgpack/v1.0-register.mpack");
+        ProtocolMessage pm = MsgPackProtocolDecoder.getDecoder().decode(message);
+        MsgPackProtocolView view = new MsgPackProtocolView().wrap(message);
+
+        assertEquals(pm.getVersion(), view.getVersion());
+        assertEquals(pm.getUUID(), view.getUUID());
+        assertEquals(pm.getHint(), view.getHint());
+        assertEquals(pm.getSigned().length, view.getSignedLength());
+        assertArrayEquals(pm.getSignature(), view.getSignature());
+    }
+
+    @Test
+    void testViewVerify() throws ProtocolException, SignatureException, InvalidKeyException {
+        MsgPackProtocolView view = new MsgPackProtocolView().wrap(expectedSignedMessage);
+        assertTrue(view.verify((uuid, data, offset, len, signature) -> data == expectedSignedMessage && offset == 0));
+    }
+
+    @Test
+    void testViewBrokenMessage() {
+        MsgPackProtocolView view = new MsgPackProtocolView();
+        assertThrows(ProtocolException.class, () -> view.wrap(new byte[]{(byte) 0xEF, 44}));
+        assertThrows(ProtocolException.class, () -> view.wrap(new byte[]{(byte) 0x91, 0x01}));
+        assertThrows(ProtocolException.class, () -> view.wrap(Arrays.copyOf(expectedSignedMessage, expectedSignedMessage.length - 1)));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import com.ubirch.protocol.ProtocolException;
+import com.ubirch.protocol.ProtocolFixtures;
+import com.ubirch.protocol.ProtocolMessage;
+import com.ubirch.protocol.ProtocolSigner;
+import com.ubirch.protocol.codec.MsgPackProtocolEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MessageIndex}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MessageIndexTest extends ProtocolFixtures {
+    private static final UUID[] UUIDS = {testUUID, UUID.randomUUID(), UUID.randomUUID()};
+    // a unique, deterministic signature per message
+    private static final ProtocolSigner SIGNER = (uuid, data, offset, len) -> {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            digest.update(data, offset, len);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SignatureException(e);
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private static byte[] hash(int n) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) n;
+        hash[31] = (byte) (n >> 8);
+        return hash;
+    }
+
+    private static byte[] message(int n) throws ProtocolException, SignatureException {
+        ProtocolMessage pm = new ProtocolMessage(ProtocolMessage.SIGNED, UUIDS[n % UUIDS.length], 0x00, hash(n));
+        return MsgPackProtocolEncoder.getEncoder().encode(pm, SIGNER);
+    }
+
+    private static byte[] signature(byte[] message) {
+        byte[] signature = new byte[64];
+        System.arraycopy(message, message.length - 64, signature, 0, 64);
+        return signature;
+    }
+
+    private void assertFound(MessageIndex index, int n) throws Exception {
+        assertFound(index, n, n);
+    }
+
+    private void assertFound(MessageIndex index, int n, long record) throws Exception {
+        assertArrayEquals(new long[]{record}, index.findBySignature(signature(message(n))));
+        assertArrayEquals(new long[]{record}, index.findByPayload(hash(n)));
+    }
+
+    @Test
+    void testFindInSegmentsAndTail() throws Exception {
+        int count = 1000;
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 16 * 1024, 0)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(message(i));
+            }
+            writer.append(expectedChainedMessages.get(0));
+            writer.append(new byte[]{1, 2, 3});
+            writer.sync();
+
+            try (MessageIndex index = MessageIndex.open(dir)) {
+                assertTrue(Files.exists(dir.resolve(String.format("%020d.signature", 0))));
+                for (int i = 0; i < count; i += 7) {
+                    assertFound(index, i);
+                }
+                long[] records = index.findByUUID(UUIDS[1]);
+                assertEquals(count / UUIDS.length, records.length);
+                for (int i = 0; i < records.length; i++) {
+                    assertEquals(1 + i * UUIDS.length, records[i]);
+                }
+                assertEquals(count / UUIDS.length + 2, index.findByUUID(testUUID).length);
+                assertEquals(0, index.findByUUID(UUID.randomUUID()).length);
+                assertEquals(0, index.findBySignature(new byte[64]).length);
+                assertEquals(0, index.findByPayload(hash(count)).length);
+                assertEquals(0, index.findByPayload(new byte[8]).length);
+
+                // new messages are found after an update
+                writer.append(message(count));
+                writer.sync();
+                assertEquals(0, index.findByPayload(hash(count)).length);
+                index.update();
+                assertFound(index, count, count + 2);
+            }
+        }
+    }
+
+    @Test
+    void testIndexFilesAreReused() throws Exception {
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 8 * 1024, 0)) {
+            for (int i = 0; i < 300; i++) {
+                writer.append(message(i));
+            }
+        }
+        try (MessageIndex index = MessageIndex.open(dir)) {
+            assertFound(index, 42);
+        }
+        Path file = dir.resolve(String.format("%020d.uuid", 0));
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        try (MessageIndex index = MessageIndex.open(dir)) {
+            assertEquals(modified, Files.getLastModifiedTime(file).toMillis());
+            for (int i = 0; i < 300; i++) {
+                assertFound(index, i);
+            }
+        }
+    }
+
+    @Test
+    void testSortedEntries() {
+        IndexEntries entries = new IndexEntries();
+        for (int i = 0; i < 5000; i++) {
+            entries.add(i % 17 - 8, -i, i);
+        }
+        assertArrayEquals(new int[]{17 * 3 + 8}, entries.find(0, -(17 * 3 + 8)));
+        entries.sort();
+        for (int i = 1; i < entries.size; i++) {
+            assertTrue(entries.hi[i - 1] < entries.hi[i]
+                    || entries.hi[i - 1] == entries.hi[i] && entries.lo[i - 1] < entries.lo[i]);
+        }
+    }
+
+    @Test
+    void testDominantKey() {
+        // a single uuid emitting most messages of a segment
+        IndexEntries entries = new IndexEntries();
+        int[] expected = new int[200_000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i * 2;
+            entries.add(1, 2, i * 2);
+            entries.add(i, -i, i * 2 + 1);
+        }
+        assertArrayEquals(expected, entries.find(1, 2));
+        assertArrayEquals(new int[0], entries.find(1, 3));
+    }
+
+    @Test
+    void testRejectsCorruptIndexFile() throws IOException, ProtocolException, SignatureException {
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 1024, 0)) {
+            for (int i = 0; i < 20; i++) {
+                writer.append(message(i));
+            }
+        }
+        MessageIndex.open(dir).close();
+        Path file = dir.resolve(String.format("%020d.payload", 0));
+        byte[] data = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(data, data.length - 1));
+        assertThrows(IOException.class, () -> MessageIndex.open(dir));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019 ubirch GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ubirch.protocol.store;
+
+import com.ubirch.protocol.ProtocolFixtures;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the {@link MessageLogWriter} and {@link MessageLogReader}.
+ *
+ * @author Matthias L. Jugel
+ */
+class MessageLogTest extends ProtocolFixtures {
+    @TempDir
+    Path dir;
+
+    private static byte[] message(long n) {
+        return String.format("message-%08d", n).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testAppendAndReadAcrossSegments() throws IOException {
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 64 * 1024, 0)) {
+            for (int i = 0; i < 10000; i++) {
+                assertEquals(i, writer.append(message(i)));
+            }
+        }
+        assertTrue(LogSegment.list(dir).size() > 1);
+
+        try (MessageLogReader reader = MessageLogReader.open(dir)) {
+            assertArrayEquals(message(0), reader.read(0));
+            assertArrayEquals(message(4711), reader.read(4711));
+            assertArrayEquals(message(9999), reader.read(9999));
+            assertNull(reader.read(10000));
+
+            MessageLogReader.Cursor cursor = reader.cursor(1234);
+            for (int i = 1234; i < 10000; i++) {
+                assertEquals(i, cursor.getRecord());
+                assertArrayEquals(message(i), cursor.next());
+            }
+            assertNull(cursor.next());
+        }
+    }
+
+    @Test
+    void testReopenContinuesLog() throws IOException {
+        try (MessageLogWriter writer = MessageLogWriter.open(dir)) {
+            writer.append(expectedSignedMessage);
+        }
+        try (MessageLogWriter writer = MessageLogWriter.open(dir)) {
+            assertEquals(1, writer.getNextRecord());
+            assertEquals(1, writer.append(expectedChainedMessages.get(0)));
+        }
+        try (MessageLogReader reader = MessageLogReader.open(dir)) {
+            assertArrayEquals(expectedSignedMessage, reader.read(0));
+            assertArrayEquals(expectedChainedMessages.get(0), reader.read(1));
+        }
+    }
+
+    @Test
+    void testRecoverTornTail() throws IOException {
+        try (MessageLogWriter writer = MessageLogWriter.open(dir)) {
+            for (int i = 0; i < 100; i++) {
+                writer.append(message(i));
+            }
+        }
+        // simulate a crash in the middle of writing the last record
+        try (FileChannel channel = FileChannel.open(LogSegment.logFile(dir, 0), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (MessageLogWriter writer = MessageLogWriter.open(dir)) {
+            assertEquals(99, writer.getNextRecord());
+            writer.append(message(99));
+        }
+        try (MessageLogReader reader = MessageLogReader.open(dir)) {
+            MessageLogReader.Cursor cursor = reader.cursor(0);
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(message(i), cursor.next());
+            }
+            assertNull(cursor.next());
+        }
+    }
+
+    @Test
+    void testRecoverTornSegmentHeader() throws IOException {
+        long next;
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 1024, 0)) {
+            for (int i = 0; i < 20; i++) {
+                writer.append(message(i));
+            }
+            next = writer.getNextRecord();
+        }
+        List<Long> segments = LogSegment.list(dir);
+        long last = segments.get(segments.size() - 1);
+        // simulate a crash right after creating the next segment, before its header was written
+        for (int size : new int[]{0, LogSegment.HEADER_SIZE - 1}) {
+            Files.deleteIfExists(LogSegment.logFile(dir, next));
+            try (FileChannel channel = FileChannel.open(LogSegment.logFile(dir, next),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[size]));
+            }
+            assertTrue(next > last);
+            try (MessageLogWriter writer = MessageLogWriter.open(dir, 1024, 0)) {
+                assertEquals(next, writer.getNextRecord());
+                writer.append(message(20));
+            }
+            try (MessageLogReader reader = MessageLogReader.open(dir)) {
+                MessageLogReader.Cursor cursor = reader.cursor(0);
+                for (int i = 0; i < 20; i++) {
+                    assertArrayEquals(message(i), cursor.next());
+                }
+                assertArrayEquals(message(20), cursor.next());
+                assertNull(cursor.next());
+            }
+            Files.delete(LogSegment.logFile(dir, next));
+            Files.deleteIfExists(LogSegment.indexFile(dir, next));
+        }
+    }
+
+    @Test
+    void testCursorFollowsWriter() throws IOException {
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 1024, 0);
+             MessageLogReader reader = MessageLogReader.open(dir)) {
+            MessageLogReader.Cursor cursor = reader.cursor(0);
+            assertNull(cursor.next());
+            for (int i = 0; i < 200; i++) {
+                writer.append(message(i));
+                writer.sync();
+                assertArrayEquals(message(i), cursor.next());
+            }
+            assertNull(cursor.next());
+        }
+    }
+
+    @Test
+    void testConcurrentAppendWithGroupCommit() throws Exception {
+        int threads = 4, count = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (MessageLogWriter writer = MessageLogWriter.open(dir, 16 * 1024, 0)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        writer.sync(writer.append(message(i)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(threads * count, writer.getNextRecord());
+        } finally {
+            executor.shutdown();
+        }
+        try (MessageLogReader reader = MessageLogReader.open(dir)) {
+            MessageLogReader.Cursor cursor = reader.cursor(0);
+            int[] seen = new int[count];
+            byte[] message;
+            while ((message = cursor.next()) != null) {
+                seen[Integer.parseInt(new String(message, StandardCharsets.UTF_8).substring(8))]++;
+            }
+            for (int n : seen) {
+                assertEquals(threads, n);
+            }
+        }
+    }
+
+    @Test
+    void testRejectsForeignFiles() throws IOException {
+        try (FileChannel channel = FileChannel.open(LogSegment.logFile(dir, 0),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[32]));
+        }
+        assertThrows(IOException.class, () -> MessageLogWriter.open(dir));
+        assertThrows(IOException.class, () -> MessageLogReader.open(dir));
+    }
+}